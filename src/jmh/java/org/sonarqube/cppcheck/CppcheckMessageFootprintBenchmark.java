@@ -0,0 +1,146 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Measures the heap retained per message once a report is loaded in memory, as done for multi-module
+ * projects. The "strings" layout reproduces the former representation of messages, where every attribute
+ * was a distinct String, in order to compare it with the current one. The "offheap" layout stores messages in
+ * a {@link CppcheckFindingStore}, whose direct buffers are reported apart from the heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CppcheckMessageFootprintBenchmark {
+
+  @Param({"200000"})
+  public int errors;
+
+  @Param({"1000"})
+  public int files;
+
+  @Param({"compact", "strings", "offheap"})
+  public String layout;
+
+  private File report;
+
+  @Setup
+  public void setUp() throws IOException {
+    report = File.createTempFile("cppcheck-benchmark", ".xml");
+    new CppcheckReportGenerator()
+      .setErrors(errors)
+      .setFiles(files)
+      .write(report);
+  }
+
+  @TearDown
+  public void tearDown() {
+    report.delete();
+  }
+
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class Footprint {
+
+    public long bytesPerMessage;
+    public long offHeapBytesPerMessage;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      bytesPerMessage = 0;
+      offHeapBytesPerMessage = 0;
+    }
+
+  }
+
+  @Benchmark
+  public List<Object> load(Footprint footprint) {
+    long before = usedHeap();
+    final List<Object> messages = Lists.newArrayListWithCapacity(errors);
+    final boolean strings = "strings".equals(layout);
+    final CppcheckFindingStore store = "offheap".equals(layout) ? new CppcheckFindingStore() : null;
+    CppcheckXmlParser.parse(report, new CppcheckXmlParser.MessageHandler() {
+      @Override
+      public void onMessage(CppcheckXmlParser.Message message) {
+        if (store != null) {
+          store.add(message.getFilename(), message);
+        } else {
+          messages.add(strings ? new StringMessage(message) : message);
+        }
+      }
+    });
+    if (store != null) {
+      messages.add(store);
+      footprint.offHeapBytesPerMessage = store.offHeapBytes() / errors;
+    }
+    footprint.bytesPerMessage = (usedHeap() - before) / errors;
+    return messages;
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static class StringMessage {
+
+    private final String id;
+    private final String severity;
+    private final String msg;
+    private final String verbose;
+    private final String filename;
+    private final String line;
+
+    StringMessage(CppcheckXmlParser.Message message) {
+      this.id = new String(message.getId());
+      this.severity = message.getSeverity().name().toLowerCase();
+      this.msg = message.getMsg();
+      this.verbose = new String(message.getVerbose());
+      this.filename = new String(message.getFilename());
+      this.line = Integer.toString(message.getLine());
+    }
+
+  }
+
+}
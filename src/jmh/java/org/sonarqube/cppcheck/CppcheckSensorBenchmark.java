@@ -0,0 +1,340 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.InputPath;
+import org.sonar.api.batch.fs.internal.DefaultFileSystem;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.component.Component;
+import org.sonar.api.component.Perspective;
+import org.sonar.api.component.ResourcePerspectives;
+import org.sonar.api.config.Settings;
+import org.sonar.api.issue.Issuable;
+import org.sonar.api.issue.Issue;
+import org.sonar.api.profiles.RulesProfile;
+import org.sonar.api.resources.Project;
+import org.sonar.api.resources.Resource;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.rules.Rule;
+import org.sonar.api.rules.RuleFinder;
+import org.sonar.api.rules.RulePriority;
+import org.sonar.api.rules.RuleQuery;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Import of a generated report by the sensor, SonarQube components being replaced by stubs as cheap as possible.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CppcheckSensorBenchmark {
+
+  @Param({"100000"})
+  public int errors;
+
+  @Param({"1000"})
+  public int files;
+
+  /**
+   * "skewed" puts 90% of the errors in 5 files.
+   */
+  @Param({"uniform", "skewed"})
+  public String distribution;
+
+  private File report;
+  private CppcheckSensor sensor;
+  private Project project;
+  private SensorContext context;
+  private StubIssuable issuable;
+
+  @Setup
+  public void setUp() throws IOException {
+    report = File.createTempFile("cppcheck-benchmark", ".xml");
+    CppcheckReportGenerator generator = new CppcheckReportGenerator().setErrors(errors).setFiles(files);
+    if ("skewed".equals(distribution)) {
+      generator.setHotFiles(5, 0.9);
+    }
+    generator.write(report);
+
+    Settings settings = new Settings();
+    settings.setProperty(CppcheckConfiguration.CPPCHECK_REPORT_PATH_PROPERTY, report.getAbsolutePath());
+    settings.setProperty(CppcheckConfiguration.CPPCHECK_REPORT_THREADS_PROPERTY, 1);
+
+    RulesProfile profile = RulesProfile.create();
+    final List<Rule> rules = Lists.newArrayList();
+    for (String language : new String[] {"c", "cpp"}) {
+      for (String id : generator.ids()) {
+        Rule rule = Rule.create(CppcheckRuleRepository.repositoryKeyForLanguage(language), id);
+        rules.add(rule);
+        profile.activateRule(rule, RulePriority.MAJOR);
+      }
+    }
+
+    DefaultFileSystem fileSystem = new DefaultFileSystem(report.getParentFile());
+    final Map<InputPath, Resource> resources = Maps.newHashMap();
+    Map<String, Resource> resourcesByKey = Maps.newHashMap();
+    for (int i = 0; i < files; i++) {
+      String relativePath = CppcheckReportGenerator.filename(i);
+      InputFile inputFile = new DefaultInputFile(relativePath)
+        .setAbsolutePath(new File(fileSystem.baseDir(), relativePath).getAbsolutePath())
+        .setLanguage(relativePath.endsWith(".c") ? "c" : "cpp");
+      fileSystem.add(inputFile);
+      Resource resource = org.sonar.api.resources.File.create(relativePath);
+      resources.put(inputFile, resource);
+      resourcesByKey.put(resource.getKey(), resource);
+    }
+
+    issuable = new StubIssuable();
+    project = new Project("benchmark");
+    context = (SensorContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {SensorContext.class}, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        if ("getResource".equals(method.getName()) && args[0] instanceof InputPath) {
+          return resources.get(args[0]);
+        }
+        throw new UnsupportedOperationException(method.getName());
+      }
+    });
+    sensor = new CppcheckSensor(new CppcheckConfiguration(settings), profile, new StubRuleFinder(rules), fileSystem, new StubPerspectives(issuable, resourcesByKey),
+      new CppcheckReportCache());
+  }
+
+  @TearDown
+  public void tearDown() {
+    report.delete();
+  }
+
+  @Benchmark
+  public int analyse() {
+    issuable.count = 0;
+    sensor.analyse(project, context);
+    return issuable.count;
+  }
+
+  private static class StubRuleFinder implements RuleFinder {
+
+    private final List<Rule> rules;
+
+    StubRuleFinder(List<Rule> rules) {
+      this.rules = rules;
+    }
+
+    @Override
+    public Rule findById(int ruleId) {
+      return null;
+    }
+
+    @Override
+    public Rule findByKey(String repositoryKey, String key) {
+      return null;
+    }
+
+    @Override
+    public Rule findByKey(RuleKey key) {
+      return null;
+    }
+
+    @Override
+    public Rule find(RuleQuery query) {
+      return null;
+    }
+
+    @Override
+    public Collection<Rule> findAll(RuleQuery query) {
+      List<Rule> result = Lists.newArrayList();
+      for (Rule rule : rules) {
+        if (rule.getRepositoryKey().equals(query.getRepositoryKey())) {
+          result.add(rule);
+        }
+      }
+      return result;
+    }
+
+  }
+
+  /**
+   * Like SonarQube, looks the resource up in an index and creates a new perspective for each call.
+   */
+  private static class StubPerspectives implements ResourcePerspectives {
+
+    private final StubIssuable issuable;
+    private final Map<String, Resource> resourcesByKey;
+
+    StubPerspectives(StubIssuable issuable, Map<String, Resource> resourcesByKey) {
+      this.issuable = issuable;
+      this.resourcesByKey = resourcesByKey;
+    }
+
+    @Override
+    public <P extends Perspective> P as(Class<P> perspectiveClass, Resource resource) {
+      if (resourcesByKey.get(resource.getKey()) == null && !(resource instanceof Project)) {
+        return null;
+      }
+      return perspectiveClass.cast(new IssuableView(issuable));
+    }
+
+    @Override
+    public <P extends Perspective> P as(Class<P> perspectiveClass, InputPath inputPath) {
+      return perspectiveClass.cast(issuable);
+    }
+
+    @Override
+    public <P extends Perspective> P as(Class<P> perspectiveClass, Component component) {
+      return perspectiveClass.cast(issuable);
+    }
+
+  }
+
+  private static class IssuableView implements Issuable {
+
+    private final StubIssuable issuable;
+
+    IssuableView(StubIssuable issuable) {
+      this.issuable = issuable;
+    }
+
+    @Override
+    public IssueBuilder newIssueBuilder() {
+      return issuable.newIssueBuilder();
+    }
+
+    @Override
+    public boolean addIssue(Issue issue) {
+      return issuable.addIssue(issue);
+    }
+
+    @Override
+    public List<Issue> issues() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<Issue> resolvedIssues() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Component component() {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+  private static class StubIssuable implements Issuable, Issuable.IssueBuilder {
+
+    private int count;
+    private RuleKey ruleKey;
+    private Integer line;
+    private String message;
+
+    @Override
+    public IssueBuilder newIssueBuilder() {
+      return this;
+    }
+
+    @Override
+    public boolean addIssue(Issue issue) {
+      count++;
+      return true;
+    }
+
+    @Override
+    public List<Issue> issues() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<Issue> resolvedIssues() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Component component() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public IssueBuilder ruleKey(RuleKey ruleKey) {
+      this.ruleKey = ruleKey;
+      return this;
+    }
+
+    @Override
+    public IssueBuilder line(Integer line) {
+      this.line = line;
+      return this;
+    }
+
+    @Override
+    public IssueBuilder message(String message) {
+      this.message = message;
+      return this;
+    }
+
+    @Override
+    public IssueBuilder severity(String severity) {
+      return this;
+    }
+
+    @Override
+    public IssueBuilder reporter(String reporter) {
+      return this;
+    }
+
+    @Override
+    public IssueBuilder effortToFix(Double d) {
+      return this;
+    }
+
+    @Override
+    public IssueBuilder attribute(String key, String value) {
+      return this;
+    }
+
+    @Override
+    public Issue build() {
+      return null;
+    }
+
+  }
+
+}
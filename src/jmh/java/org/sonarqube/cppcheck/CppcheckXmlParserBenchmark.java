@@ -0,0 +1,119 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CppcheckXmlParserBenchmark {
+
+  @Param({"100000"})
+  public int errors;
+
+  @Param({"1000"})
+  public int files;
+
+  @Param({"1", "3"})
+  public int locations;
+
+  @Param({"60"})
+  public int messageLength;
+
+  @Param({"STAXMATE", "STAX"})
+  public CppcheckXmlParser.Backend backend;
+
+  private File report;
+
+  @Setup
+  public void setUp() throws IOException {
+    report = File.createTempFile("cppcheck-benchmark", ".xml");
+    new CppcheckReportGenerator()
+      .setErrors(errors)
+      .setFiles(files)
+      .setLocations(locations)
+      .setMessageLength(messageLength)
+      .write(report);
+    // index read by replayIndex
+    CppcheckReports.Options indexed = new CppcheckReports.Options(1, backend, false, false, true);
+    CppcheckReports.parse(ImmutableList.of(report), indexed, Predicates.<String>alwaysTrue(), new CppcheckXmlParser.MessageHandler() {
+      @Override
+      public void onMessage(CppcheckXmlParser.Message message) {
+        // only the index is needed
+      }
+    });
+  }
+
+  @TearDown
+  public void tearDown() {
+    report.delete();
+    CppcheckReportIndex.sidecarOf(report).delete();
+  }
+
+  @Benchmark
+  public void parse(final Blackhole blackhole) {
+    CppcheckXmlParser.parse(report, backend, Predicates.<String>alwaysTrue(), new CppcheckXmlParser.MessageHandler() {
+      @Override
+      public void onMessage(CppcheckXmlParser.Message message) {
+        blackhole.consume(message);
+      }
+    });
+  }
+
+  @Benchmark
+  public void parseSplit(final Blackhole blackhole) {
+    // split whatever the size of the report, on all the processors
+    CppcheckReports.Options options = new CppcheckReports.Options(Runtime.getRuntime().availableProcessors(), backend, 0);
+    CppcheckReports.parse(ImmutableList.of(report), options, Predicates.<String>alwaysTrue(), new CppcheckXmlParser.MessageHandler() {
+      @Override
+      public void onMessage(CppcheckXmlParser.Message message) {
+        blackhole.consume(message);
+      }
+    });
+  }
+
+  @Benchmark
+  public void replayIndex(final Blackhole blackhole) {
+    // validation of the index against the report included
+    CppcheckReportIndex.open(report).replay(Predicates.<String>alwaysTrue(), new CppcheckXmlParser.MessageHandler() {
+      @Override
+      public void onMessage(CppcheckXmlParser.Message message) {
+        blackhole.consume(message);
+      }
+    });
+  }
+
+}
@@ -0,0 +1,261 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.utils.SonarException;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Findings which have been accepted, and whose messages are dropped before any issue is created. The baseline is
+ * either a Cppcheck suppressions file, one {@code id[:file[:line]]} per line, or a previous Cppcheck report, whose
+ * errors are matched by id, file and message so that they are still matched when lines move.
+ * <p/>
+ * Entries are kept as 64-bit fingerprints of their id, normalized file and line or message, so that the baseline
+ * takes about 11 bytes per entry whatever the length of paths and messages.
+ */
+final class CppcheckBaseline {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CppcheckBaseline.class);
+
+  static final CppcheckBaseline EMPTY = new CppcheckBaseline();
+
+  // id which matches all the ids in suppressions
+  private static final String ANY_ID = "*";
+
+  // kinds of fingerprints, so that an entry of a kind never matches an entry of another kind
+  private static final int BY_ID = 1;
+  private static final int BY_FILE = 2;
+  private static final int BY_LINE = 3;
+  private static final int BY_MESSAGE = 4;
+
+  private final LongHashSet fingerprints = new LongHashSet();
+  // suppressions whose file is a wildcard pattern, which can't be fingerprinted
+  private final List<PatternSuppression> patterns = Lists.newArrayList();
+  private int entries = 0;
+
+  private CppcheckBaseline() {
+  }
+
+  /**
+   * Loads the baseline in a single streaming pass, a file starting with an XML element being read as a report.
+   */
+  static CppcheckBaseline load(File file) {
+    final CppcheckBaseline baseline = new CppcheckBaseline();
+    try {
+      if (isXml(file)) {
+        CppcheckXmlParser.parse(file, new CppcheckXmlParser.MessageHandler() {
+          @Override
+          public void onMessage(CppcheckXmlParser.Message message) {
+            baseline.addMessage(message);
+          }
+        });
+      } else {
+        baseline.loadSuppressions(file);
+      }
+    } catch (IOException e) {
+      throw new SonarException("Unable to read Cppcheck baseline: " + file, e);
+    }
+    LOG.info("{} accepted Cppcheck finding(s) loaded from baseline {}", baseline.entries, file);
+    return baseline;
+  }
+
+  private static boolean isXml(File file) throws IOException {
+    InputStream is = CppcheckReportInput.open(file);
+    try {
+      int b = is.read();
+      // byte order mark or whitespace before the first element
+      while (b == 0xef || b == 0xbb || b == 0xbf || (b >= 0 && Character.isWhitespace(b))) {
+        b = is.read();
+      }
+      return b == '<';
+    } finally {
+      Closeables.closeQuietly(is);
+    }
+  }
+
+  private void loadSuppressions(File file) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(CppcheckReportInput.open(file), Charsets.UTF_8));
+    try {
+      String line = reader.readLine();
+      while (line != null) {
+        addSuppression(line.trim());
+        line = reader.readLine();
+      }
+    } finally {
+      Closeables.closeQuietly(reader);
+    }
+  }
+
+  /**
+   * Adds a suppression {@code id[:file[:line]]}, the file possibly being a pattern with {@code *} and {@code ?}.
+   */
+  void addSuppression(String suppression) {
+    if (suppression.isEmpty() || suppression.startsWith("#") || suppression.startsWith("//")) {
+      return;
+    }
+    int separator = suppression.indexOf(':');
+    if (separator < 0) {
+      add(hash(BY_ID, suppression));
+      return;
+    }
+    String id = suppression.substring(0, separator);
+    String file = suppression.substring(separator + 1);
+    int line = 0;
+    // a colon in the file name, like in C:/src/a.c, is not followed by digits only
+    int lineSeparator = file.lastIndexOf(':');
+    if (lineSeparator >= 0 && lineSeparator < file.length() - 1 && StringUtils.isNumeric(file.substring(lineSeparator + 1))) {
+      line = Integer.parseInt(file.substring(lineSeparator + 1));
+      file = file.substring(0, lineSeparator);
+    }
+    file = CppcheckReportCache.normalize(file);
+    if (StringUtils.containsAny(file, "*?")) {
+      patterns.add(new PatternSuppression(id, file, line));
+      entries++;
+    } else if (line > 0) {
+      add(Fingerprints.hash(hash(BY_LINE, id, file), line));
+    } else {
+      add(hash(BY_FILE, id, file));
+    }
+  }
+
+  /**
+   * Adds an error of a previous report.
+   */
+  void addMessage(CppcheckXmlParser.Message message) {
+    add(messageFingerprint(message.getId(), normalize(message.getFilename()), message.getMsg()));
+  }
+
+  private void add(long fingerprint) {
+    if (fingerprints.add(fingerprint)) {
+      entries++;
+    }
+  }
+
+  boolean isEmpty() {
+    return entries == 0;
+  }
+
+  int size() {
+    return entries;
+  }
+
+  boolean contains(CppcheckXmlParser.Message message) {
+    return contains(message.getId(), message.getFilename(), message.getLine(), message.getMsg());
+  }
+
+  /**
+   * Same as {@link #contains(CppcheckXmlParser.Message)}, from the values of a message which is not created.
+   */
+  boolean contains(String id, @Nullable String filename, int line, String msg) {
+    if (entries == 0) {
+      return false;
+    }
+    String file = normalize(filename);
+    if (fingerprints.contains(messageFingerprint(id, file, msg))) {
+      return true;
+    }
+    if (isSuppressed(id, file, line) || isSuppressed(ANY_ID, file, line)) {
+      return true;
+    }
+    for (PatternSuppression pattern : patterns) {
+      if (pattern.matches(id, file, line)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean isSuppressed(String id, @Nullable String file, int line) {
+    if (fingerprints.contains(hash(BY_ID, id))) {
+      return true;
+    }
+    if (file == null) {
+      return false;
+    }
+    return fingerprints.contains(hash(BY_FILE, id, file)) || (line > 0 && fingerprints.contains(Fingerprints.hash(hash(BY_LINE, id, file), line)));
+  }
+
+  private static long messageFingerprint(String id, @Nullable String file, String msg) {
+    return Fingerprints.hash(hash(BY_MESSAGE, id, file), msg);
+  }
+
+  private static long hash(int kind, String id) {
+    return Fingerprints.hash(Fingerprints.hash(Fingerprints.SEED, kind), id);
+  }
+
+  private static long hash(int kind, String id, @Nullable String file) {
+    return Fingerprints.hash(hash(kind, id), file);
+  }
+
+  @Nullable
+  private static String normalize(@Nullable String filename) {
+    return filename == null ? null : CppcheckReportCache.normalize(filename);
+  }
+
+  private static class PatternSuppression {
+
+    private final String id;
+    private final Pattern file;
+    private final int line;
+
+    PatternSuppression(String id, String file, int line) {
+      this.id = id;
+      this.file = toRegexp(file);
+      this.line = line;
+    }
+
+    boolean matches(String id, @Nullable String file, int line) {
+      return (ANY_ID.equals(this.id) || this.id.equals(id)) && file != null && (this.line == 0 || this.line == line)
+        && this.file.matcher(file).matches();
+    }
+
+    /**
+     * Like Cppcheck, {@code *} matches any characters, including path separators, and {@code ?} matches one character.
+     */
+    private static Pattern toRegexp(String pattern) {
+      StringBuilder sb = new StringBuilder();
+      int start = 0;
+      for (int i = 0; i < pattern.length(); i++) {
+        char c = pattern.charAt(i);
+        if (c == '*' || c == '?') {
+          sb.append(Pattern.quote(pattern.substring(start, i))).append(c == '*' ? ".*" : ".");
+          start = i + 1;
+        }
+      }
+      return Pattern.compile(sb.append(Pattern.quote(pattern.substring(start))).toString());
+    }
+
+  }
+
+}
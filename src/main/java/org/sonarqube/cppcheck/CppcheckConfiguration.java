@@ -19,16 +19,40 @@
  */
 package org.sonarqube.cppcheck;
 
-import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.apache.commons.lang.StringUtils;
 import org.sonar.api.BatchExtension;
 import org.sonar.api.config.Settings;
 import org.sonar.api.utils.SonarException;
+import org.sonar.api.utils.WildcardPattern;
 
+import javax.annotation.CheckForNull;
 import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 
 public class CppcheckConfiguration implements BatchExtension {
 
   public static final String CPPCHECK_REPORT_PATH_PROPERTY = "sonar.cppcheck.reportPath";
+  public static final String CPPCHECK_REPORT_THREADS_PROPERTY = "sonar.cppcheck.reportThreads";
+  public static final String CPPCHECK_EXPORT_STATS_PROPERTY = "sonar.cppcheck.exportStats";
+  public static final String CPPCHECK_PIPELINED_PROPERTY = "sonar.cppcheck.pipelined";
+  public static final String CPPCHECK_XML_PARSER_PROPERTY = "sonar.cppcheck.xmlParser";
+  public static final String CPPCHECK_SPLIT_REPORT_PROPERTY = "sonar.cppcheck.splitReport";
+  public static final String CPPCHECK_BASELINE_PATH_PROPERTY = "sonar.cppcheck.baselinePath";
+  public static final String CPPCHECK_MEMORY_BUDGET_PROPERTY = "sonar.cppcheck.memoryBudget";
+  public static final String CPPCHECK_OFF_HEAP_PROPERTY = "sonar.cppcheck.offHeap";
+  public static final String CPPCHECK_REPORT_INDEX_PROPERTY = "sonar.cppcheck.reportIndex";
+  public static final String CPPCHECK_EXECUTABLE_PROPERTY = "sonar.cppcheck.executable";
+  public static final String CPPCHECK_OPTIONS_PROPERTY = "sonar.cppcheck.options";
+  public static final String CPPCHECK_PROCESSES_PROPERTY = "sonar.cppcheck.processes";
 
   private final Settings settings;
 
@@ -36,17 +60,170 @@ public class CppcheckConfiguration implements BatchExtension {
     this.settings = settings;
   }
 
-  public File getCppcheckReportFile() {
-    String cppcheckReportPath = settings.getString(CPPCHECK_REPORT_PATH_PROPERTY);
-    if (Strings.isNullOrEmpty(cppcheckReportPath)) {
+  /**
+   * Reports matched by the comma-separated paths and wildcard patterns of the report property,
+   * in the order of the property, files matched by a same pattern being sorted by path.
+   */
+  public List<File> getCppcheckReportFiles() {
+    String[] cppcheckReportPaths = settings.getStringArray(CPPCHECK_REPORT_PATH_PROPERTY);
+    if (cppcheckReportPaths.length == 0) {
       throw new SonarException("Cppcheck report property found empty, you should run cppcheck externally and " +
         "import its report using " + CppcheckConfiguration.CPPCHECK_REPORT_PATH_PROPERTY + " property, for more information see the plugin documentation.");
     }
-    File executable = new File(cppcheckReportPath);
-    if (!executable.isFile()) {
-      throw new SonarException("Cppcheck report is not found, please check property '" + CPPCHECK_REPORT_PATH_PROPERTY + "': " + cppcheckReportPath);
+    Set<File> reports = Sets.newLinkedHashSet();
+    for (String cppcheckReportPath : cppcheckReportPaths) {
+      Collection<File> files = isPattern(cppcheckReportPath) ? listFiles(cppcheckReportPath) : Collections.singletonList(new File(cppcheckReportPath));
+      if (files.isEmpty() || !files.iterator().next().isFile()) {
+        throw new SonarException("Cppcheck report is not found, please check property '" + CPPCHECK_REPORT_PATH_PROPERTY + "': " + cppcheckReportPath);
+      }
+      reports.addAll(files);
     }
-    return executable;
+    return ImmutableList.copyOf(reports);
+  }
+
+  /**
+   * Maximum number of reports parsed concurrently, the number of available processors by default.
+   */
+  public int getReportThreads() {
+    if (settings.hasKey(CPPCHECK_REPORT_THREADS_PROPERTY)) {
+      return Math.max(1, settings.getInt(CPPCHECK_REPORT_THREADS_PROPERTY));
+    }
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * Whether the statistics of the import are written as JSON in the working directory.
+   */
+  public boolean isStatsExported() {
+    return settings.getBoolean(CPPCHECK_EXPORT_STATS_PROPERTY);
+  }
+
+  /**
+   * Whether reports are parsed on a separate thread while issues are being saved.
+   */
+  public boolean isPipelined() {
+    return settings.getBoolean(CPPCHECK_PIPELINED_PROPERTY);
+  }
+
+  /**
+   * Whether a single large report is split in chunks parsed concurrently.
+   */
+  public boolean isReportSplit() {
+    return settings.getBoolean(CPPCHECK_SPLIT_REPORT_PROPERTY);
+  }
+
+  /**
+   * Whether the messages of a report parsed once for all the modules are stored off-heap.
+   */
+  public boolean isOffHeap() {
+    return settings.getBoolean(CPPCHECK_OFF_HEAP_PROPERTY);
+  }
+
+  /**
+   * Whether a binary index is written next to each report, from which later imports of the same report read its messages.
+   */
+  public boolean isReportIndexed() {
+    return settings.getBoolean(CPPCHECK_REPORT_INDEX_PROPERTY);
+  }
+
+  /**
+   * Implementation of the parsing of the reports, StaxMate by default.
+   */
+  public CppcheckXmlParser.Backend getXmlParser() {
+    String name = settings.getString(CPPCHECK_XML_PARSER_PROPERTY);
+    if (StringUtils.isBlank(name)) {
+      return CppcheckXmlParser.Backend.STAXMATE;
+    }
+    for (CppcheckXmlParser.Backend backend : CppcheckXmlParser.Backend.values()) {
+      if (backend.name().equalsIgnoreCase(name.trim())) {
+        return backend;
+      }
+    }
+    throw new SonarException("Unknown XML parser in property '" + CPPCHECK_XML_PARSER_PROPERTY + "': " + name
+      + ", expected one of " + StringUtils.join(CppcheckXmlParser.Backend.values(), ", ").toLowerCase());
+  }
+
+  /**
+   * Memory in bytes which parsed messages can take before being sorted by file on disk, 0 when messages are
+   * imported as they are parsed. The property is in megabytes.
+   */
+  public long getMemoryBudget() {
+    return Math.max(0, settings.getLong(CPPCHECK_MEMORY_BUDGET_PROPERTY)) * 1024 * 1024;
+  }
+
+  /**
+   * File of the accepted findings, a Cppcheck suppressions file or a previous report, or null when there is none.
+   */
+  @CheckForNull
+  public File getBaselineFile() {
+    String path = settings.getString(CPPCHECK_BASELINE_PATH_PROPERTY);
+    if (StringUtils.isBlank(path)) {
+      return null;
+    }
+    File file = new File(path.trim());
+    if (!file.isFile()) {
+      throw new SonarException("Cppcheck baseline is not found, please check property '" + CPPCHECK_BASELINE_PATH_PROPERTY + "': " + path);
+    }
+    return file;
+  }
+
+  /**
+   * Cppcheck executable run by the plugin on the source files, or null when reports are imported.
+   */
+  @CheckForNull
+  public File getExecutable() {
+    String path = settings.getString(CPPCHECK_EXECUTABLE_PROPERTY);
+    if (StringUtils.isBlank(path)) {
+      return null;
+    }
+    File file = new File(path.trim());
+    if (!file.isFile()) {
+      throw new SonarException("Cppcheck executable is not found, please check property '" + CPPCHECK_EXECUTABLE_PROPERTY + "': " + path);
+    }
+    return file;
+  }
+
+  /**
+   * Options of the Cppcheck executable, separated by whitespaces.
+   */
+  public List<String> getOptions() {
+    return ImmutableList.copyOf(StringUtils.split(StringUtils.defaultString(settings.getString(CPPCHECK_OPTIONS_PROPERTY))));
+  }
+
+  /**
+   * Maximum number of Cppcheck processes run concurrently, the number of available processors by default.
+   */
+  public int getProcesses() {
+    if (settings.hasKey(CPPCHECK_PROCESSES_PROPERTY)) {
+      return Math.max(1, settings.getInt(CPPCHECK_PROCESSES_PROPERTY));
+    }
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+  private static boolean isPattern(String path) {
+    return StringUtils.containsAny(path, "*?");
+  }
+
+  private static List<File> listFiles(String pattern) {
+    String unixPattern = FilenameUtils.separatorsToUnix(pattern);
+    int wildcard = StringUtils.indexOfAny(unixPattern, "*?");
+    String prefix = unixPattern.substring(0, unixPattern.lastIndexOf('/', wildcard) + 1);
+    File baseDir = new File(prefix.isEmpty() ? "." : prefix);
+    if (!baseDir.isDirectory()) {
+      return Collections.emptyList();
+    }
+    boolean recursive = unixPattern.indexOf('/', wildcard) >= 0 || unixPattern.contains("**");
+    WildcardPattern wildcardPattern = WildcardPattern.create(unixPattern, "/");
+    String basePath = FilenameUtils.separatorsToUnix(baseDir.getPath());
+    List<File> files = Lists.newArrayList();
+    for (File file : FileUtils.listFiles(baseDir, TrueFileFilter.INSTANCE, recursive ? TrueFileFilter.INSTANCE : null)) {
+      String relativePath = FilenameUtils.separatorsToUnix(file.getPath()).substring(basePath.length());
+      if (wildcardPattern.match(prefix + StringUtils.removeStart(relativePath, "/"))) {
+        files.add(file);
+      }
+    }
+    Collections.sort(files);
+    return files;
   }
 
 }
@@ -0,0 +1,68 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drops the messages which are repeated in a report, for instance because Cppcheck reports the same finding
+ * for each preprocessor configuration it checks. Messages are compared on their id, file, line and text
+ * through a 64-bit fingerprint, so the memory used stays low even for millions of messages.
+ */
+class CppcheckDeduplicator implements CppcheckXmlParser.MessageHandler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CppcheckDeduplicator.class);
+
+  private final CppcheckXmlParser.MessageHandler delegate;
+  private final LongHashSet fingerprints = new LongHashSet();
+  private int duplicates = 0;
+
+  CppcheckDeduplicator(CppcheckXmlParser.MessageHandler delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void onMessage(CppcheckXmlParser.Message message) {
+    if (fingerprints.add(fingerprint(message))) {
+      delegate.onMessage(message);
+    } else {
+      duplicates++;
+    }
+  }
+
+  int getDuplicates() {
+    return duplicates;
+  }
+
+  void logDuplicates() {
+    if (duplicates > 0) {
+      LOG.info("{} duplicated message(s) from Cppcheck ignored", duplicates);
+    }
+  }
+
+  static long fingerprint(CppcheckXmlParser.Message message) {
+    long hash = Fingerprints.hash(Fingerprints.SEED, message.getId());
+    hash = Fingerprints.hash(hash, message.getFilename());
+    hash = Fingerprints.hash(hash, message.getLine());
+    return Fingerprints.hash(hash, message.getMsg());
+  }
+
+}
@@ -0,0 +1,480 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Findings of a report stored in columns of direct buffers instead of one {@link CppcheckXmlParser.Message} per finding,
+ * so that a report kept during the whole analysis neither fills the old generation nor is walked by the garbage
+ * collector. A row holds the index of the rule id and of the file in dictionaries, the line, the severity, and the
+ * addresses of the texts and secondary locations in arenas. Rows of a same file are chained, so that they are read file
+ * after file without sorting them.
+ * <p/>
+ * Columns and arenas are made of segments of a fixed size, which are added as findings are added and never copied, so
+ * that the memory allocated is the size of the findings rather than twice of it, and is not limited to 2 GB. When a
+ * segment cannot be allocated, because of the limit of the store or of the direct memory of the JVM, the store is full:
+ * its memory is released and the findings added afterwards are ignored, so that the report is read on the heap instead.
+ * <p/>
+ * Findings are added from a single thread, and read once all of them have been added. The replacement of rule
+ * definitions is not stored, since it is never found in reports.
+ */
+final class CppcheckFindingStore {
+
+  private static final int NONE = -1;
+  // length of a verbose description which is the same as the message
+  private static final int MSG = -2;
+  private static final int SEGMENT_SIZE = 64 * 1024;
+  private static final CppcheckXmlParser.Severity[] SEVERITIES = CppcheckXmlParser.Severity.values();
+
+  private final int segmentSize;
+  private final long maxBytes;
+  private long allocatedBytes = 0;
+  private boolean full = false;
+
+  private final List<String> ids = Lists.newArrayList();
+  private final Map<String, Integer> idIndexes = Maps.newHashMap();
+  // keys of the files, their names as written in the report, and the names of secondary locations
+  private final List<String> files = Lists.newArrayList();
+  private final Map<String, Integer> fileIndexes = Maps.newHashMap();
+  private final List<String> filesWithFindings = Lists.newArrayList();
+  // first and last rows of each file, secondary locations adding to the dictionary files which may have no finding
+  private int[] firstRows = new int[0];
+  private int[] lastRows = new int[0];
+  private int firstProjectRow = NONE;
+  private int lastProjectRow = NONE;
+  private int rows = 0;
+
+  // columns, one value per row
+  private final Segments idColumn = new Segments();
+  private final Segments fileColumn = new Segments();
+  private final Segments filenameColumn = new Segments();
+  private final Segments lineColumn = new Segments();
+  private final Segments severityColumn = new Segments();
+  private final Segments textColumn = new Segments();
+  private final Segments locationColumn = new Segments();
+  private final Segments nextRowColumn = new Segments();
+
+  // arenas: length and UTF-8 bytes of the message and of the verbose description, -1 when missing and -2 when the
+  // description is the same as the message
+  private final Segments texts = new Segments();
+  // count, then file index and line of each secondary location
+  private final Segments locations = new Segments();
+
+  CppcheckFindingStore() {
+    this(SEGMENT_SIZE, Long.MAX_VALUE);
+  }
+
+  /**
+   * Store allocating segments of the given size, a multiple of 8, and no more than the given number of bytes.
+   */
+  CppcheckFindingStore(int segmentSize, long maxBytes) {
+    this.segmentSize = segmentSize;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Adds a finding of the given file, which is the key used to read the findings back and may differ from the file
+   * name of the message, or of the project when the file is null. The finding is ignored when the store is full.
+   */
+  void add(@Nullable String file, CppcheckXmlParser.Message message) {
+    if (full) {
+      return;
+    }
+    if (rows == Integer.MAX_VALUE) {
+      fill();
+      return;
+    }
+    try {
+      int row = rows;
+      idColumn.putInt(index(ids, idIndexes, message.getId()));
+      int fileIndex = file == null ? NONE : index(files, fileIndexes, file);
+      fileColumn.putInt(fileIndex);
+      filenameColumn.putInt(message.getFilename() == null ? NONE : index(files, fileIndexes, message.getFilename()));
+      lineColumn.putInt(message.getLine());
+      severityColumn.put((byte) message.getSeverity().ordinal());
+      textColumn.putLong(putTexts(message));
+      locationColumn.putLong(putLocations(message.getSecondaryLocations()));
+      nextRowColumn.putInt(NONE);
+      chain(fileIndex, row);
+      rows++;
+    } catch (StoreFullException e) {
+      fill();
+    }
+  }
+
+  /**
+   * Whether a finding could not be stored, in which case the store holds no finding anymore.
+   */
+  boolean isFull() {
+    return full;
+  }
+
+  int size() {
+    return rows;
+  }
+
+  /**
+   * Files having findings, in the order of their first finding.
+   */
+  List<String> files() {
+    return Collections.unmodifiableList(filesWithFindings);
+  }
+
+  /**
+   * Number of bytes allocated outside of the heap.
+   */
+  long offHeapBytes() {
+    return allocatedBytes;
+  }
+
+  /**
+   * Frees the memory allocated outside of the heap without waiting for the garbage collector. The store must not be
+   * used anymore.
+   */
+  void release() {
+    for (Segments segments : new Segments[] {idColumn, fileColumn, filenameColumn, lineColumn, severityColumn, textColumn, locationColumn, nextRowColumn,
+      texts, locations}) {
+      segments.release();
+    }
+    allocatedBytes = 0;
+  }
+
+  /**
+   * Findings of the given file in the order they were added, or of the project when the file is null.
+   */
+  Cursor cursor(@Nullable String file) {
+    if (file == null) {
+      return new Cursor(firstProjectRow);
+    }
+    Integer index = fileIndexes.get(file);
+    return new Cursor(index == null || index >= firstRows.length ? NONE : firstRows[index]);
+  }
+
+  /**
+   * Moves over findings without creating objects for them, values being decoded only when requested.
+   */
+  final class Cursor {
+
+    private int row = NONE;
+    private int nextRow;
+
+    private Cursor(int firstRow) {
+      this.nextRow = firstRow;
+    }
+
+    /**
+     * Moves to the next finding, returns false when there is no more finding.
+     */
+    boolean next() {
+      if (nextRow == NONE) {
+        return false;
+      }
+      row = nextRow;
+      nextRow = nextRowColumn.getInt(nextRowColumn.address(row, 4));
+      return true;
+    }
+
+    String getId() {
+      return ids.get(idColumn.getInt(idColumn.address(row, 4)));
+    }
+
+    /**
+     * Name of the file as written in the report, null for the findings of the project.
+     */
+    @CheckForNull
+    String getFilename() {
+      int index = filenameColumn.getInt(filenameColumn.address(row, 4));
+      return index == NONE ? null : files.get(index);
+    }
+
+    int getLine() {
+      return lineColumn.getInt(lineColumn.address(row, 4));
+    }
+
+    CppcheckXmlParser.Severity getSeverity() {
+      return SEVERITIES[severityColumn.get(severityColumn.address(row, 1))];
+    }
+
+    @CheckForNull
+    String getMsg() {
+      return readText(textColumn.getLong(textColumn.address(row, 8)));
+    }
+
+    @CheckForNull
+    String getVerbose() {
+      long address = textColumn.getLong(textColumn.address(row, 8));
+      long verboseAddress = address + 4 + Math.max(0, texts.getInt(address));
+      return texts.getInt(verboseAddress) == MSG ? readText(address) : readText(verboseAddress);
+    }
+
+    @CheckForNull
+    CppcheckXmlParser.Locations getSecondaryLocations() {
+      long address = locationColumn.getLong(locationColumn.address(row, 8));
+      if (address == NONE) {
+        return null;
+      }
+      int count = locations.getInt(address);
+      String[] filenames = new String[count];
+      int[] lines = new int[count];
+      for (int i = 0; i < count; i++) {
+        filenames[i] = files.get(locations.getInt(address + 4 + 8 * i));
+        lines[i] = locations.getInt(address + 8 + 8 * i);
+      }
+      return new CppcheckXmlParser.Locations(filenames, lines);
+    }
+
+    CppcheckXmlParser.Message toMessage() {
+      return new CppcheckXmlParser.Message(getId(), getSeverity(), getMsg(), getVerbose(), getFilename(), getLine(), getSecondaryLocations());
+    }
+
+    @CheckForNull
+    private String readText(long address) {
+      int length = texts.getInt(address);
+      if (length == NONE) {
+        return null;
+      }
+      return new String(texts.getBytes(address + 4, length), Charsets.UTF_8);
+    }
+
+  }
+
+  private void chain(int fileIndex, int row) {
+    if (fileIndex == NONE) {
+      if (lastProjectRow == NONE) {
+        firstProjectRow = row;
+      } else {
+        nextRowColumn.putInt(nextRowColumn.address(lastProjectRow, 4), row);
+      }
+      lastProjectRow = row;
+      return;
+    }
+    if (fileIndex >= firstRows.length) {
+      int length = firstRows.length;
+      firstRows = Arrays.copyOf(firstRows, Math.max(2 * length, fileIndex + 1));
+      lastRows = Arrays.copyOf(lastRows, firstRows.length);
+      Arrays.fill(firstRows, length, firstRows.length, NONE);
+    }
+    if (firstRows[fileIndex] == NONE) {
+      firstRows[fileIndex] = row;
+      filesWithFindings.add(files.get(fileIndex));
+    } else {
+      nextRowColumn.putInt(nextRowColumn.address(lastRows[fileIndex], 4), row);
+    }
+    lastRows[fileIndex] = row;
+  }
+
+  /**
+   * Writes the message and the verbose description in a same segment, so that the address of the description is
+   * computed from the one of the message.
+   */
+  private long putTexts(CppcheckXmlParser.Message message) {
+    byte[] msg = toBytes(message.getMsg());
+    byte[] verbose = message.isVerboseOfMsg() ? null : toBytes(message.getVerbose());
+    long address = texts.reserve(8 + (msg == null ? 0 : msg.length) + (verbose == null ? 0 : verbose.length));
+    ByteBuffer segment = texts.current();
+    putText(segment, msg);
+    if (message.isVerboseOfMsg()) {
+      segment.putInt(MSG);
+    } else {
+      putText(segment, verbose);
+    }
+    return address;
+  }
+
+  @CheckForNull
+  private static byte[] toBytes(@Nullable String text) {
+    return text == null ? null : text.getBytes(Charsets.UTF_8);
+  }
+
+  private static void putText(ByteBuffer segment, @Nullable byte[] bytes) {
+    if (bytes == null) {
+      segment.putInt(NONE);
+      return;
+    }
+    segment.putInt(bytes.length);
+    segment.put(bytes);
+  }
+
+  private long putLocations(@Nullable CppcheckXmlParser.Locations secondaryLocations) {
+    if (secondaryLocations == null) {
+      return NONE;
+    }
+    long address = locations.reserve(4 + 8 * secondaryLocations.size());
+    ByteBuffer segment = locations.current();
+    segment.putInt(secondaryLocations.size());
+    for (int i = 0; i < secondaryLocations.size(); i++) {
+      segment.putInt(index(files, fileIndexes, secondaryLocations.getFilename(i)));
+      segment.putInt(secondaryLocations.getLine(i));
+    }
+    return address;
+  }
+
+  /**
+   * Releases the findings stored so far, and makes the store ignore the next ones.
+   */
+  private void fill() {
+    full = true;
+    release();
+    rows = 0;
+    firstProjectRow = NONE;
+    lastProjectRow = NONE;
+    firstRows = new int[0];
+    lastRows = new int[0];
+    filesWithFindings.clear();
+  }
+
+  private ByteBuffer allocate(int capacity) {
+    if (allocatedBytes + capacity > maxBytes) {
+      throw new StoreFullException();
+    }
+    ByteBuffer buffer;
+    try {
+      buffer = ByteBuffer.allocateDirect(capacity);
+    } catch (OutOfMemoryError e) {
+      // thrown when the direct memory of the JVM, limited by -XX:MaxDirectMemorySize, is exhausted
+      throw new StoreFullException();
+    }
+    allocatedBytes += capacity;
+    return buffer;
+  }
+
+  /**
+   * Growing sequence of direct buffers, values being written at its end. An address is made of the index of the
+   * segment in its upper half and of the position in the segment in its lower half, a value never spanning two segments.
+   * Values larger than the segment size are written alone in a segment of their size.
+   */
+  private final class Segments {
+
+    private final List<ByteBuffer> buffers = Lists.newArrayList();
+    private ByteBuffer current;
+
+    /**
+     * Makes room for the given number of bytes in the current segment, and returns the address of the first of them.
+     */
+    long reserve(int bytes) {
+      if (current == null || current.remaining() < bytes) {
+        current = allocate(Math.max(segmentSize, bytes));
+        buffers.add(current);
+      }
+      return ((long) (buffers.size() - 1) << 32) | current.position();
+    }
+
+    ByteBuffer current() {
+      return current;
+    }
+
+    /**
+     * Address of the given row in a column of values of the given width, the segment size being a multiple of it.
+     */
+    long address(int row, int width) {
+      long offset = (long) row * width;
+      return ((offset / segmentSize) << 32) | (offset % segmentSize);
+    }
+
+    void put(byte value) {
+      reserve(1);
+      current.put(value);
+    }
+
+    void putInt(int value) {
+      reserve(4);
+      current.putInt(value);
+    }
+
+    void putLong(long value) {
+      reserve(8);
+      current.putLong(value);
+    }
+
+    void putInt(long address, int value) {
+      buffers.get(segment(address)).putInt(position(address), value);
+    }
+
+    byte get(long address) {
+      return buffers.get(segment(address)).get(position(address));
+    }
+
+    int getInt(long address) {
+      return buffers.get(segment(address)).getInt(position(address));
+    }
+
+    long getLong(long address) {
+      return buffers.get(segment(address)).getLong(position(address));
+    }
+
+    byte[] getBytes(long address, int length) {
+      ByteBuffer reader = buffers.get(segment(address)).duplicate();
+      reader.position(position(address));
+      byte[] bytes = new byte[length];
+      reader.get(bytes);
+      return bytes;
+    }
+
+    void release() {
+      for (ByteBuffer buffer : buffers) {
+        MappedFiles.unmap(buffer);
+      }
+      buffers.clear();
+      current = null;
+    }
+
+    private int segment(long address) {
+      return (int) (address >>> 32);
+    }
+
+    private int position(long address) {
+      return (int) address;
+    }
+
+  }
+
+  /**
+   * Thrown when a segment cannot be allocated, caught by {@link #add} which then marks the store as full.
+   */
+  private static final class StoreFullException extends RuntimeException {
+
+    StoreFullException() {
+      super(null, null, false, false);
+    }
+
+  }
+
+  private static int index(List<String> values, Map<String, Integer> indexes, String value) {
+    Integer index = indexes.get(value);
+    if (index == null) {
+      index = values.size();
+      values.add(value);
+      indexes.put(value, index);
+    }
+    return index;
+  }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent and volumes processed by an import of Cppcheck reports, logged at the end of the analysis
+ * and optionally written as JSON in the working directory.
+ */
+class CppcheckImportStats {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CppcheckImportStats.class);
+
+  static final String FILENAME = "cppcheck-stats.json";
+
+  enum Phase {
+    /**
+     * Loading of the active rules. Rules of messages are looked up in a table, which is too fast to be timed on its
+     * own, so lookups are part of the phase importing the messages.
+     */
+    RULES,
+    /**
+     * Indexing of the files of the project.
+     */
+    INDEX,
+    /**
+     * Wall time of the parsing of the reports, including the resolution of files and the saving of issues
+     * when reports are streamed.
+     */
+    PARSE,
+    /**
+     * Resolution of the files of messages.
+     */
+    RESOLVE,
+    /**
+     * Creation and saving of issues.
+     */
+    SAVE,
+    /**
+     * Loading of the baseline of accepted findings.
+     */
+    BASELINE
+  }
+
+  enum Drop {
+    DUPLICATE, BASELINE, UNKNOWN_RULE, INACTIVE_RULE, UNINDEXED_FILE, NOT_ANALYSED_FILE, NO_ISSUABLE
+  }
+
+  private final Map<Phase, Long> nanos = new EnumMap<Phase, Long>(Phase.class);
+  private final Map<Drop, Long> drops = new EnumMap<Drop, Long>(Drop.class);
+  private final SortedMap<String, Long> issuesByLanguage = Maps.newTreeMap();
+  private long messages = 0;
+  private long reportBytes = 0;
+
+  CppcheckImportStats() {
+    for (Phase phase : Phase.values()) {
+      nanos.put(phase, 0L);
+    }
+    for (Drop drop : Drop.values()) {
+      drops.put(drop, 0L);
+    }
+  }
+
+  /**
+   * To be given to {@link #stop(Phase, long)} at the end of the phase.
+   */
+  static long start() {
+    return System.nanoTime();
+  }
+
+  void stop(Phase phase, long start) {
+    nanos.put(phase, nanos.get(phase) + System.nanoTime() - start);
+  }
+
+  void reports(List<File> reports) {
+    for (File report : reports) {
+      reportBytes += report.length();
+    }
+  }
+
+  void messages(long count) {
+    messages += count;
+  }
+
+  void drop(Drop drop) {
+    drop(drop, 1);
+  }
+
+  void drop(Drop drop, long count) {
+    drops.put(drop, drops.get(drop) + count);
+  }
+
+  void issue(String language) {
+    Long count = issuesByLanguage.get(language);
+    issuesByLanguage.put(language, count == null ? 1L : (count + 1));
+  }
+
+  long getMessages() {
+    return messages;
+  }
+
+  long getDropped(Drop drop) {
+    return drops.get(drop);
+  }
+
+  long getIssues(String language) {
+    Long count = issuesByLanguage.get(language);
+    return count == null ? 0L : count;
+  }
+
+  long getMillis(Phase phase) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos.get(phase));
+  }
+
+  /**
+   * Bytes of reports, as stored on disk, read per second while parsing.
+   */
+  long getBytesPerSecond() {
+    long parse = nanos.get(Phase.PARSE);
+    return parse == 0 ? 0 : (reportBytes * TimeUnit.SECONDS.toNanos(1) / parse);
+  }
+
+  void log() {
+    StringBuilder sb = new StringBuilder("Cppcheck import: ")
+      .append(messages).append(" message(s) parsed from ").append(reportBytes).append(" byte(s) at ")
+      .append(getBytesPerSecond()).append(" bytes/s, issues saved:");
+    for (Map.Entry<String, Long> entry : issuesByLanguage.entrySet()) {
+      sb.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+    }
+    sb.append(", messages dropped:");
+    for (Drop drop : Drop.values()) {
+      sb.append(' ').append(key(drop)).append('=').append(drops.get(drop));
+    }
+    sb.append(", time (ms):");
+    for (Phase phase : Phase.values()) {
+      sb.append(' ').append(key(phase)).append('=').append(getMillis(phase));
+    }
+    LOG.info(sb.toString());
+  }
+
+  void write(File dir) {
+    File file = new File(dir, FILENAME);
+    Writer writer = null;
+    try {
+      dir.mkdirs();
+      writer = new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8);
+      writer.write(toJson());
+      writer.close();
+    } catch (IOException e) {
+      LOG.warn("Unable to write statistics of Cppcheck import: " + file, e);
+    } finally {
+      Closeables.closeQuietly(writer);
+    }
+  }
+
+  /**
+   * Keys are identifiers and values are numbers, so nothing needs to be escaped.
+   */
+  String toJson() {
+    StringBuilder sb = new StringBuilder("{");
+    sb.append("\"messages\":").append(messages)
+      .append(",\"reportBytes\":").append(reportBytes)
+      .append(",\"bytesPerSecond\":").append(getBytesPerSecond());
+    sb.append(",\"issues\":");
+    appendObject(sb, issuesByLanguage);
+    sb.append(",\"dropped\":");
+    appendObject(sb, drops);
+    sb.append(",\"millis\":{");
+    for (Phase phase : Phase.values()) {
+      if (phase.ordinal() > 0) {
+        sb.append(',');
+      }
+      sb.append('"').append(key(phase)).append("\":").append(getMillis(phase));
+    }
+    return sb.append("}}").toString();
+  }
+
+  private static void appendObject(StringBuilder sb, Map<?, Long> values) {
+    sb.append('{');
+    boolean first = true;
+    for (Map.Entry<?, Long> entry : values.entrySet()) {
+      if (!first) {
+        sb.append(',');
+      }
+      first = false;
+      Object name = entry.getKey();
+      sb.append('"').append(name instanceof Enum ? key((Enum<?>) name) : name).append("\":").append(entry.getValue());
+    }
+    sb.append('}');
+  }
+
+  private static String key(Enum<?> value) {
+    String[] words = value.name().toLowerCase().split("_");
+    StringBuilder sb = new StringBuilder(words[0]);
+    for (int i = 1; i < words.length; i++) {
+      sb.append(Character.toUpperCase(words[i].charAt(0))).append(words[i].substring(1));
+    }
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,428 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.utils.SonarException;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts messages by file within a memory budget. Messages are kept in memory until their estimated size exceeds the
+ * budget, then sorted and written to a run in the working directory. Runs and the messages left in memory are
+ * finally merged, so that the messages of each file are handled together whatever the size of the reports. At most
+ * a fixed number of runs are opened at once: when there are more, consecutive runs are first merged into larger runs,
+ * in as many passes as needed.
+ */
+class CppcheckMessageSorter implements CppcheckXmlParser.MessageHandler, Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CppcheckMessageSorter.class);
+
+  // object headers, fields and reference in the buffer of a message, besides its strings
+  private static final int MESSAGE_OVERHEAD = 64;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  // runs opened at once by a merge, the messages left in memory counting as one
+  private static final int MAX_FAN_IN = 64;
+
+  /**
+   * Messages without file first, then by file. The sort is stable, so messages of a same file stay in the order of
+   * the reports.
+   */
+  private static final Comparator<CppcheckXmlParser.Message> BY_FILE = new Comparator<CppcheckXmlParser.Message>() {
+    @Override
+    public int compare(CppcheckXmlParser.Message m1, CppcheckXmlParser.Message m2) {
+      return compareFilenames(m1.getFilename(), m2.getFilename());
+    }
+  };
+
+  private final File dir;
+  private final long budget;
+  private final int fanIn;
+  private final List<File> runs = Lists.newArrayList();
+  private List<CppcheckXmlParser.Message> buffer = Lists.newArrayList();
+  private long bufferedBytes = 0;
+  private long messages = 0;
+
+  CppcheckMessageSorter(File dir, long budget) {
+    this(dir, budget, MAX_FAN_IN);
+  }
+
+  /**
+   * Sorter merging at most the given number of runs at once, at least 2.
+   */
+  CppcheckMessageSorter(File dir, long budget, int fanIn) {
+    this.dir = dir;
+    this.budget = budget;
+    this.fanIn = fanIn;
+  }
+
+  @Override
+  public void onMessage(CppcheckXmlParser.Message message) {
+    buffer.add(message);
+    messages++;
+    bufferedBytes += estimateSize(message);
+    if (bufferedBytes >= budget) {
+      spill();
+    }
+  }
+
+  int getRuns() {
+    return runs.size();
+  }
+
+  /**
+   * Gives all the messages to the handler, those without file first, then file after file.
+   */
+  void replay(CppcheckXmlParser.MessageHandler handler) {
+    Collections.sort(buffer, BY_FILE);
+    if (runs.isEmpty()) {
+      for (CppcheckXmlParser.Message message : buffer) {
+        handler.onMessage(message);
+      }
+      return;
+    }
+    LOG.info("{} Cppcheck message(s) sorted by file through {} run(s) written to {}", messages, runs.size(), dir);
+    List<Source> sources = Lists.newArrayList();
+    try {
+      mergeRuns();
+      for (File run : runs) {
+        sources.add(new RunSource(sources.size(), run));
+      }
+      sources.add(new BufferSource(sources.size(), buffer.iterator()));
+      Source merged = new MergeSource(0, sources);
+      while (merged.advance()) {
+        handler.onMessage(merged.current);
+      }
+    } catch (IOException e) {
+      throw new SonarException("Unable to read sorted Cppcheck messages: " + dir, e);
+    } finally {
+      for (Source source : sources) {
+        Closeables.closeQuietly(source);
+      }
+    }
+  }
+
+  /**
+   * Deletes the runs.
+   */
+  @Override
+  public void close() {
+    for (File run : runs) {
+      run.delete();
+    }
+    runs.clear();
+    buffer = Lists.newArrayList();
+  }
+
+  /**
+   * Merges consecutive runs until they can be merged at once with the messages left in memory. Runs of a group are
+   * consecutive, so that messages of a same file keep the order of the reports.
+   */
+  private void mergeRuns() throws IOException {
+    int passes = 0;
+    while (runs.size() + 1 > fanIn) {
+      for (int i = 0; i < runs.size(); i++) {
+        List<File> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+        if (group.size() > 1) {
+          File run = mergeRuns(group);
+          for (File merged : group) {
+            merged.delete();
+          }
+          group.clear();
+          runs.add(i, run);
+        }
+      }
+      passes++;
+    }
+    if (passes > 0) {
+      LOG.info("Sorted Cppcheck messages merged in {} pass(es) into {} run(s)", passes, runs.size());
+    }
+  }
+
+  private File mergeRuns(List<File> group) throws IOException {
+    List<Source> sources = Lists.newArrayList();
+    File run = newRun();
+    try {
+      for (File merged : group) {
+        sources.add(new RunSource(sources.size(), merged));
+      }
+      writeRun(run, new MergeSource(0, sources));
+    } catch (IOException e) {
+      run.delete();
+      throw e;
+    } finally {
+      for (Source source : sources) {
+        Closeables.closeQuietly(source);
+      }
+    }
+    return run;
+  }
+
+  private void spill() {
+    Collections.sort(buffer, BY_FILE);
+    File run = null;
+    try {
+      run = newRun();
+      runs.add(run);
+      writeRun(run, new BufferSource(0, buffer.iterator()));
+    } catch (IOException e) {
+      throw new SonarException("Unable to write sorted Cppcheck messages: " + run, e);
+    }
+    buffer = Lists.newArrayList();
+    bufferedBytes = 0;
+  }
+
+  private File newRun() throws IOException {
+    dir.mkdirs();
+    return File.createTempFile("cppcheck-run", ".bin", dir);
+  }
+
+  private static void writeRun(File run, Source source) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE));
+    try {
+      while (source.advance()) {
+        out.writeBoolean(true);
+        write(out, source.current);
+      }
+      // end of the run, a truncated run failing instead of being silently shorter
+      out.writeBoolean(false);
+      out.close();
+    } finally {
+      Closeables.closeQuietly(out);
+    }
+  }
+
+  static long estimateSize(CppcheckXmlParser.Message message) {
+    long size = MESSAGE_OVERHEAD + 2L * StringUtils.length(message.getMsg());
+    if (!message.isVerboseOfMsg()) {
+      size += 2L * StringUtils.length(message.getVerbose());
+    }
+    CppcheckXmlParser.Locations locations = message.getSecondaryLocations();
+    if (locations != null) {
+      // file names are shared, only references and lines are counted
+      size += MESSAGE_OVERHEAD + 12L * locations.size();
+    }
+    return size;
+  }
+
+  private static int compareFilenames(@Nullable String f1, @Nullable String f2) {
+    if (f1 == null) {
+      return f2 == null ? 0 : -1;
+    }
+    return f2 == null ? 1 : f1.compareTo(f2);
+  }
+
+  private static void write(DataOutputStream out, CppcheckXmlParser.Message message) throws IOException {
+    writeString(out, message.getFilename());
+    writeString(out, message.getId());
+    out.writeByte(message.getSeverity().ordinal());
+    writeString(out, message.getMsg());
+    out.writeBoolean(message.isVerboseOfMsg());
+    if (!message.isVerboseOfMsg()) {
+      writeString(out, message.getVerbose());
+    }
+    out.writeInt(message.getLine());
+    writeString(out, message.getReplacement());
+    CppcheckXmlParser.Locations locations = message.getSecondaryLocations();
+    out.writeInt(locations == null ? 0 : locations.size());
+    for (int i = 0; locations != null && i < locations.size(); i++) {
+      writeString(out, locations.getFilename(i));
+      out.writeInt(locations.getLine(i));
+    }
+  }
+
+  private static CppcheckXmlParser.Message read(DataInputStream in) throws IOException {
+    String filename = readString(in);
+    String id = readString(in);
+    CppcheckXmlParser.Severity severity = CppcheckXmlParser.Severity.values()[in.readByte()];
+    String msg = readString(in);
+    String verbose = in.readBoolean() ? msg : readString(in);
+    int line = in.readInt();
+    String replacement = readString(in);
+    int size = in.readInt();
+    CppcheckXmlParser.Locations locations = null;
+    if (size > 0) {
+      String[] filenames = new String[size];
+      int[] lines = new int[size];
+      for (int i = 0; i < size; i++) {
+        filenames[i] = readString(in);
+        lines[i] = in.readInt();
+      }
+      locations = new CppcheckXmlParser.Locations(filenames, lines);
+    }
+    if (filename == null) {
+      return new CppcheckXmlParser.Message(replacement, id, severity, msg, verbose);
+    }
+    return new CppcheckXmlParser.Message(id, severity, msg, verbose, filename, line, locations);
+  }
+
+  private static void writeString(DataOutputStream out, @Nullable String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = value.getBytes(Charsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  @CheckForNull
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  /**
+   * Sorted messages of a run or of the buffer, read one at a time.
+   */
+  private abstract static class Source implements Closeable {
+
+    private final int index;
+    private CppcheckXmlParser.Message current;
+
+    Source(int index) {
+      this.index = index;
+    }
+
+    /**
+     * Moves to the next message, returns false when there is no more message.
+     */
+    boolean advance() throws IOException {
+      current = next();
+      return current != null;
+    }
+
+    @CheckForNull
+    abstract CppcheckXmlParser.Message next() throws IOException;
+
+    @Override
+    public void close() throws IOException {
+    }
+
+  }
+
+  private static class RunSource extends Source {
+
+    private final DataInputStream in;
+
+    RunSource(int index, File run) throws IOException {
+      super(index);
+      this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), BUFFER_SIZE));
+    }
+
+    @Override
+    CppcheckXmlParser.Message next() throws IOException {
+      return in.readBoolean() ? read(in) : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+  }
+
+  /**
+   * Messages of several sources in order, those of earlier sources first for a same file.
+   */
+  private static class MergeSource extends Source {
+
+    private final PriorityQueue<Source> queue;
+    private final List<Source> sources;
+    private boolean started = false;
+
+    MergeSource(int index, List<Source> sources) {
+      super(index);
+      this.sources = sources;
+      this.queue = new PriorityQueue<Source>(sources.size(), new Comparator<Source>() {
+        @Override
+        public int compare(Source s1, Source s2) {
+          int result = BY_FILE.compare(s1.current, s2.current);
+          // earlier runs come from earlier messages of the reports
+          return result != 0 ? result : Integer.compare(s1.index, s2.index);
+        }
+      });
+    }
+
+    @Override
+    CppcheckXmlParser.Message next() throws IOException {
+      if (!started) {
+        started = true;
+        for (Source source : sources) {
+          if (source.advance()) {
+            queue.add(source);
+          }
+        }
+      }
+      Source source = queue.poll();
+      if (source == null) {
+        return null;
+      }
+      CppcheckXmlParser.Message message = source.current;
+      if (source.advance()) {
+        queue.add(source);
+      }
+      return message;
+    }
+
+  }
+
+  private static class BufferSource extends Source {
+
+    private final Iterator<CppcheckXmlParser.Message> messages;
+
+    BufferSource(int index, Iterator<CppcheckXmlParser.Message> messages) {
+      super(index);
+      this.messages = messages;
+    }
+
+    @Override
+    CppcheckXmlParser.Message next() {
+      return messages.hasNext() ? messages.next() : null;
+    }
+
+  }
+
+}
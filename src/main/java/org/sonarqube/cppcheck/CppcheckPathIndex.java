@@ -0,0 +1,131 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.collect.Maps;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.StringUtils;
+import org.sonar.api.batch.fs.InputFile;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Resolves the paths written in a report to the files of the project, in a time proportional to the length
+ * of the path. Paths can be absolute, relative to the base directory, or come from a Cppcheck execution in
+ * another directory or on another machine: the file whose relative path is the longest suffix of the path
+ * written in the report is then chosen. As the modules of a project import the same report, a path under the base
+ * directory is only resolved exactly, and a suffix is not chosen when the rest of the path names another module:
+ * an absolute path under the parent directory of the base directory, or a relative path whose rest is not the name
+ * of the base directory. This only depends on the paths, not on the directories which exist on disk.
+ */
+class CppcheckPathIndex {
+
+  private final String baseDir;
+  private final String baseDirName;
+  @Nullable
+  private final String parentDir;
+  private final Map<String, InputFile> filesByAbsolutePath = Maps.newHashMap();
+  // trie on the segments of relative paths, from the file name up to the first directory
+  private final Node root = new Node();
+
+  CppcheckPathIndex(File baseDir, Iterable<InputFile> inputFiles) {
+    this.baseDir = normalize(baseDir.getAbsolutePath());
+    File absoluteBaseDir = new File(this.baseDir);
+    this.baseDirName = absoluteBaseDir.getName();
+    this.parentDir = absoluteBaseDir.getParent() == null ? null : normalize(absoluteBaseDir.getParent());
+    for (InputFile inputFile : inputFiles) {
+      filesByAbsolutePath.put(normalize(inputFile.absolutePath()), inputFile);
+      Node node = root;
+      String[] segments = StringUtils.split(normalize(inputFile.relativePath()), '/');
+      for (int i = segments.length - 1; i >= 0; i--) {
+        node = node.child(segments[i]);
+        node.count++;
+        node.any = inputFile;
+      }
+      node.file = inputFile;
+    }
+  }
+
+  @CheckForNull
+  InputFile resolve(String filename) {
+    String path = normalize(filename);
+    // drive letters are absolute whatever the system the report has been produced on
+    boolean absolute = FilenameUtils.getPrefixLength(path) > 0;
+    InputFile inputFile = filesByAbsolutePath.get(absolute ? path : normalize(baseDir + '/' + path));
+    if (inputFile != null || (absolute && path.startsWith(baseDir + '/'))) {
+      return inputFile;
+    }
+    String[] segments = StringUtils.split(path, '/');
+    Node node = root;
+    InputFile longestSuffix = null;
+    for (int i = segments.length - 1; i >= 0 && node != null; i--) {
+      node = node.children == null ? null : node.children.get(segments[i]);
+      if (node != null && node.file != null && (i == 0 || !isOtherModule(path, absolute, segments[i - 1]))) {
+        longestSuffix = node.file;
+      }
+    }
+    if (longestSuffix == null && node != null && node.count == 1) {
+      // path of the report is itself the suffix of a single file, for instance when Cppcheck was run from a sub-directory
+      return node.any;
+    }
+    return longestSuffix;
+  }
+
+  /**
+   * Whether the directory in which a suffix of a path has been found is another module than the base directory.
+   */
+  private boolean isOtherModule(String path, boolean absolute, String directory) {
+    if (directory.equals(baseDirName)) {
+      return false;
+    }
+    return !absolute || (parentDir != null && path.startsWith(parentDir + '/'));
+  }
+
+  private static String normalize(String path) {
+    String unixPath = FilenameUtils.separatorsToUnix(path);
+    String normalized = FilenameUtils.normalizeNoEndSeparator(unixPath, true);
+    return normalized == null ? unixPath : normalized;
+  }
+
+  private static class Node {
+
+    private Map<String, Node> children;
+    private InputFile file;
+    private InputFile any;
+    private int count;
+
+    Node child(String segment) {
+      if (children == null) {
+        children = Maps.newHashMap();
+      }
+      Node child = children.get(segment);
+      if (child == null) {
+        child = new Node();
+        children.put(segment, child);
+      }
+      return child;
+    }
+
+  }
+
+}
@@ -20,6 +20,7 @@
 package org.sonarqube.cppcheck;
 
 import com.google.common.collect.ImmutableList;
+import org.sonar.api.PropertyType;
 import org.sonar.api.SonarPlugin;
 import org.sonar.api.config.PropertyDefinition;
 import org.sonar.api.resources.Qualifiers;
@@ -35,12 +36,111 @@ public class CppcheckPlugin extends SonarPlugin {
     ImmutableList.Builder<Object> builder = ImmutableList.builder();
     builder.add(CppcheckSensor.class);
     builder.add(CppcheckConfiguration.class);
+    builder.add(CppcheckReportCache.class);
+    builder.add(CppcheckReportRelease.class);
     builder.add(new CppcheckRuleRepository("c"));
     builder.add(new CppcheckRuleRepository("cpp"));
     builder.add(PropertyDefinition.builder(CppcheckConfiguration.CPPCHECK_REPORT_PATH_PROPERTY)
       .subCategory(CPPCHECK_SUBCATEGORY)
       .name("Cppcheck Report Path")
-      .description("Path to the CppCheck XML report, ex: report/cppcheck.xml")
+      .description("Comma-separated paths or wildcard patterns of the CppCheck XML reports, ex: report/cppcheck.xml or reports/cppcheck-*.xml")
+      .onQualifiers(Qualifiers.PROJECT)
+      .build());
+    builder.add(PropertyDefinition.builder(CppcheckConfiguration.CPPCHECK_REPORT_THREADS_PROPERTY)
+      .subCategory(CPPCHECK_SUBCATEGORY)
+      .name("Cppcheck Report Threads")
+      .description("Maximum number of CppCheck XML reports parsed concurrently. Defaults to the number of available processors.")
+      .type(PropertyType.INTEGER)
+      .onQualifiers(Qualifiers.PROJECT)
+      .build());
+    builder.add(PropertyDefinition.builder(CppcheckConfiguration.CPPCHECK_EXECUTABLE_PROPERTY)
+      .subCategory(CPPCHECK_SUBCATEGORY)
+      .name("Cppcheck Executable")
+      .description("Path to a local CppCheck executable run by the analysis on each C and C++ file of the modules, instead of importing "
+        + "the reports of the report path. Results of files which are unchanged since the previous run are reused from the working directory.")
+      .onQualifiers(Qualifiers.PROJECT)
+      .build());
+    builder.add(PropertyDefinition.builder(CppcheckConfiguration.CPPCHECK_OPTIONS_PROPERTY)
+      .subCategory(CPPCHECK_SUBCATEGORY)
+      .name("Cppcheck Options")
+      .description("Options of the CppCheck executable, separated by spaces, ex: --enable=all --inconclusive -I include")
+      .onQualifiers(Qualifiers.PROJECT)
+      .build());
+    builder.add(PropertyDefinition.builder(CppcheckConfiguration.CPPCHECK_PROCESSES_PROPERTY)
+      .subCategory(CPPCHECK_SUBCATEGORY)
+      .name("Cppcheck Processes")
+      .description("Maximum number of CppCheck executables run concurrently. Defaults to the number of available processors.")
+      .type(PropertyType.INTEGER)
+      .onQualifiers(Qualifiers.PROJECT)
+      .build());
+    builder.add(PropertyDefinition.builder(CppcheckConfiguration.CPPCHECK_PIPELINED_PROPERTY)
+      .subCategory(CPPCHECK_SUBCATEGORY)
+      .name("Cppcheck Pipelined Import")
+      .description("Parse the CppCheck XML reports on a separate thread while issues are being saved.")
+      .type(PropertyType.BOOLEAN)
+      .defaultValue("false")
+      .onQualifiers(Qualifiers.PROJECT)
+      .build());
+    builder.add(PropertyDefinition.builder(CppcheckConfiguration.CPPCHECK_XML_PARSER_PROPERTY)
+      .subCategory(CPPCHECK_SUBCATEGORY)
+      .name("Cppcheck XML Parser")
+      .description("Implementation of the parsing of the CppCheck XML reports: staxmate, or stax which reads the reports directly "
+        + "from a StAX stream reader and is faster on large reports.")
+      .type(PropertyType.SINGLE_SELECT_LIST)
+      .options("staxmate", "stax")
+      .defaultValue("staxmate")
+      .onQualifiers(Qualifiers.PROJECT)
+      .build());
+    builder.add(PropertyDefinition.builder(CppcheckConfiguration.CPPCHECK_SPLIT_REPORT_PROPERTY)
+      .subCategory(CPPCHECK_SUBCATEGORY)
+      .name("Cppcheck Split Report")
+      .description("Split a single uncompressed CppCheck XML report of more than 32 MB in chunks which are parsed concurrently "
+        + "on the report threads.")
+      .type(PropertyType.BOOLEAN)
+      .defaultValue("false")
+      .onQualifiers(Qualifiers.PROJECT)
+      .build());
+    builder.add(PropertyDefinition.builder(CppcheckConfiguration.CPPCHECK_BASELINE_PATH_PROPERTY)
+      .subCategory(CPPCHECK_SUBCATEGORY)
+      .name("Cppcheck Baseline")
+      .description("Path to the accepted CppCheck findings, which are not imported: a CppCheck suppressions file with one id[:file[:line]] "
+        + "per line, or a previous CppCheck XML report whose errors are matched by id, file and message.")
+      .onQualifiers(Qualifiers.PROJECT)
+      .build());
+    builder.add(PropertyDefinition.builder(CppcheckConfiguration.CPPCHECK_MEMORY_BUDGET_PROPERTY)
+      .subCategory(CPPCHECK_SUBCATEGORY)
+      .name("Cppcheck Memory Budget")
+      .description("Megabytes of parsed CppCheck messages kept in memory, beyond which messages are sorted by file on disk in the working "
+        + "directory, so that the issues of each file are imported together. 0 to import messages as they are parsed.")
+      .type(PropertyType.INTEGER)
+      .defaultValue("0")
+      .onQualifiers(Qualifiers.PROJECT)
+      .build());
+    builder.add(PropertyDefinition.builder(CppcheckConfiguration.CPPCHECK_OFF_HEAP_PROPERTY)
+      .subCategory(CPPCHECK_SUBCATEGORY)
+      .name("Cppcheck Off-Heap Messages")
+      .description("Store the CppCheck messages of a report imported by several modules in direct buffers outside of the Java heap, "
+        + "which reduces the memory and garbage collection cost of large reports.")
+      .type(PropertyType.BOOLEAN)
+      .defaultValue("false")
+      .onQualifiers(Qualifiers.PROJECT)
+      .build());
+    builder.add(PropertyDefinition.builder(CppcheckConfiguration.CPPCHECK_REPORT_INDEX_PROPERTY)
+      .subCategory(CPPCHECK_SUBCATEGORY)
+      .name("Cppcheck Report Index")
+      .description("Write a binary index next to each CppCheck report on its first import, from which the messages of the same report "
+        + "are read again by later imports instead of parsing the XML. The index is rewritten when the report changes.")
+      .type(PropertyType.BOOLEAN)
+      .defaultValue("false")
+      .onQualifiers(Qualifiers.PROJECT)
+      .build());
+    builder.add(PropertyDefinition.builder(CppcheckConfiguration.CPPCHECK_EXPORT_STATS_PROPERTY)
+      .subCategory(CPPCHECK_SUBCATEGORY)
+      .name("Cppcheck Import Statistics")
+      .description("Write the time spent and the volumes processed by the import of CppCheck reports to " + CppcheckImportStats.FILENAME
+        + " in the working directory.")
+      .type(PropertyType.BOOLEAN)
+      .defaultValue("false")
       .onQualifiers(Qualifiers.PROJECT)
       .build());
     return builder.build();
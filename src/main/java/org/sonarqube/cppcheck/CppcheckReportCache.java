@@ -0,0 +1,284 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.BatchExtension;
+import org.sonar.api.batch.InstantiationStrategy;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the parsed Cppcheck report during the analysis of the modules, so that the modules of a multi-module
+ * project share a single parse of the report instead of parsing it once each. Parsed reports are released by
+ * {@link CppcheckReportRelease} once the root project, which is analysed after all its modules, is analysed.
+ */
+@InstantiationStrategy(InstantiationStrategy.PER_BATCH)
+public class CppcheckReportCache implements BatchExtension {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CppcheckReportCache.class);
+
+  private final Map<Key, ParsedReport> parsedReports = Maps.newHashMap();
+
+  /**
+   * The rule filter and the options changing what is parsed are part of the key of the cache, they are expected to be
+   * equal for all the modules since they share the same quality profile and settings.
+   */
+  public synchronized ParsedReport get(List<File> reports, CppcheckReports.Options options, Predicate<String> ruleFilter) {
+    Key key = new Key(reports, options, ruleFilter);
+    ParsedReport parsed = parsedReports.get(key);
+    if (parsed == null) {
+      // an outdated version of the same report is not going to be requested again
+      Iterator<Map.Entry<Key, ParsedReport>> entries = parsedReports.entrySet().iterator();
+      while (entries.hasNext()) {
+        Map.Entry<Key, ParsedReport> entry = entries.next();
+        if (entry.getKey().path.equals(key.path)) {
+          entry.getValue().release();
+          entries.remove();
+        }
+      }
+      parsed = ParsedReport.parse(reports, options, ruleFilter);
+      parsedReports.put(key, parsed);
+    }
+    return parsed;
+  }
+
+  /**
+   * Releases all the parsed reports, which must not be read anymore.
+   */
+  public synchronized void release() {
+    for (ParsedReport parsed : parsedReports.values()) {
+      parsed.release();
+    }
+    parsedReports.clear();
+  }
+
+  static String normalize(String filename) {
+    String normalized = FilenameUtils.normalizeNoEndSeparator(filename);
+    return FilenameUtils.separatorsToUnix(normalized == null ? filename : normalized);
+  }
+
+  /**
+   * Messages of a report, indexed by the normalized path of their file. They are either kept as objects on the heap,
+   * or stored off-heap when requested by the options, in which case messages are created each time they are requested.
+   */
+  public static class ParsedReport {
+
+    private final Map<String, List<CppcheckXmlParser.Message>> messagesByFile;
+    private final List<CppcheckXmlParser.Message> projectMessages;
+    @Nullable
+    private final CppcheckFindingStore store;
+    private final long filtered;
+    private final int duplicates;
+
+    private ParsedReport(Map<String, List<CppcheckXmlParser.Message>> messagesByFile, List<CppcheckXmlParser.Message> projectMessages, long filtered,
+      int duplicates) {
+      this.messagesByFile = messagesByFile;
+      this.projectMessages = projectMessages;
+      this.store = null;
+      this.filtered = filtered;
+      this.duplicates = duplicates;
+    }
+
+    private ParsedReport(CppcheckFindingStore store, long filtered, int duplicates) {
+      this.messagesByFile = ImmutableMap.of();
+      this.projectMessages = ImmutableList.of();
+      this.store = store;
+      this.filtered = filtered;
+      this.duplicates = duplicates;
+    }
+
+    static ParsedReport parse(List<File> reports, CppcheckReports.Options options, Predicate<String> ruleFilter) {
+      if (options.isOffHeap()) {
+        return parseOffHeap(reports, options, ruleFilter);
+      }
+      final Map<String, ImmutableList.Builder<CppcheckXmlParser.Message>> builders = Maps.newLinkedHashMap();
+      final List<CppcheckXmlParser.Message> projectMessages = Lists.newArrayList();
+      CppcheckDeduplicator deduplicator = new CppcheckDeduplicator(new CppcheckXmlParser.MessageHandler() {
+        @Override
+        public void onMessage(CppcheckXmlParser.Message message) {
+          if (message.getFilename() == null) {
+            projectMessages.add(message);
+            return;
+          }
+          String filename = normalize(message.getFilename());
+          ImmutableList.Builder<CppcheckXmlParser.Message> builder = builders.get(filename);
+          if (builder == null) {
+            builder = ImmutableList.builder();
+            builders.put(filename, builder);
+          }
+          builder.add(message);
+        }
+      });
+      CppcheckRuleTable.CountingFilter countingFilter = new CppcheckRuleTable.CountingFilter(ruleFilter);
+      CppcheckReports.parse(reports, options, countingFilter, deduplicator);
+      deduplicator.logDuplicates();
+      ImmutableMap.Builder<String, List<CppcheckXmlParser.Message>> messagesByFile = ImmutableMap.builder();
+      for (Map.Entry<String, ImmutableList.Builder<CppcheckXmlParser.Message>> entry : builders.entrySet()) {
+        messagesByFile.put(entry.getKey(), entry.getValue().build());
+      }
+      return new ParsedReport(messagesByFile.build(), ImmutableList.copyOf(projectMessages), countingFilter.getRejected(), deduplicator.getDuplicates());
+    }
+
+    private static ParsedReport parseOffHeap(List<File> reports, CppcheckReports.Options options, Predicate<String> ruleFilter) {
+      return parseOffHeap(reports, options, ruleFilter, new CppcheckFindingStore());
+    }
+
+    /**
+     * Stores the messages in the given store, or keeps them on the heap when the store gets full.
+     */
+    static ParsedReport parseOffHeap(List<File> reports, CppcheckReports.Options options, Predicate<String> ruleFilter,
+      final CppcheckFindingStore store) {
+      CppcheckDeduplicator deduplicator = new CppcheckDeduplicator(new CppcheckXmlParser.MessageHandler() {
+        @Override
+        public void onMessage(CppcheckXmlParser.Message message) {
+          String filename = message.getFilename();
+          store.add(filename == null ? null : normalize(filename), message);
+        }
+      });
+      CppcheckRuleTable.CountingFilter countingFilter = new CppcheckRuleTable.CountingFilter(ruleFilter);
+      CppcheckReports.parse(reports, options, countingFilter, deduplicator);
+      if (store.isFull()) {
+        LOG.warn("Not enough memory to store Cppcheck messages off-heap, they are kept on the heap");
+        return parse(reports, options.onHeap(), ruleFilter);
+      }
+      deduplicator.logDuplicates();
+      LOG.info("{} Cppcheck message(s) stored off-heap in {} KB", store.size(), store.offHeapBytes() / 1024);
+      return new ParsedReport(store, countingFilter.getRejected(), deduplicator.getDuplicates());
+    }
+
+    /**
+     * Normalized paths, as written in the report, of all the files having messages.
+     */
+    public Collection<String> filenames() {
+      return store == null ? messagesByFile.keySet() : store.files();
+    }
+
+    public List<CppcheckXmlParser.Message> messagesOf(String normalizedFilename) {
+      if (store != null) {
+        return toMessages(store.cursor(normalizedFilename));
+      }
+      List<CppcheckXmlParser.Message> messages = messagesByFile.get(normalizedFilename);
+      return messages == null ? ImmutableList.<CppcheckXmlParser.Message>of() : messages;
+    }
+
+    /**
+     * Messages without location, which are reported on the project.
+     */
+    public List<CppcheckXmlParser.Message> projectMessages() {
+      return store == null ? projectMessages : toMessages(store.cursor(null));
+    }
+
+    /**
+     * Number of messages of the reports whose rule is not active, which have been skipped.
+     */
+    public long getFiltered() {
+      return filtered;
+    }
+
+    /**
+     * Number of repeated messages of the reports, which have been dropped.
+     */
+    public int getDuplicates() {
+      return duplicates;
+    }
+
+    /**
+     * Off-heap store of the messages, which can be read without creating them, or null when they are on the heap.
+     */
+    @CheckForNull
+    CppcheckFindingStore getStore() {
+      return store;
+    }
+
+    private void release() {
+      if (store != null) {
+        store.release();
+      }
+    }
+
+    private static List<CppcheckXmlParser.Message> toMessages(CppcheckFindingStore.Cursor cursor) {
+      ImmutableList.Builder<CppcheckXmlParser.Message> messages = ImmutableList.builder();
+      while (cursor.next()) {
+        messages.add(cursor.toMessage());
+      }
+      return messages.build();
+    }
+
+  }
+
+  private static class Key {
+
+    private final String path;
+    private final List<Long> sizesAndDates = Lists.newArrayList();
+    // the number of threads does not change the parsed messages
+    private final CppcheckXmlParser.Backend backend;
+    private final long splitMinSize;
+    private final boolean offHeap;
+    private final boolean indexed;
+    private final Predicate<String> ruleFilter;
+
+    Key(List<File> reports, CppcheckReports.Options options, Predicate<String> ruleFilter) {
+      this.backend = options.getBackend();
+      this.splitMinSize = options.getSplitMinSize();
+      this.offHeap = options.isOffHeap();
+      this.indexed = options.isIndexed();
+      this.ruleFilter = ruleFilter;
+      StringBuilder sb = new StringBuilder();
+      for (File report : reports) {
+        sb.append(report.getAbsolutePath()).append(File.pathSeparatorChar);
+        sizesAndDates.add(report.length());
+        sizesAndDates.add(report.lastModified());
+      }
+      this.path = sb.toString();
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return path.equals(other.path) && sizesAndDates.equals(other.sizesAndDates) && backend == other.backend && splitMinSize == other.splitMinSize
+        && offHeap == other.offHeap && indexed == other.indexed && ruleFilter.equals(other.ruleFilter);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(path, sizesAndDates, backend, splitMinSize, offHeap, indexed, ruleFilter);
+    }
+
+  }
+
+}
@@ -0,0 +1,427 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.sonar.api.utils.SonarException;
+
+import javax.annotation.CheckForNull;
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Parses a large uncompressed report in chunks on several threads. Errors are flat under the {@code errors} element,
+ * so the memory-mapped report is split at the start tags of errors, and each chunk is parsed as a small report made
+ * of the XML declaration and root element of the report, the errors of the chunk, and closing tags. Only a few chunks
+ * are parsed ahead of the one being handled, and the mapping is released once the report is parsed.
+ */
+final class CppcheckReportChunks {
+
+  /**
+   * Size in bytes from which a report is split, below which parsing it sequentially is fast enough.
+   */
+  static final long MIN_SIZE = 32L * 1024 * 1024;
+
+  // more chunks than threads, so that no thread is left idle while a slower chunk is parsed
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  // chunks of a larger report are smaller than this, so that the messages of a chunk held on heap stay small
+  private static final long MAX_CHUNK_SIZE = 8L * 1024 * 1024;
+
+  // chunks parsed ahead of the one being handled, so that memory does not grow with the size of the report
+  private static final int IN_FLIGHT_PER_THREAD = 2;
+
+  private static final byte[] DECLARATION_START = ascii("<?xml");
+  private static final byte[] DECLARATION_END = ascii("?>");
+  private static final byte[] ERRORS_START = ascii("<errors");
+  private static final byte[] ERRORS_END = ascii("</errors");
+  private static final byte[] ERROR_START = ascii("<error");
+
+  private CppcheckReportChunks() {
+  }
+
+  /**
+   * Parses the report in chunks on the threads of the options, and gives the messages to the handler from the calling
+   * thread in the order of the report, so the result is the same as parsing it sequentially. Returns false without
+   * handling any message when the report is smaller than the split size of the options, is compressed, or can't be split
+   * safely, in which case it is expected to be parsed sequentially.
+   */
+  static boolean parse(File report, CppcheckReports.Options options, Predicate<String> ruleFilter, CppcheckXmlParser.MessageHandler handler) {
+    long length = report.length();
+    if (options.getThreads() <= 1 || length < options.getSplitMinSize() || length > Integer.MAX_VALUE) {
+      return false;
+    }
+    try {
+      if (CppcheckReportInput.isCompressed(report)) {
+        return false;
+      }
+      ByteBuffer mapping = MappedFiles.map(report);
+      ForkJoinPool pool = new ForkJoinPool(options.getThreads());
+      Readers readers = new Readers();
+      try {
+        int count = (int) Math.max(options.getThreads() * CHUNKS_PER_THREAD, length / MAX_CHUNK_SIZE + 1);
+        List<Chunk> chunks = split(mapping, count);
+        return chunks.size() > 1 && parse(pool, readers, report, chunks, options, ruleFilter, handler);
+      } finally {
+        pool.shutdownNow();
+        // chunks still being parsed after a failure read the mapping, which is then left to the garbage collector
+        if (readers.close()) {
+          MappedFiles.unmap(mapping);
+        }
+      }
+    } catch (IOException e) {
+      throw new SonarException("Unable to parse file: " + report, e);
+    }
+  }
+
+  private static boolean parse(ForkJoinPool pool, final Readers readers, File report, List<Chunk> chunks, CppcheckReports.Options options,
+    Predicate<String> ruleFilter, CppcheckXmlParser.MessageHandler handler) {
+    List<ForkJoinTask<Boolean>> checks = Lists.newArrayList();
+    for (final Chunk chunk : chunks) {
+      checks.add(pool.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          readers.enter();
+          try {
+            return chunk.isSplittable();
+          } finally {
+            readers.exit();
+          }
+        }
+      }));
+    }
+    for (ForkJoinTask<Boolean> check : checks) {
+      if (!check.join()) {
+        return false;
+      }
+    }
+    int window = options.getThreads() * IN_FLIGHT_PER_THREAD;
+    List<ForkJoinTask<List<CppcheckXmlParser.Message>>> results = Lists.newArrayList();
+    for (int i = 0; i < Math.min(window, chunks.size()); i++) {
+      results.add(submit(pool, readers, report, chunks.get(i), options, ruleFilter));
+    }
+    for (int i = 0; i < chunks.size(); i++) {
+      List<CppcheckXmlParser.Message> messages = results.get(i).join();
+      // messages of a chunk which has been drained are not needed anymore, and make room for the next chunk
+      results.set(i, null);
+      if (i + window < chunks.size()) {
+        results.add(submit(pool, readers, report, chunks.get(i + window), options, ruleFilter));
+      }
+      for (CppcheckXmlParser.Message message : messages) {
+        handler.onMessage(message);
+      }
+    }
+    return true;
+  }
+
+  private static ForkJoinTask<List<CppcheckXmlParser.Message>> submit(ForkJoinPool pool, final Readers readers, final File report, final Chunk chunk,
+    final CppcheckReports.Options options, final Predicate<String> ruleFilter) {
+    return pool.submit(new Callable<List<CppcheckXmlParser.Message>>() {
+      @Override
+      public List<CppcheckXmlParser.Message> call() {
+        readers.enter();
+        try {
+          return chunk.parse(report, options.getBackend(), ruleFilter);
+        } finally {
+          readers.exit();
+        }
+      }
+    });
+  }
+
+  /**
+   * Tasks reading the mapping. A cancelled task may still be running, so the mapping is only released when no task
+   * is reading it, and no task starts reading it afterwards.
+   */
+  private static final class Readers {
+
+    private int reading = 0;
+    private boolean closed = false;
+
+    synchronized void enter() {
+      if (closed) {
+        throw new CancellationException("Cppcheck report is not parsed anymore");
+      }
+      reading++;
+    }
+
+    synchronized void exit() {
+      reading--;
+    }
+
+    /**
+     * Prevents tasks from reading the mapping from now on, and tells whether it can be released, which is the case
+     * when no task is reading it.
+     */
+    synchronized boolean close() {
+      closed = true;
+      return reading == 0;
+    }
+
+  }
+
+  /**
+   * Splits the errors of the report in about {@code count} chunks of the same size, or returns no chunk when the
+   * structure of the report is not the expected one.
+   */
+  static List<Chunk> split(ByteBuffer report, int count) {
+    int errorsStart = indexOfTag(report, ERRORS_START, 0, report.limit());
+    if (errorsStart < 0) {
+      return ImmutableList.of();
+    }
+    int bodyStart = indexOf(report, (byte) '>', errorsStart);
+    if (bodyStart < 0 || report.get(bodyStart - 1) == '/') {
+      return ImmutableList.of();
+    }
+    bodyStart++;
+    int bodyEnd = lastIndexOf(report, ERRORS_END);
+    int declarationEnd = declarationEnd(report);
+    String root = rootName(report, declarationEnd, errorsStart);
+    if (bodyEnd < bodyStart || root == null) {
+      return ImmutableList.of();
+    }
+
+    List<Integer> bounds = Lists.newArrayList(bodyStart);
+    for (int i = 1; i < count; i++) {
+      int target = (int) (bodyStart + (long) (bodyEnd - bodyStart) * i / count);
+      int bound = indexOfTag(report, ERROR_START, Math.max(target, bounds.get(bounds.size() - 1) + 1), bodyEnd);
+      if (bound < 0) {
+        break;
+      }
+      bounds.add(bound);
+    }
+    bounds.add(bodyEnd);
+
+    ByteBuffer declaration = slice(report, 0, declarationEnd);
+    ByteBuffer openTags = ByteBuffer.wrap(ascii("<" + root + "><errors>"));
+    ByteBuffer closeTags = ByteBuffer.wrap(ascii("</errors></" + root + ">"));
+    List<Chunk> chunks = Lists.newArrayList();
+    for (int i = 0; i + 1 < bounds.size(); i++) {
+      ByteBuffer body = slice(report, bounds.get(i), bounds.get(i + 1));
+      // the first chunk keeps the header of the report, and the last one its end
+      List<ByteBuffer> prefix = i == 0 ? ImmutableList.of(slice(report, 0, bodyStart)) : ImmutableList.of(declaration, openTags);
+      ByteBuffer suffix = i == bounds.size() - 2 ? slice(report, bodyEnd, report.limit()) : closeTags;
+      chunks.add(new Chunk(prefix, body, suffix));
+    }
+    return chunks;
+  }
+
+  static final class Chunk {
+
+    private final List<ByteBuffer> parts;
+    private final ByteBuffer body;
+
+    private Chunk(List<ByteBuffer> prefix, ByteBuffer body, ByteBuffer suffix) {
+      this.parts = ImmutableList.<ByteBuffer>builder().addAll(prefix).add(body).add(suffix).build();
+      this.body = body;
+    }
+
+    /**
+     * Whether the body has no comment, CDATA section nor processing instruction, in which a start tag of error
+     * could have been mistaken for a split point.
+     */
+    boolean isSplittable() {
+      for (int i = body.position(); i + 1 < body.limit(); i++) {
+        if (body.get(i) == '<' && (body.get(i + 1) == '!' || body.get(i + 1) == '?')) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    List<CppcheckXmlParser.Message> parse(File report, CppcheckXmlParser.Backend backend, Predicate<String> ruleFilter) {
+      final List<CppcheckXmlParser.Message> messages = Lists.newArrayList();
+      try {
+        backend.parse(open(), ruleFilter, new CppcheckXmlParser.MessageHandler() {
+          @Override
+          public void onMessage(CppcheckXmlParser.Message message) {
+            messages.add(message);
+          }
+        });
+      } catch (XMLStreamException e) {
+        throw new SonarException("Unable to parse file: " + report, e);
+      }
+      return messages;
+    }
+
+    InputStream open() {
+      return new ByteBuffersInputStream(parts);
+    }
+
+  }
+
+  /**
+   * Reads buffers one after the other, without changing their positions.
+   */
+  private static class ByteBuffersInputStream extends InputStream {
+
+    private final Iterator<ByteBuffer> buffers;
+    @CheckForNull
+    private ByteBuffer current;
+
+    ByteBuffersInputStream(List<ByteBuffer> buffers) {
+      this.buffers = buffers.iterator();
+    }
+
+    @Override
+    public int read() {
+      ByteBuffer buffer = current();
+      return buffer == null ? -1 : (buffer.get() & 0xff);
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      ByteBuffer buffer = current();
+      if (buffer == null) {
+        return -1;
+      }
+      int read = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, read);
+      return read;
+    }
+
+    @CheckForNull
+    private ByteBuffer current() {
+      while (current == null || !current.hasRemaining()) {
+        if (!buffers.hasNext()) {
+          return null;
+        }
+        current = buffers.next().duplicate();
+      }
+      return current;
+    }
+
+  }
+
+  private static int declarationEnd(ByteBuffer report) {
+    // an optional byte order mark precedes the declaration
+    int start = report.limit() >= 3 && report.get(0) == (byte) 0xef && report.get(1) == (byte) 0xbb && report.get(2) == (byte) 0xbf ? 3 : 0;
+    if (!startsWith(report, DECLARATION_START, start)) {
+      return start;
+    }
+    int end = indexOf(report, DECLARATION_END, start, report.limit());
+    return end < 0 ? start : (end + DECLARATION_END.length);
+  }
+
+  /**
+   * Name of the root element, or null when it is preceded by a comment or a document type.
+   */
+  @CheckForNull
+  private static String rootName(ByteBuffer report, int from, int to) {
+    int start = indexOf(report, (byte) '<', from);
+    if (start < 0 || start >= to || !isNameStart(report.get(start + 1))) {
+      return null;
+    }
+    int end = start + 1;
+    while (end < to && !isTagNameEnd(report.get(end))) {
+      end++;
+    }
+    byte[] name = new byte[end - start - 1];
+    for (int i = 0; i < name.length; i++) {
+      name[i] = report.get(start + 1 + i);
+    }
+    return new String(name, Charsets.UTF_8);
+  }
+
+  private static boolean isNameStart(byte b) {
+    return b != '!' && b != '?' && b != '/' && !isTagNameEnd(b);
+  }
+
+  private static boolean isTagNameEnd(byte b) {
+    return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '>' || b == '/';
+  }
+
+  /**
+   * Index of a start tag with exactly the given name, i.e. not a longer name beginning the same way.
+   */
+  private static int indexOfTag(ByteBuffer report, byte[] tag, int from, int to) {
+    int index = indexOf(report, tag, from, to);
+    while (index >= 0 && (index + tag.length >= to || !isTagNameEnd(report.get(index + tag.length)))) {
+      index = indexOf(report, tag, index + 1, to);
+    }
+    return index;
+  }
+
+  private static int indexOf(ByteBuffer report, byte b, int from) {
+    for (int i = from; i < report.limit(); i++) {
+      if (report.get(i) == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int indexOf(ByteBuffer report, byte[] pattern, int from, int to) {
+    for (int i = from; i + pattern.length <= to; i++) {
+      if (startsWith(report, pattern, i)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int lastIndexOf(ByteBuffer report, byte[] pattern) {
+    for (int i = report.limit() - pattern.length; i >= 0; i--) {
+      if (startsWith(report, pattern, i)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean startsWith(ByteBuffer report, byte[] pattern, int at) {
+    if (at + pattern.length > report.limit()) {
+      return false;
+    }
+    for (int i = 0; i < pattern.length; i++) {
+      if (report.get(at + i) != pattern[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static ByteBuffer slice(ByteBuffer report, int start, int end) {
+    ByteBuffer slice = report.duplicate();
+    slice.limit(end);
+    slice.position(start);
+    return slice.slice();
+  }
+
+  private static byte[] ascii(String s) {
+    return s.getBytes(Charsets.US_ASCII);
+  }
+
+}
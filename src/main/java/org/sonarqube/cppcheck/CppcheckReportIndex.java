@@ -0,0 +1,443 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Binary sidecar of a report, written next to it on its first parse, from which later imports of the same report
+ * read its messages without parsing the XML. The sidecar is only used when the size, the modification date and the
+ * checksum of the whole report are those it was written for; otherwise the report is parsed and the sidecar written
+ * again. The sidecar is mapped in memory while its messages are read, and released by {@link #close()}.
+ * <p/>
+ * It holds all the messages of the report, whatever the rules, so that it does not depend on the quality profile:
+ * <ul>
+ *   <li>a header with the version of the format, the fingerprint of the report and the offsets of the sections,</li>
+ *   <li>the table of the strings of the report, most of them being stored once,</li>
+ *   <li>an index of the records of each file, those of the project coming first,</li>
+ *   <li>the secondary locations of the messages which have some,</li>
+ *   <li>the records of the messages in the order of the report, all of the same size.</li>
+ * </ul>
+ * Messages are read back file after file.
+ */
+final class CppcheckReportIndex {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CppcheckReportIndex.class);
+
+  static final String SUFFIX = ".index";
+
+  private static final int MAGIC = 0x43505049;
+  private static final int VERSION = 4;
+  private static final int NONE = -1;
+  // verbose description which is the same as the short one
+  private static final int MSG = -2;
+  // magic, version, size, modification date and checksum of the report, then offsets of the sections
+  private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4 * 4;
+  // id, severity, message, verbose, file, line, replacement and secondary locations
+  private static final int RECORD_SIZE = 4 + 1 + 4 + 4 + 4 + 4 + 4 + 4;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  // strings kept in memory by the writer to store them once, the others being stored again when they come back
+  private static final int CACHED_STRINGS = 16 * 1024;
+  private static final CppcheckXmlParser.Severity[] SEVERITIES = CppcheckXmlParser.Severity.values();
+
+  private final ByteBuffer buffer;
+  private final int stringCount;
+  private final int stringsOffset;
+  private final int filesOffset;
+  private final int locationsOffset;
+  private final int recordsOffset;
+  // strings which have been read, shared by the messages
+  private final String[] strings;
+
+  private CppcheckReportIndex(ByteBuffer buffer) {
+    this.buffer = buffer;
+    this.stringsOffset = buffer.getInt(HEADER_SIZE - 16);
+    this.filesOffset = buffer.getInt(HEADER_SIZE - 12);
+    this.locationsOffset = buffer.getInt(HEADER_SIZE - 8);
+    this.recordsOffset = buffer.getInt(HEADER_SIZE - 4);
+    this.stringCount = buffer.getInt(stringsOffset);
+    this.strings = new String[stringCount];
+  }
+
+  static File sidecarOf(File report) {
+    return new File(report.getPath() + SUFFIX);
+  }
+
+  /**
+   * Index of the given report, or null when it has not been written yet, or was written for another version of the
+   * report or of the format.
+   */
+  @CheckForNull
+  static CppcheckReportIndex open(File report) {
+    File sidecar = sidecarOf(report);
+    if (!sidecar.isFile() || sidecar.length() < HEADER_SIZE || sidecar.length() > Integer.MAX_VALUE) {
+      return null;
+    }
+    ByteBuffer buffer = null;
+    try {
+      buffer = MappedFiles.map(sidecar);
+      if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION && buffer.getLong(8) == report.length()
+        && buffer.getLong(16) == report.lastModified() && buffer.getLong(24) == checksum(report)) {
+        return new CppcheckReportIndex(buffer);
+      }
+      LOG.debug("Outdated index of Cppcheck report: {}", sidecar);
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Unable to read the index of Cppcheck report, the report is going to be parsed: " + sidecar, e);
+    }
+    if (buffer != null) {
+      MappedFiles.unmap(buffer);
+    }
+    return null;
+  }
+
+  /**
+   * Releases the mapping of the sidecar, so that it can be written again. The index must not be used anymore.
+   */
+  void close() {
+    MappedFiles.unmap(buffer);
+  }
+
+  /**
+   * Gives the messages of the index whose rule is accepted by the filter to the handler, the messages of the project
+   * first and then those of each file, in the order of the report.
+   */
+  void replay(Predicate<String> ruleFilter, CppcheckXmlParser.MessageHandler handler) {
+    int files = buffer.getInt(filesOffset);
+    int recordNumbers = filesOffset + 4 + 8 * files;
+    for (int i = 0; i < files; i++) {
+      int count = buffer.getInt(filesOffset + 4 + 8 * i + 4);
+      for (int j = 0; j < count; j++) {
+        int record = recordsOffset + RECORD_SIZE * buffer.getInt(recordNumbers + 4 * j);
+        // the filter sees every message, as it may count those it rejects
+        if (ruleFilter.apply(string(buffer.getInt(record)))) {
+          handler.onMessage(read(record));
+        }
+      }
+      recordNumbers += 4 * count;
+    }
+  }
+
+  private CppcheckXmlParser.Message read(int record) {
+    String id = string(buffer.getInt(record));
+    CppcheckXmlParser.Severity severity = SEVERITIES[buffer.get(record + 4)];
+    String msg = string(buffer.getInt(record + 5));
+    int verboseIndex = buffer.getInt(record + 9);
+    String verbose = verboseIndex == MSG ? msg : string(verboseIndex);
+    String filename = string(buffer.getInt(record + 13));
+    int line = buffer.getInt(record + 17);
+    if (filename == null) {
+      return new CppcheckXmlParser.Message(string(buffer.getInt(record + 21)), id, severity, msg, verbose);
+    }
+    int locations = buffer.getInt(record + 25);
+    return new CppcheckXmlParser.Message(id, severity, msg, verbose, filename, line, locations == NONE ? null : locations(locationsOffset + locations));
+  }
+
+  private CppcheckXmlParser.Locations locations(int offset) {
+    int count = buffer.getInt(offset);
+    String[] filenames = new String[count];
+    int[] lines = new int[count];
+    for (int i = 0; i < count; i++) {
+      filenames[i] = string(buffer.getInt(offset + 4 + 8 * i));
+      lines[i] = buffer.getInt(offset + 8 + 8 * i);
+    }
+    return new CppcheckXmlParser.Locations(filenames, lines);
+  }
+
+  @CheckForNull
+  private String string(int index) {
+    if (index == NONE) {
+      return null;
+    }
+    String string = strings[index];
+    if (string == null) {
+      int offset = buffer.getInt(stringsOffset + 4 + 4 * index);
+      byte[] bytes = new byte[buffer.getInt(offset)];
+      ByteBuffer reader = buffer.duplicate();
+      reader.position(offset + 4);
+      reader.get(bytes);
+      string = new String(bytes, Charsets.UTF_8);
+      strings[index] = string;
+    }
+    return string;
+  }
+
+  /**
+   * CRC-32 of the content of the file as it is stored, compressed or not.
+   */
+  static long checksum(File file) throws IOException {
+    CRC32 crc = new CRC32();
+    byte[] bytes = new byte[BUFFER_SIZE];
+    InputStream input = new FileInputStream(file);
+    try {
+      int read = input.read(bytes);
+      while (read >= 0) {
+        crc.update(bytes, 0, read);
+        read = input.read(bytes);
+      }
+    } finally {
+      Closeables.closeQuietly(input);
+    }
+    return crc.getValue();
+  }
+
+  /**
+   * Writes the index of a report from all its messages, while giving those accepted by the rule filter to the handler.
+   * Records, strings and secondary locations are written to temporary files as they come, only the record numbers of
+   * each file and the most recent strings being kept in memory until the index is completed by {@link #finish()}.
+   */
+  static final class Writer implements CppcheckXmlParser.MessageHandler {
+
+    private final File report;
+    private final File records;
+    private final File strings;
+    private final File locations;
+    private final Predicate<String> ruleFilter;
+    private final CppcheckXmlParser.MessageHandler handler;
+    // indexes of the most recent strings, which are not stored again
+    private final Map<String, Integer> stringIndexes;
+    // offsets of the strings from the start of their bytes
+    private final IntArray stringOffsets = new IntArray();
+    private long stringBytes = 0;
+    // record numbers of each file, those of the project being first, and indexes of the names of the files
+    private final Map<String, IntArray> files = Maps.newLinkedHashMap();
+    private final Map<String, Integer> fileIndexes = Maps.newHashMap();
+    @Nullable
+    private DataOutputStream out;
+    @Nullable
+    private DataOutputStream stringsOut;
+    @Nullable
+    private DataOutputStream locationsOut;
+    private int recordCount = 0;
+
+    Writer(File report, Predicate<String> ruleFilter, CppcheckXmlParser.MessageHandler handler) {
+      this(report, ruleFilter, handler, CACHED_STRINGS);
+    }
+
+    Writer(File report, Predicate<String> ruleFilter, CppcheckXmlParser.MessageHandler handler, final int cachedStrings) {
+      this.report = report;
+      this.records = new File(report.getPath() + SUFFIX + ".records");
+      this.strings = new File(report.getPath() + SUFFIX + ".strings");
+      this.locations = new File(report.getPath() + SUFFIX + ".locations");
+      this.ruleFilter = ruleFilter;
+      this.handler = handler;
+      this.stringIndexes = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+          return size() > cachedStrings;
+        }
+      };
+      files.put(null, new IntArray());
+      fileIndexes.put(null, NONE);
+      try {
+        out = open(records);
+        stringsOut = open(strings);
+        locationsOut = open(locations);
+      } catch (IOException e) {
+        LOG.warn("Unable to write the index of Cppcheck report: " + sidecarOf(report), e);
+        abort();
+      }
+    }
+
+    private static DataOutputStream open(File file) throws IOException {
+      return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+    }
+
+    @Override
+    public void onMessage(CppcheckXmlParser.Message message) {
+      if (out != null) {
+        try {
+          write(message);
+        } catch (IOException e) {
+          LOG.warn("Unable to write the index of Cppcheck report: " + sidecarOf(report), e);
+          abort();
+        }
+      }
+      if (ruleFilter.apply(message.getId())) {
+        handler.onMessage(message);
+      }
+    }
+
+    private void write(CppcheckXmlParser.Message message) throws IOException {
+      int filename = index(message.getFilename());
+      out.writeInt(index(message.getId()));
+      out.writeByte(message.getSeverity().ordinal());
+      out.writeInt(index(message.getMsg()));
+      out.writeInt(message.isVerboseOfMsg() ? MSG : index(message.getVerbose()));
+      out.writeInt(filename);
+      out.writeInt(message.getLine());
+      out.writeInt(index(message.getReplacement()));
+      CppcheckXmlParser.Locations secondaryLocations = message.getSecondaryLocations();
+      if (secondaryLocations == null) {
+        out.writeInt(NONE);
+      } else {
+        out.writeInt(locationsOut.size());
+        locationsOut.writeInt(secondaryLocations.size());
+        for (int i = 0; i < secondaryLocations.size(); i++) {
+          locationsOut.writeInt(index(secondaryLocations.getFilename(i)));
+          locationsOut.writeInt(secondaryLocations.getLine(i));
+        }
+      }
+      IntArray recordNumbers = files.get(message.getFilename());
+      if (recordNumbers == null) {
+        recordNumbers = new IntArray();
+        files.put(message.getFilename(), recordNumbers);
+        fileIndexes.put(message.getFilename(), filename);
+      }
+      recordNumbers.add(recordCount);
+      recordCount++;
+    }
+
+    /**
+     * Completes the index once all the messages of the report have been written, and replaces the previous one.
+     */
+    void finish() {
+      if (out == null) {
+        return;
+      }
+      File sidecar = sidecarOf(report);
+      File temp = new File(sidecar.getPath() + ".tmp");
+      DataOutputStream index = null;
+      try {
+        out.close();
+        stringsOut.close();
+        locationsOut.close();
+        int stringCount = stringOffsets.size;
+        long filesOffset = HEADER_SIZE + 4 + 4L * stringCount + stringBytes;
+        long locationsOffset = filesOffset + 4 + 8L * files.size() + 4L * recordCount;
+        long recordsOffset = locationsOffset + locations.length();
+        if (recordsOffset + (long) RECORD_SIZE * recordCount > Integer.MAX_VALUE) {
+          LOG.warn("Cppcheck report is too large to be indexed: {}", report);
+          return;
+        }
+        index = open(temp);
+        index.writeInt(MAGIC);
+        index.writeInt(VERSION);
+        index.writeLong(report.length());
+        index.writeLong(report.lastModified());
+        index.writeLong(checksum(report));
+        index.writeInt(HEADER_SIZE);
+        index.writeInt((int) filesOffset);
+        index.writeInt((int) locationsOffset);
+        index.writeInt((int) recordsOffset);
+        index.writeInt(stringCount);
+        int stringsStart = HEADER_SIZE + 4 + 4 * stringCount;
+        for (int i = 0; i < stringCount; i++) {
+          index.writeInt(stringsStart + stringOffsets.values[i]);
+        }
+        Files.copy(strings, index);
+        index.writeInt(files.size());
+        for (Map.Entry<String, IntArray> entry : files.entrySet()) {
+          index.writeInt(fileIndexes.get(entry.getKey()));
+          index.writeInt(entry.getValue().size);
+        }
+        for (IntArray recordNumbers : files.values()) {
+          for (int i = 0; i < recordNumbers.size; i++) {
+            index.writeInt(recordNumbers.values[i]);
+          }
+        }
+        Files.copy(locations, index);
+        Files.copy(records, index);
+        index.close();
+        if (!sidecar.delete() && sidecar.exists() || !temp.renameTo(sidecar)) {
+          throw new IOException("Unable to replace " + sidecar);
+        }
+      } catch (IOException e) {
+        LOG.warn("Unable to write the index of Cppcheck report: " + sidecar, e);
+        Closeables.closeQuietly(index);
+        temp.delete();
+      } finally {
+        abort();
+      }
+    }
+
+    /**
+     * Stops writing the index, when the parse fails or once it is completed.
+     */
+    void abort() {
+      Closeables.closeQuietly(out);
+      Closeables.closeQuietly(stringsOut);
+      Closeables.closeQuietly(locationsOut);
+      out = null;
+      stringsOut = null;
+      locationsOut = null;
+      records.delete();
+      strings.delete();
+      locations.delete();
+    }
+
+    private int index(@Nullable String string) throws IOException {
+      if (string == null) {
+        return NONE;
+      }
+      Integer index = stringIndexes.get(string);
+      if (index == null) {
+        index = stringOffsets.size;
+        // offsets beyond the range of int make the index too large, which finish() detects
+        stringOffsets.add((int) stringBytes);
+        byte[] bytes = string.getBytes(Charsets.UTF_8);
+        stringsOut.writeInt(bytes.length);
+        stringsOut.write(bytes);
+        stringBytes += 4 + bytes.length;
+        stringIndexes.put(string, index);
+      }
+      return index;
+    }
+
+  }
+
+  /**
+   * Growable array of ints.
+   */
+  private static final class IntArray {
+
+    private int[] values = new int[16];
+    private int size = 0;
+
+    void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, 2 * size);
+      }
+      values[size++] = value;
+    }
+
+  }
+
+}
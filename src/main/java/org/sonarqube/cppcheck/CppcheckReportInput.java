@@ -0,0 +1,102 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.io.Closeables;
+import org.sonar.api.utils.SonarException;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens reports, which can be compressed. The compression is detected from the first bytes of the file,
+ * whatever its extension, and the report is decompressed on the fly without temporary file.
+ */
+final class CppcheckReportInput {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final byte[] GZIP_MAGIC = {(byte) 0x1f, (byte) 0x8b};
+  private static final byte[] XZ_MAGIC = {(byte) 0xfd, '7', 'z', 'X', 'Z', 0};
+  private static final byte[] ZSTD_MAGIC = {(byte) 0x28, (byte) 0xb5, (byte) 0x2f, (byte) 0xfd};
+
+  private CppcheckReportInput() {
+  }
+
+  static InputStream open(File report) throws IOException {
+    InputStream is = new BufferedInputStream(new FileInputStream(report), BUFFER_SIZE);
+    try {
+      byte[] header = readHeader(is);
+      if (startsWith(header, GZIP_MAGIC)) {
+        return new BufferedInputStream(new GZIPInputStream(is, BUFFER_SIZE), BUFFER_SIZE);
+      }
+      if (startsWith(header, XZ_MAGIC) || startsWith(header, ZSTD_MAGIC)) {
+        throw new SonarException("Unsupported compression of Cppcheck report, only gzip is supported: " + report);
+      }
+      return is;
+    } catch (IOException | RuntimeException e) {
+      Closeables.closeQuietly(is);
+      throw e;
+    }
+  }
+
+  static boolean isCompressed(File report) throws IOException {
+    InputStream is = new FileInputStream(report);
+    try {
+      byte[] header = readHeader(is);
+      return startsWith(header, GZIP_MAGIC) || startsWith(header, XZ_MAGIC) || startsWith(header, ZSTD_MAGIC);
+    } finally {
+      Closeables.closeQuietly(is);
+    }
+  }
+
+  private static byte[] readHeader(InputStream is) throws IOException {
+    byte[] header = new byte[XZ_MAGIC.length];
+    if (is.markSupported()) {
+      is.mark(header.length);
+    }
+    int read = 0;
+    while (read < header.length) {
+      int n = is.read(header, read, header.length - read);
+      if (n < 0) {
+        break;
+      }
+      read += n;
+    }
+    if (is.markSupported()) {
+      is.reset();
+    }
+    return header;
+  }
+
+  private static boolean startsWith(byte[] header, byte[] magic) {
+    for (int i = 0; i < magic.length; i++) {
+      if (header[i] != magic[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import org.sonar.api.batch.CheckProject;
+import org.sonar.api.batch.PostJob;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.resources.Project;
+
+/**
+ * Releases the reports parsed once for all the modules of a multi-module project, after the analysis of the root
+ * project, which comes once all its modules have imported them.
+ */
+public class CppcheckReportRelease implements PostJob, CheckProject {
+
+  private final CppcheckReportCache reportCache;
+
+  public CppcheckReportRelease(CppcheckReportCache reportCache) {
+    this.reportCache = reportCache;
+  }
+
+  @Override
+  public boolean shouldExecuteOnProject(Project project) {
+    return project.isRoot();
+  }
+
+  @Override
+  public void executeOn(Project project, SensorContext context) {
+    reportCache.release();
+  }
+
+  @Override
+  public String toString() {
+    return "Cppcheck report release";
+  }
+
+}
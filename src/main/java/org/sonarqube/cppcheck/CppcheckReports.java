@@ -0,0 +1,331 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Parses several Cppcheck reports, for instance those produced by a sharded execution of Cppcheck.
+ */
+public final class CppcheckReports {
+
+  /**
+   * Messages handed over at once by the parsing thread of a pipelined parse.
+   */
+  static final int BATCH_SIZE = 1000;
+
+  /**
+   * Maximum number of batches waiting to be handled, the parsing thread being blocked beyond.
+   */
+  static final int QUEUE_CAPACITY = 16;
+
+  // end of the messages, compared by identity
+  private static final List<CppcheckXmlParser.Message> END = Lists.newArrayListWithCapacity(0);
+
+  private CppcheckReports() {
+  }
+
+  /**
+   * How reports are parsed: on how many threads, with which implementation, and whether a single large report is
+   * split in chunks parsed concurrently.
+   */
+  public static final class Options {
+
+    private final int threads;
+    private final CppcheckXmlParser.Backend backend;
+    private final long splitMinSize;
+    private final boolean offHeap;
+    private final boolean indexed;
+
+    public Options(int threads, CppcheckXmlParser.Backend backend, boolean split) {
+      this(threads, backend, split, false, false);
+    }
+
+    public Options(int threads, CppcheckXmlParser.Backend backend, boolean split, boolean offHeap, boolean indexed) {
+      this(threads, backend, split ? CppcheckReportChunks.MIN_SIZE : Long.MAX_VALUE, offHeap, indexed);
+    }
+
+    Options(int threads, CppcheckXmlParser.Backend backend, long splitMinSize) {
+      this(threads, backend, splitMinSize, false, false);
+    }
+
+    private Options(int threads, CppcheckXmlParser.Backend backend, long splitMinSize, boolean offHeap, boolean indexed) {
+      this.threads = threads;
+      this.backend = backend;
+      this.splitMinSize = splitMinSize;
+      this.offHeap = offHeap;
+      this.indexed = indexed;
+    }
+
+    public int getThreads() {
+      return threads;
+    }
+
+    public CppcheckXmlParser.Backend getBackend() {
+      return backend;
+    }
+
+    /**
+     * Size in bytes from which a single report is split in chunks, {@link Long#MAX_VALUE} when reports are not split.
+     */
+    public long getSplitMinSize() {
+      return splitMinSize;
+    }
+
+    /**
+     * Whether the messages of a report kept during the analysis are stored off-heap.
+     */
+    public boolean isOffHeap() {
+      return offHeap;
+    }
+
+    /**
+     * Whether messages are read from the binary index written next to each report on its first parse.
+     */
+    public boolean isIndexed() {
+      return indexed;
+    }
+
+    /**
+     * Same options, the messages of a report kept during the analysis staying on the heap.
+     */
+    Options onHeap() {
+      return new Options(threads, backend, splitMinSize, false, indexed);
+    }
+
+  }
+
+  /**
+   * Parses the reports concurrently on at most {@code threads} threads of the options. Messages are given to the
+   * handler from the calling thread, report after report in the given order, so the result is the same as
+   * parsing the reports one after the other. A single report is split in chunks parsed concurrently when
+   * it is large enough and splitting is enabled. Reports whose index is up to date are not parsed when
+   * indexing is enabled, their messages coming file after file. Each report hands its messages over through
+   * its own bounded queue, so that reports parsed ahead of the one being handled do not fill the memory.
+   */
+  public static void parse(List<File> reports, Options options, Predicate<String> ruleFilter, CppcheckXmlParser.MessageHandler handler) {
+    int threads = options.getThreads();
+    if (reports.size() == 1 || threads <= 1) {
+      for (File report : reports) {
+        parse(report, options, true, ruleFilter, handler);
+      }
+      return;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, reports.size()));
+    try {
+      List<BlockingQueue<List<CppcheckXmlParser.Message>>> queues = Lists.newArrayList();
+      List<Future<Void>> parsers = Lists.newArrayList();
+      for (File report : reports) {
+        // reports are started in order, so the parser of the report being handled never waits for a thread
+        BlockingQueue<List<CppcheckXmlParser.Message>> queue = new ArrayBlockingQueue<List<CppcheckXmlParser.Message>>(QUEUE_CAPACITY);
+        queues.add(queue);
+        parsers.add(executor.submit(new BatchingParser(Collections.singletonList(report), options, false, ruleFilter, queue)));
+      }
+      for (int i = 0; i < reports.size(); i++) {
+        drain(queues.get(i), handler);
+        get(parsers.get(i));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void parse(File report, Options options, boolean split, Predicate<String> ruleFilter, CppcheckXmlParser.MessageHandler handler) {
+    CppcheckXmlParser.MessageHandler parsed = handler;
+    Predicate<String> parsedRules = ruleFilter;
+    CppcheckReportIndex.Writer indexWriter = null;
+    if (options.isIndexed()) {
+      CppcheckReportIndex index = CppcheckReportIndex.open(report);
+      if (index != null) {
+        try {
+          index.replay(ruleFilter, handler);
+        } finally {
+          index.close();
+        }
+        return;
+      }
+      // the index holds the messages of all the rules, those of the active rules being handled while it is written
+      indexWriter = new CppcheckReportIndex.Writer(report, ruleFilter, handler);
+      parsed = indexWriter;
+      parsedRules = Predicates.alwaysTrue();
+    }
+    try {
+      if (!split || !CppcheckReportChunks.parse(report, options, parsedRules, parsed)) {
+        CppcheckXmlParser.parse(report, options.getBackend(), parsedRules, parsed);
+      }
+      if (indexWriter != null) {
+        indexWriter.finish();
+      }
+    } finally {
+      if (indexWriter != null) {
+        indexWriter.abort();
+      }
+    }
+  }
+
+  /**
+   * Same as {@link #parse(List, Options, Predicate, CppcheckXmlParser.MessageHandler)}, but reports are parsed on
+   * another thread while the handler processes the messages already parsed. Messages are handed over in batches
+   * through a bounded queue, so that memory stays bounded when the handler is slower than the parser. An error
+   * of the parser is thrown once the messages parsed before it are handled, and an error of the handler stops
+   * the parser.
+   */
+  public static void parsePipelined(List<File> reports, Options options, Predicate<String> ruleFilter, CppcheckXmlParser.MessageHandler handler) {
+    BlockingQueue<List<CppcheckXmlParser.Message>> queue = new ArrayBlockingQueue<List<CppcheckXmlParser.Message>>(QUEUE_CAPACITY);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    Future<Void> parser = executor.submit(new BatchingParser(reports, options, true, ruleFilter, queue));
+    boolean handled = false;
+    try {
+      drain(queue, handler);
+      handled = true;
+    } finally {
+      if (!handled) {
+        // unblocks the parser if it is waiting for room in the queue
+        parser.cancel(true);
+      }
+      executor.shutdownNow();
+    }
+    get(parser);
+  }
+
+  /**
+   * Gives the messages of the batches of a queue to the handler, until the end of the messages.
+   */
+  private static void drain(BlockingQueue<List<CppcheckXmlParser.Message>> queue, CppcheckXmlParser.MessageHandler handler) {
+    List<CppcheckXmlParser.Message> batch = take(queue);
+    while (batch != END) {
+      for (CppcheckXmlParser.Message message : batch) {
+        handler.onMessage(message);
+      }
+      batch = take(queue);
+    }
+  }
+
+  /**
+   * Parses reports into batches of messages put in a bounded queue, followed by the end of the messages.
+   */
+  private static class BatchingParser implements Callable<Void> {
+
+    private final List<File> reports;
+    private final Options options;
+    // whether the reports are parsed as by parse(List, ...), otherwise one after the other without being split
+    private final boolean concurrently;
+    private final Predicate<String> ruleFilter;
+    private final BlockingQueue<List<CppcheckXmlParser.Message>> queue;
+
+    BatchingParser(List<File> reports, Options options, boolean concurrently, Predicate<String> ruleFilter, BlockingQueue<List<CppcheckXmlParser.Message>> queue) {
+      this.reports = reports;
+      this.options = options;
+      this.concurrently = concurrently;
+      this.ruleFilter = ruleFilter;
+      this.queue = queue;
+    }
+
+    @Override
+    public Void call() throws InterruptedException {
+      BatchingHandler batches = new BatchingHandler(queue);
+      try {
+        if (concurrently) {
+          parse(reports, options, ruleFilter, batches);
+        } else {
+          for (File report : reports) {
+            parse(report, options, false, ruleFilter, batches);
+          }
+        }
+      } finally {
+        // messages parsed before a failure are handled too
+        try {
+          batches.flush();
+        } finally {
+          queue.put(END);
+        }
+      }
+      return null;
+    }
+
+  }
+
+  private static class BatchingHandler implements CppcheckXmlParser.MessageHandler {
+
+    private final BlockingQueue<List<CppcheckXmlParser.Message>> queue;
+    private List<CppcheckXmlParser.Message> batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+
+    BatchingHandler(BlockingQueue<List<CppcheckXmlParser.Message>> queue) {
+      this.queue = queue;
+    }
+
+    @Override
+    public void onMessage(CppcheckXmlParser.Message message) {
+      batch.add(message);
+      if (batch.size() == BATCH_SIZE) {
+        flush();
+      }
+    }
+
+    void flush() {
+      if (batch.isEmpty()) {
+        return;
+      }
+      try {
+        queue.put(batch);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while parsing Cppcheck reports", e);
+      }
+      batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+    }
+
+  }
+
+  private static List<CppcheckXmlParser.Message> take(BlockingQueue<List<CppcheckXmlParser.Message>> queue) {
+    try {
+      return queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while parsing Cppcheck reports", e);
+    }
+  }
+
+  private static <T> T get(Future<T> result) {
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while parsing Cppcheck reports", e);
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+}
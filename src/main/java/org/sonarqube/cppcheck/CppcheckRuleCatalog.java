@@ -0,0 +1,211 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Closeables;
+import org.apache.commons.lang.StringUtils;
+import org.sonar.api.utils.SonarException;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import javax.annotation.WillClose;
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Descriptions of the Cppcheck rules, compiled at build time from {@code cppcheck.xml} into a binary resource,
+ * so that rules are created without parsing XML. The resource is generated by {@link #main(String[])} during
+ * the process-classes phase of the build, and only the resource is packaged. Builds which skip that phase, such as
+ * those of an IDE, do not have it: {@code cppcheck.xml} is then parsed instead.
+ * <p/>
+ * The definitions are loaded once, when first needed, and shared by the rule repositories of all the languages.
+ */
+final class CppcheckRuleCatalog {
+
+  static final String RESOURCE = "/org/sonarqube/cppcheck-rules.bin";
+  static final String XML_RESOURCE = "/org/sonarqube/cppcheck.xml";
+
+  private static final int MAGIC = 0x43505052;
+  private static final int VERSION = 1;
+
+  private CppcheckRuleCatalog() {
+  }
+
+  private static class Holder {
+
+    private static final List<Definition> DEFINITIONS = definitions(load());
+
+  }
+
+  static List<Definition> definitions() {
+    return Holder.DEFINITIONS;
+  }
+
+  private static List<Definition> definitions(List<CppcheckXmlParser.Message> rules) {
+    ImmutableList.Builder<Definition> definitions = ImmutableList.builder();
+    for (CppcheckXmlParser.Message rule : rules) {
+      definitions.add(new Definition(rule));
+    }
+    return definitions.build();
+  }
+
+  static List<CppcheckXmlParser.Message> load() {
+    return load(RESOURCE, XML_RESOURCE);
+  }
+
+  static List<CppcheckXmlParser.Message> load(String resource, String xmlResource) {
+    try {
+      InputStream is = CppcheckRuleCatalog.class.getResourceAsStream(resource);
+      if (is != null) {
+        return read(is);
+      }
+      InputStream xml = CppcheckRuleCatalog.class.getResourceAsStream(xmlResource);
+      if (xml == null) {
+        throw new SonarException("Descriptions of rules for Cppcheck are not found: " + resource);
+      }
+      return ImmutableList.copyOf(CppcheckXmlParser.parse(xml));
+    } catch (IOException | XMLStreamException e) {
+      throw new SonarException("Unable to load descriptions of rules for Cppcheck", e);
+    }
+  }
+
+  /**
+   * Description of a Cppcheck rule, common to all the languages.
+   */
+  static final class Definition {
+
+    private final String id;
+    private final String name;
+    private final String description;
+    @Nullable
+    private final String replacementKey;
+    @Nullable
+    private final String replacementLanguage;
+
+    private Definition(CppcheckXmlParser.Message rule) {
+      this.id = rule.getId();
+      this.name = rule.getMsg();
+      this.description = "<p>" + rule.getVerbose() + "</p>";
+      String replacement = rule.getReplacement();
+      if (replacement == null) {
+        this.replacementKey = null;
+        this.replacementLanguage = null;
+      } else {
+        String[] pieces = StringUtils.split(replacement, ':');
+        this.replacementKey = pieces[0];
+        this.replacementLanguage = pieces.length == 1 ? null : pieces[1];
+      }
+    }
+
+    String getId() {
+      return id;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    String getDescription() {
+      return description;
+    }
+
+    boolean isDeprecated() {
+      return replacementKey != null;
+    }
+
+    /**
+     * Key of the rule replacing this deprecated rule, or null when the rule is not deprecated or is not
+     * replaced in the given language.
+     */
+    @CheckForNull
+    String getReplacementKey(String language) {
+      if (replacementLanguage == null || replacementLanguage.equalsIgnoreCase(language)) {
+        return replacementKey;
+      }
+      return null;
+    }
+
+  }
+
+  static List<CppcheckXmlParser.Message> read(@WillClose InputStream is) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Unexpected format of rule descriptions");
+      }
+      int size = in.readInt();
+      ImmutableList.Builder<CppcheckXmlParser.Message> rules = ImmutableList.builder();
+      for (int i = 0; i < size; i++) {
+        String replacement = in.readBoolean() ? in.readUTF() : null;
+        String id = in.readUTF();
+        String msg = in.readUTF();
+        String verbose = in.readUTF();
+        rules.add(new CppcheckXmlParser.Message(replacement, id, CppcheckXmlParser.Severity.NONE, msg, verbose));
+      }
+      return rules.build();
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+  }
+
+  static void write(Collection<CppcheckXmlParser.Message> rules, OutputStream os) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(rules.size());
+    for (CppcheckXmlParser.Message rule : rules) {
+      String replacement = rule.getReplacement();
+      out.writeBoolean(replacement != null);
+      if (replacement != null) {
+        out.writeUTF(replacement);
+      }
+      out.writeUTF(rule.getId());
+      out.writeUTF(rule.getMsg());
+      out.writeUTF(rule.getVerbose());
+    }
+    out.flush();
+  }
+
+  /**
+   * Compiles the XML descriptions of rules given as first argument into the binary resource given as second argument.
+   */
+  public static void main(String[] args) throws IOException {
+    File output = new File(args[1]);
+    output.getParentFile().mkdirs();
+    OutputStream os = new FileOutputStream(output);
+    try {
+      write(CppcheckXmlParser.parse(new File(args[0])), os);
+    } finally {
+      os.close();
+    }
+  }
+
+}
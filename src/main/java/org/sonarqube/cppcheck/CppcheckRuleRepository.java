@@ -20,15 +20,10 @@
 package org.sonarqube.cppcheck;
 
 import com.google.common.collect.Lists;
-import org.apache.commons.lang.StringUtils;
 import org.sonar.api.rules.Rule;
 import org.sonar.api.rules.RulePriority;
 import org.sonar.api.rules.RuleRepository;
-import org.sonar.api.utils.SonarException;
 
-import javax.xml.stream.XMLStreamException;
-import java.io.InputStream;
-import java.util.Collection;
 import java.util.List;
 
 public class CppcheckRuleRepository extends RuleRepository {
@@ -44,20 +39,19 @@ public class CppcheckRuleRepository extends RuleRepository {
   @Override
   public List<Rule> createRules() {
     List<Rule> rules = Lists.newArrayList();
-    for (CppcheckXmlParser.Message message : load()) {
+    for (CppcheckRuleCatalog.Definition definition : CppcheckRuleCatalog.definitions()) {
       Rule rule = Rule.create()
-        .setKey(message.getId())
-        .setConfigKey(message.getId())
+        .setKey(definition.getId())
+        .setConfigKey(definition.getId())
         .setSeverity(RulePriority.MAJOR)
-        .setName(message.getMsg())
-        .setDescription("<p>" + message.getVerbose() + "</p>");
+        .setName(definition.getName())
+        .setDescription(definition.getDescription());
 
-      String replacement = message.getReplacement();
-      if (replacement != null) {
-        rule.setStatus(Rule.STATUS_DEPRECATED);
-        String [] pieces = StringUtils.split(replacement, ':');
-        if (pieces.length == 1 || pieces[1].equalsIgnoreCase(getLanguage())) {
-          rule.setDescription(rule.getDescription() + "<h2>Deprecated</h2><p>This rule is deprecated, use {rule:" + getLanguage() + ":" + pieces[0] + "} instead.</p>");
+      if (definition.isDeprecated()) {
+        String replacementKey = definition.getReplacementKey(getLanguage());
+        if (replacementKey != null) {
+          rule.setStatus(Rule.STATUS_DEPRECATED);
+          rule.setDescription(definition.getDescription() + "<h2>Deprecated</h2><p>This rule is deprecated, use {rule:" + getLanguage() + ":" + replacementKey + "} instead.</p>");
           rules.add(rule);
         }
       } else {
@@ -67,15 +61,6 @@ public class CppcheckRuleRepository extends RuleRepository {
     return rules;
   }
 
-  private Collection<CppcheckXmlParser.Message> load() {
-    InputStream is = getClass().getResourceAsStream("/org/sonarqube/cppcheck.xml");
-    try {
-      return CppcheckXmlParser.parse(is);
-    } catch (XMLStreamException e) {
-      throw new SonarException("Unable to load descriptions of rules for Cppcheck", e);
-    }
-  }
-
   public static String repositoryKeyForLanguage(String language) {
     return language + "-" + REPOSITORY_KEY;
   }
@@ -0,0 +1,154 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.profiles.RulesProfile;
+import org.sonar.api.rules.ActiveRule;
+import org.sonar.api.rules.Rule;
+import org.sonar.api.rules.RuleFinder;
+import org.sonar.api.rules.RuleQuery;
+
+import javax.annotation.CheckForNull;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rules to use for the messages of a report, resolved once per analysis instead of once per message.
+ */
+class CppcheckRuleTable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CppcheckRuleTable.class);
+
+  private final Map<String, Repository> repositories;
+  private final Predicate<String> ruleFilter;
+  private final Multiset<String> unknownIds = HashMultiset.create();
+
+  CppcheckRuleTable(RulesProfile profile, RuleFinder ruleFinder, String... languages) {
+    ImmutableMap.Builder<String, Repository> builder = ImmutableMap.builder();
+    Set<String> activeIds = Sets.newHashSet();
+    Set<String> inactiveIds = Sets.newHashSet();
+    for (String language : languages) {
+      Repository repository = new Repository(profile, ruleFinder, CppcheckRuleRepository.repositoryKeyForLanguage(language));
+      builder.put(language, repository);
+      activeIds.addAll(repository.activeRulesById.keySet());
+      inactiveIds.addAll(repository.knownIds);
+    }
+    inactiveIds.removeAll(activeIds);
+    this.repositories = builder.build();
+    this.ruleFilter = Predicates.not(Predicates.in(ImmutableSet.copyOf(inactiveIds)));
+  }
+
+  /**
+   * Active rule of the given language for the given Cppcheck id, or null when the rule is not active or
+   * does not exist. In the latter case, the message is accounted for {@link #logUnknownRules()}.
+   */
+  @CheckForNull
+  Rule get(String language, String id) {
+    Repository repository = repositories.get(language);
+    Rule rule = repository.activeRulesById.get(id);
+    if (rule == null && !repository.knownIds.contains(id)) {
+      unknownIds.add(id);
+    }
+    return rule;
+  }
+
+  /**
+   * Whether the rule exists in the given language, be it active or not.
+   */
+  boolean isKnown(String language, String id) {
+    return repositories.get(language).knownIds.contains(id);
+  }
+
+  boolean hasActiveRules(String language) {
+    return !repositories.get(language).activeRulesById.isEmpty();
+  }
+
+  /**
+   * Rejects the ids of rules which exist but are active in none of the languages, so that the parser can skip
+   * their messages. Unknown ids are accepted in order to be reported by {@link #logUnknownRules()}.
+   */
+  Predicate<String> ruleFilter() {
+    return ruleFilter;
+  }
+
+  void logUnknownRules() {
+    for (Multiset.Entry<String> entry : unknownIds.entrySet()) {
+      LOG.warn("No such rule in Sonar, so {} issue(s) from Cppcheck will be ignored: {}", entry.getCount(), entry.getElement());
+    }
+  }
+
+  /**
+   * Rule filter counting the messages it rejects, which the parser skips before any statistics see them. It can be
+   * called from several parsing threads.
+   */
+  static final class CountingFilter implements Predicate<String> {
+
+    private final Predicate<String> filter;
+    private final AtomicLong rejected = new AtomicLong();
+
+    CountingFilter(Predicate<String> filter) {
+      this.filter = filter;
+    }
+
+    @Override
+    public boolean apply(String id) {
+      if (filter.apply(id)) {
+        return true;
+      }
+      rejected.incrementAndGet();
+      return false;
+    }
+
+    long getRejected() {
+      return rejected.get();
+    }
+
+  }
+
+  private static class Repository {
+
+    private final Map<String, Rule> activeRulesById = Maps.newHashMap();
+    private final Set<String> knownIds = Sets.newHashSet();
+
+    Repository(RulesProfile profile, RuleFinder ruleFinder, String key) {
+      for (ActiveRule activeRule : profile.getActiveRulesByRepository(key)) {
+        Rule rule = activeRule.getRule();
+        activeRulesById.put(rule.getKey(), rule);
+        knownIds.add(rule.getKey());
+      }
+      for (Rule rule : ruleFinder.findAll(RuleQuery.create().withRepositoryKey(key))) {
+        knownIds.add(rule.getKey());
+      }
+    }
+
+  }
+
+}
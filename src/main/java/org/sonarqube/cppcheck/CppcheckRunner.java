@@ -0,0 +1,231 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Predicate;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Closeables;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.utils.SonarException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a local Cppcheck executable on each source file, instead of importing reports produced outside of the analysis.
+ * Files are checked concurrently by a bounded number of processes, and the XML result of each file is cached in a
+ * directory, keyed by a hash of its content, its path and the command line. The result of a file which has not changed
+ * since a previous run is parsed again without running Cppcheck. Headers included by a file are not part of the key.
+ */
+final class CppcheckRunner {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CppcheckRunner.class);
+
+  private static final String RESULT_SUFFIX = ".xml";
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final File executable;
+  private final List<String> options;
+  private final int processes;
+  private final File baseDir;
+  private final File cacheDir;
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+
+  /**
+   * @param baseDir directory in which Cppcheck is run, file paths given to Cppcheck being relative to it
+   * @param cacheDir directory of the results of the files, only those of the last run being kept
+   */
+  CppcheckRunner(File executable, List<String> options, int processes, File baseDir, File cacheDir) {
+    this.executable = executable;
+    this.options = options;
+    this.processes = processes;
+    this.baseDir = baseDir;
+    this.cacheDir = cacheDir;
+  }
+
+  /**
+   * Checks the given files and gives the messages of their results to the handler from the calling thread, file
+   * after file in the given order, whatever the order in which processes complete.
+   */
+  void run(List<InputFile> files, final CppcheckXmlParser.Backend backend, final Predicate<String> ruleFilter, CppcheckXmlParser.MessageHandler handler) {
+    if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+      throw new SonarException("Unable to create the directory of Cppcheck results: " + cacheDir);
+    }
+    Set<String> results = Sets.newHashSet();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(processes, files.size())));
+    try {
+      List<Future<File>> futures = Lists.newArrayList();
+      for (final InputFile file : files) {
+        futures.add(executor.submit(new Callable<File>() {
+          @Override
+          public File call() throws IOException, InterruptedException {
+            return check(file);
+          }
+        }));
+      }
+      for (Future<File> future : futures) {
+        File result = get(future);
+        results.add(result.getName());
+        CppcheckXmlParser.parse(result, backend, ruleFilter, handler);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    // results of the files which are no longer analysed
+    for (File result : listResults()) {
+      if (!results.contains(result.getName())) {
+        result.delete();
+      }
+    }
+  }
+
+  int getHits() {
+    return hits.get();
+  }
+
+  int getMisses() {
+    return misses.get();
+  }
+
+  void logStatistics() {
+    int total = hits.get() + misses.get();
+    if (total > 0) {
+      LOG.info("Cppcheck run on {} file(s), results of {} unchanged file(s) reused", misses.get(), hits.get());
+    }
+  }
+
+  /**
+   * Result of the given file, from the cache or from a new run of Cppcheck.
+   */
+  private File check(InputFile file) throws IOException, InterruptedException {
+    List<String> command = Lists.newArrayList();
+    command.add(executable.getAbsolutePath());
+    command.addAll(options);
+    command.add("--xml");
+    command.add("--xml-version=2");
+    command.add(file.relativePath());
+    File result = new File(cacheDir, key(command, file.file()) + RESULT_SUFFIX);
+    if (result.isFile()) {
+      hits.incrementAndGet();
+      return result;
+    }
+    misses.incrementAndGet();
+    File errors = File.createTempFile("cppcheck", RESULT_SUFFIX + ".tmp", cacheDir);
+    File output = File.createTempFile("cppcheck", ".out", cacheDir);
+    try {
+      // Cppcheck writes its XML result to the error output, and its progress to the standard output
+      Process process = new ProcessBuilder(command)
+        .directory(baseDir)
+        .redirectOutput(output)
+        .redirectError(errors)
+        .start();
+      int exitCode;
+      try {
+        exitCode = process.waitFor();
+      } finally {
+        process.destroy();
+      }
+      if (exitCode != 0) {
+        throw new SonarException("Cppcheck failed with exit code " + exitCode + " on " + file.relativePath() + ": " + Joiner.on(' ').join(command));
+      }
+      if (!errors.renameTo(result)) {
+        throw new IOException("Unable to write the Cppcheck result of " + file.relativePath() + ": " + result);
+      }
+      return result;
+    } finally {
+      errors.delete();
+      output.delete();
+    }
+  }
+
+  /**
+   * SHA-1 of the command line, which holds the path of the file, of the version of the executable and of the content
+   * of the file.
+   */
+  private String key(List<String> command, File file) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw Throwables.propagate(e);
+    }
+    digest.update(Joiner.on('\0').join(command).getBytes(Charsets.UTF_8));
+    digest.update((executable.length() + "\0" + executable.lastModified() + "\0").getBytes(Charsets.UTF_8));
+    byte[] bytes = new byte[BUFFER_SIZE];
+    InputStream input = new FileInputStream(file);
+    try {
+      int read = input.read(bytes);
+      while (read >= 0) {
+        digest.update(bytes, 0, read);
+        read = input.read(bytes);
+      }
+    } finally {
+      Closeables.closeQuietly(input);
+    }
+    return Hex.encodeHexString(digest.digest());
+  }
+
+  private List<File> listResults() {
+    File[] files = cacheDir.listFiles();
+    if (files == null) {
+      return Collections.emptyList();
+    }
+    List<File> results = Lists.newArrayList();
+    for (File file : files) {
+      if (file.getName().endsWith(RESULT_SUFFIX)) {
+        results.add(file);
+      }
+    }
+    return results;
+  }
+
+  private static <T> T get(Future<T> result) {
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while running Cppcheck", e);
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+}
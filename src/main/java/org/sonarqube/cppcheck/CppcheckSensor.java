@@ -19,40 +19,74 @@
  */
 package org.sonarqube.cppcheck;
 
-import com.google.common.collect.Sets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonar.api.batch.Sensor;
 import org.sonar.api.batch.SensorContext;
 import org.sonar.api.batch.fs.FileSystem;
+import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.component.ResourcePerspectives;
 import org.sonar.api.issue.Issuable;
 import org.sonar.api.profiles.RulesProfile;
 import org.sonar.api.resources.Project;
 import org.sonar.api.resources.Resource;
+import org.sonar.api.rule.RuleKey;
 import org.sonar.api.rules.Rule;
 import org.sonar.api.rules.RuleFinder;
 
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 import java.io.File;
-import java.util.Collection;
-import java.util.Set;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 public class CppcheckSensor implements Sensor {
 
   private static final Logger LOG = LoggerFactory.getLogger(CppcheckSensor.class);
 
+  private static final String[] LANGUAGES = {"c", "cpp"};
+
+  /**
+   * Issue attribute listing the secondary locations of a message, one "file:line" per line, as SonarQube 4.5
+   * does not support multi-location issues.
+   */
+  static final String SECONDARY_LOCATIONS_ATTRIBUTE = "cppcheckLocations";
+
+  /**
+   * Maximum number of secondary locations and length of the attribute listing them, which is stored with the other
+   * attributes of the issue in a column of 4000 characters.
+   */
+  static final int MAX_SECONDARY_LOCATIONS = 50;
+  static final int MAX_SECONDARY_LOCATIONS_LENGTH = 2000;
+
+  /**
+   * Maximum number of issues kept while a report is streamed, in order to save the issues of a file together.
+   */
+  private static final int MAX_PENDING_ISSUES = 10000;
+
   private final CppcheckConfiguration configuration;
   private final RulesProfile profile;
   private final RuleFinder ruleFinder;
   private final FileSystem fileSystem;
   private final ResourcePerspectives resourcePerspectives;
+  private final CppcheckReportCache reportCache;
+  private CppcheckImportStats stats = new CppcheckImportStats();
+  // files of the module, by which the paths of secondary locations are resolved
+  @Nullable
+  private CppcheckPathIndex pathIndex;
 
-  public CppcheckSensor(CppcheckConfiguration configuration, RulesProfile profile, RuleFinder ruleFinder, FileSystem fileSystem, ResourcePerspectives resourcePerspectives) {
+  public CppcheckSensor(CppcheckConfiguration configuration, RulesProfile profile, RuleFinder ruleFinder, FileSystem fileSystem, ResourcePerspectives resourcePerspectives,
+    CppcheckReportCache reportCache) {
     this.configuration = configuration;
     this.profile = profile;
     this.ruleFinder = ruleFinder;
     this.fileSystem = fileSystem;
     this.resourcePerspectives = resourcePerspectives;
+    this.reportCache = reportCache;
   }
 
   private boolean hasRulesEnabledFor(String key) {
@@ -67,65 +101,475 @@ public class CppcheckSensor implements Sensor {
 
   @Override
   public void analyse(Project project, SensorContext context) {
-    File report = configuration.getCppcheckReportFile();
-    Collection<CppcheckXmlParser.Message> messages = CppcheckXmlParser.parse(report);
-    saveAll(project, context, "c", messages);
-    saveAll(project, context, "cpp", messages);
-  }
-
-  private void saveAll(Project project, SensorContext context, String language, Collection<CppcheckXmlParser.Message> messages) {
-    if (hasRulesEnabledFor(language)) {
-      Set<File> indexedFiles = Sets.newHashSet(fileSystem.files(fileSystem.predicates().hasLanguage(language)));
-      for (CppcheckXmlParser.Message message : messages) {
-        save(project, context, language, indexedFiles, message);
+    stats = new CppcheckImportStats();
+    File executable = configuration.getExecutable();
+    List<File> reports = executable == null ? configuration.getCppcheckReportFiles() : Collections.<File>emptyList();
+    stats.reports(reports);
+    long start = CppcheckImportStats.start();
+    CppcheckRuleTable rules = new CppcheckRuleTable(profile, ruleFinder, LANGUAGES);
+    stats.stop(CppcheckImportStats.Phase.RULES, start);
+    start = CppcheckImportStats.start();
+    File baselineFile = configuration.getBaselineFile();
+    CppcheckBaseline baseline = baselineFile == null ? CppcheckBaseline.EMPTY : CppcheckBaseline.load(baselineFile);
+    stats.stop(CppcheckImportStats.Phase.BASELINE, start);
+    ReportImport reportImport = new ReportImport(project, context, rules, baseline);
+    CppcheckReports.Options options = new CppcheckReports.Options(configuration.getReportThreads(), configuration.getXmlParser(),
+      configuration.isReportSplit(), configuration.isOffHeap(), configuration.isReportIndexed());
+    start = CppcheckImportStats.start();
+    if (executable != null) {
+      run(executable, options.getBackend(), rules, reportImport);
+    } else if (project.isModule()) {
+      // other modules are going to import the same report, so it is parsed only once for all of them
+      if (configuration.isPipelined() || configuration.getMemoryBudget() > 0) {
+        LOG.info("Cppcheck report is parsed once for all the modules, the pipelined import and the memory budget are ignored");
+      }
+      CppcheckReportCache.ParsedReport report = reportCache.get(reports, options, rules.ruleFilter());
+      reportImport.importAll(report);
+      dropSkipped(report.getFiltered(), report.getDuplicates());
+    } else {
+      long memoryBudget = configuration.getMemoryBudget();
+      CppcheckMessageSorter sorter = memoryBudget > 0 ? new CppcheckMessageSorter(new File(fileSystem.workDir(), "cppcheck"), memoryBudget) : null;
+      CppcheckDeduplicator deduplicator = new CppcheckDeduplicator(sorter == null ? reportImport : sorter);
+      CppcheckRuleTable.CountingFilter ruleFilter = new CppcheckRuleTable.CountingFilter(rules.ruleFilter());
+      try {
+        if (configuration.isPipelined()) {
+          CppcheckReports.parsePipelined(reports, options, ruleFilter, deduplicator);
+        } else {
+          CppcheckReports.parse(reports, options, ruleFilter, deduplicator);
+        }
+        if (sorter != null) {
+          reportImport.importSorted(sorter);
+        }
+      } finally {
+        if (sorter != null) {
+          sorter.close();
+        }
       }
+      reportImport.flush();
+      deduplicator.logDuplicates();
+      dropSkipped(ruleFilter.getRejected(), deduplicator.getDuplicates());
     }
+    stats.stop(CppcheckImportStats.Phase.PARSE, start);
+    rules.logUnknownRules();
+    stats.log();
+    if (configuration.isStatsExported()) {
+      stats.write(fileSystem.workDir());
+    }
+  }
+
+  /**
+   * Runs Cppcheck on the files of the module whose language has active rules, and imports its messages.
+   */
+  private void run(File executable, CppcheckXmlParser.Backend backend, CppcheckRuleTable rules, ReportImport reportImport) {
+    CppcheckRunner runner = new CppcheckRunner(executable, configuration.getOptions(), configuration.getProcesses(), fileSystem.baseDir(),
+      new File(fileSystem.workDir(), "cppcheck/results"));
+    List<InputFile> files = Lists.newArrayList(fileSystem.inputFiles(fileSystem.predicates().hasLanguages(reportImport.languages)));
+    // headers included by several files give the same messages
+    CppcheckDeduplicator deduplicator = new CppcheckDeduplicator(reportImport);
+    CppcheckRuleTable.CountingFilter ruleFilter = new CppcheckRuleTable.CountingFilter(rules.ruleFilter());
+    runner.run(files, backend, ruleFilter, deduplicator);
+    reportImport.flush();
+    runner.logStatistics();
+    deduplicator.logDuplicates();
+    dropSkipped(ruleFilter.getRejected(), deduplicator.getDuplicates());
   }
 
-  private Rule getRule(String key, String id) {
-    return ruleFinder.findByKey(CppcheckRuleRepository.repositoryKeyForLanguage(key), id);
+  /**
+   * Accounts for the messages which are parsed but do not reach the import: those of rules active in no language,
+   * which the parser skips, and the duplicates.
+   */
+  private void dropSkipped(long filtered, long duplicates) {
+    stats.messages(filtered + duplicates);
+    stats.drop(CppcheckImportStats.Drop.INACTIVE_RULE, filtered);
+    stats.drop(CppcheckImportStats.Drop.DUPLICATE, duplicates);
   }
 
-  private void save(Project project, SensorContext context, String language, Set<File> indexedFiles, CppcheckXmlParser.Message message) {
-    Rule rule = getRule(language, message.getId());
-    if (rule == null) {
-      LOG.warn("No such rule in Sonar, so issue from Cppcheck will be ignored: {}", message.getId());
-      return;
+  private class ReportImport implements CppcheckXmlParser.MessageHandler {
+
+    private final Project project;
+    private final SensorContext context;
+    private final CppcheckRuleTable rules;
+    private final CppcheckBaseline baseline;
+    private final List<String> languages = Lists.newArrayList();
+    // resolution of the files of the report, null for those which are not analysed
+    private final Map<String, ImportedFile> filesByName = Maps.newHashMap();
+    // reason why files of the report are not analysed
+    private final Map<String, CppcheckImportStats.Drop> unresolvedFiles = Maps.newHashMap();
+    // issues of streamed messages, not saved yet
+    private final Map<ImportedFile, IssueBatch> pendingBatches = Maps.newLinkedHashMap();
+    private int pendingIssues = 0;
+    // whether streamed messages come file after file
+    private boolean groupedByFile = false;
+    @Nullable
+    private String lastFilename;
+    @Nullable
+    private ImportedFile lastFile;
+
+    ReportImport(Project project, SensorContext context, CppcheckRuleTable rules, CppcheckBaseline baseline) {
+      this.project = project;
+      this.context = context;
+      this.rules = rules;
+      this.baseline = baseline;
+      for (String language : LANGUAGES) {
+        if (rules.hasActiveRules(language)) {
+          languages.add(language);
+        }
+      }
+      long start = CppcheckImportStats.start();
+      pathIndex = new CppcheckPathIndex(fileSystem.baseDir(), fileSystem.inputFiles(fileSystem.predicates().hasLanguages(languages)));
+      stats.stop(CppcheckImportStats.Phase.INDEX, start);
     }
-    final Resource resource;
-    if (message.getFilename() == null) {
-      resource = project;
-    } else {
-      File file = new File(message.getFilename()).getAbsoluteFile();
-      if (!indexedFiles.contains(file)) {
+
+    @Override
+    public void onMessage(CppcheckXmlParser.Message message) {
+      stats.messages(1);
+      if (baseline.contains(message)) {
+        stats.drop(CppcheckImportStats.Drop.BASELINE);
+        return;
+      }
+      String filename = message.getFilename();
+      if (filename == null) {
+        importProjectMessage(message);
         return;
       }
-      resource = org.sonar.api.resources.File.fromIOFile(file, project);
-      if (!context.isIndexed(resource, false)) {
-        LOG.warn("File not analysed by Sonar, so issue from Cppcheck will be ignored: {}", file);
+      ImportedFile file = resolve(filename);
+      if (file != null) {
+        importMessage(file, message);
+      } else {
+        stats.drop(unresolvedFiles.get(filename));
+      }
+    }
+
+    /**
+     * Imports messages sorted by file, the issues of a file being saved as soon as its last message is imported.
+     */
+    void importSorted(CppcheckMessageSorter sorter) {
+      groupedByFile = true;
+      sorter.replay(this);
+    }
+
+    void importAll(CppcheckReportCache.ParsedReport report) {
+      CppcheckFindingStore store = report.getStore();
+      if (store != null) {
+        importAll(store);
         return;
       }
+      for (CppcheckXmlParser.Message message : withoutBaseline(report.projectMessages())) {
+        stats.messages(1);
+        importProjectMessage(message);
+      }
+      for (String filename : report.filenames()) {
+        List<CppcheckXmlParser.Message> messages = withoutBaseline(report.messagesOf(filename));
+        if (messages.isEmpty()) {
+          continue;
+        }
+        ImportedFile file = resolve(filename, messages);
+        if (file != null) {
+          IssueBatch batch = new IssueBatch();
+          for (CppcheckXmlParser.Message message : messages) {
+            Rule rule = rule(file.inputFile.language(), message.getId());
+            if (rule != null) {
+              batch.add(rule, message);
+            }
+          }
+          timedSave(file.resource, batch);
+        }
+      }
+    }
+
+    /**
+     * Imports the messages of an off-heap store, reading them with a cursor so that messages of files are not created,
+     * and building their issues from the cursor with the key of their rule.
+     */
+    private void importAll(CppcheckFindingStore store) {
+      CppcheckFindingStore.Cursor projectCursor = store.cursor(null);
+      while (projectCursor.next()) {
+        onMessage(projectCursor.toMessage());
+      }
+      for (String filename : store.files()) {
+        long start = CppcheckImportStats.start();
+        CppcheckFindingStore.Cursor cursor = store.cursor(filename);
+        ImportedFile file = null;
+        boolean resolved = false;
+        Issuable issuable = null;
+        int issues = 0;
+        while (cursor.next()) {
+          stats.messages(1);
+          String id = cursor.getId();
+          String msg = cursor.getMsg();
+          if (baseline.contains(id, cursor.getFilename(), cursor.getLine(), msg)) {
+            stats.drop(CppcheckImportStats.Drop.BASELINE);
+            continue;
+          }
+          if (!resolved) {
+            file = resolve(filename);
+            resolved = true;
+          }
+          if (file == null) {
+            stats.drop(unresolvedFiles.get(filename));
+            continue;
+          }
+          Rule rule = rule(file.inputFile.language(), id);
+          if (rule == null) {
+            continue;
+          }
+          if (issues == 0) {
+            issuable = resourcePerspectives.as(Issuable.class, file.resource);
+          }
+          issues++;
+          if (issuable != null) {
+            addIssue(issuable, rule.ruleKey(), cursor.getLine(), msg, formatSecondaryLocations(cursor.getSecondaryLocations()));
+          }
+        }
+        if (issues > 0 && issuable == null) {
+          stats.drop(CppcheckImportStats.Drop.NO_ISSUABLE, issues);
+        }
+        // messages of a file are read and saved together, so they are timed together
+        stats.stop(CppcheckImportStats.Phase.SAVE, start);
+      }
+    }
+
+    /**
+     * Messages which are not in the baseline, the others being counted as parsed and dropped.
+     */
+    private List<CppcheckXmlParser.Message> withoutBaseline(List<CppcheckXmlParser.Message> messages) {
+      if (baseline.isEmpty()) {
+        return messages;
+      }
+      List<CppcheckXmlParser.Message> kept = Lists.newArrayListWithCapacity(messages.size());
+      for (CppcheckXmlParser.Message message : messages) {
+        if (baseline.contains(message)) {
+          stats.messages(1);
+          stats.drop(CppcheckImportStats.Drop.BASELINE);
+        } else {
+          kept.add(message);
+        }
+      }
+      return kept;
+    }
+
+    @CheckForNull
+    private ImportedFile resolve(String filename, List<CppcheckXmlParser.Message> messages) {
+      stats.messages(messages.size());
+      ImportedFile file = resolve(filename);
+      if (file == null) {
+        stats.drop(unresolvedFiles.get(filename), messages.size());
+      }
+      return file;
+    }
+
+    private void importProjectMessage(CppcheckXmlParser.Message message) {
+      boolean imported = false;
+      boolean known = false;
+      for (String language : languages) {
+        Rule rule = rules.get(language, message.getId());
+        if (rule != null) {
+          timedSave(project, rule, message);
+          imported = true;
+        } else {
+          known |= rules.isKnown(language, message.getId());
+        }
+      }
+      // a message is dropped once, whatever the number of languages without its rule
+      if (!imported) {
+        stats.drop(known ? CppcheckImportStats.Drop.INACTIVE_RULE : CppcheckImportStats.Drop.UNKNOWN_RULE);
+      }
+    }
+
+    private void importMessage(ImportedFile file, CppcheckXmlParser.Message message) {
+      Rule rule = rule(file.inputFile.language(), message.getId());
+      if (rule != null) {
+        IssueBatch batch = pendingBatches.get(file);
+        if (batch == null) {
+          if (groupedByFile) {
+            // all the messages of the pending file have been imported
+            flush();
+          }
+          batch = new IssueBatch();
+          pendingBatches.put(file, batch);
+        }
+        batch.add(rule, message);
+        pendingIssues++;
+        if (pendingIssues >= MAX_PENDING_ISSUES) {
+          flush();
+        }
+      }
+    }
+
+    /**
+     * Saves the pending issues of streamed messages, grouped by file.
+     */
+    void flush() {
+      for (Map.Entry<ImportedFile, IssueBatch> entry : pendingBatches.entrySet()) {
+        timedSave(entry.getKey().resource, entry.getValue());
+      }
+      pendingBatches.clear();
+      pendingIssues = 0;
     }
-    save(resource, rule, message);
+
+    @CheckForNull
+    private Rule rule(String language, String id) {
+      Rule rule = rules.get(language, id);
+      if (rule == null) {
+        stats.drop(rules.isKnown(language, id) ? CppcheckImportStats.Drop.INACTIVE_RULE : CppcheckImportStats.Drop.UNKNOWN_RULE);
+      }
+      return rule;
+    }
+
+    private void timedSave(Resource resource, Rule rule, CppcheckXmlParser.Message message) {
+      long start = CppcheckImportStats.start();
+      save(resource, rule, message);
+      stats.stop(CppcheckImportStats.Phase.SAVE, start);
+    }
+
+    private void timedSave(Resource resource, IssueBatch batch) {
+      if (!batch.rules.isEmpty()) {
+        long start = CppcheckImportStats.start();
+        save(resource, batch.rules, batch.messages);
+        stats.stop(CppcheckImportStats.Phase.SAVE, start);
+      }
+    }
+
+    @CheckForNull
+    private ImportedFile resolve(String filename) {
+      // messages of a same file usually follow each other
+      if (filename.equals(lastFilename)) {
+        return lastFile;
+      }
+      lastFilename = filename;
+      if (filesByName.containsKey(filename)) {
+        lastFile = filesByName.get(filename);
+        return lastFile;
+      }
+      long start = CppcheckImportStats.start();
+      ImportedFile file = null;
+      InputFile inputFile = pathIndex.resolve(filename);
+      if (inputFile == null) {
+        unresolvedFiles.put(filename, CppcheckImportStats.Drop.UNINDEXED_FILE);
+      } else {
+        Resource resource = context.getResource(inputFile);
+        if (resource != null) {
+          file = new ImportedFile(inputFile, resource);
+        } else {
+          LOG.warn("File not analysed by Sonar, so issue from Cppcheck will be ignored: {}", inputFile.file());
+          unresolvedFiles.put(filename, CppcheckImportStats.Drop.NOT_ANALYSED_FILE);
+        }
+      }
+      filesByName.put(filename, file);
+      lastFile = file;
+      stats.stop(CppcheckImportStats.Phase.RESOLVE, start);
+      return file;
+    }
+
+  }
+
+  private static class ImportedFile {
+
+    private final InputFile inputFile;
+    private final Resource resource;
+
+    ImportedFile(InputFile inputFile, Resource resource) {
+      this.inputFile = inputFile;
+      this.resource = resource;
+    }
+
+  }
+
+  /**
+   * Messages of a same file and their rules, saved together.
+   */
+  private static class IssueBatch {
+
+    private final List<Rule> rules = Lists.newArrayList();
+    private final List<CppcheckXmlParser.Message> messages = Lists.newArrayList();
+
+    void add(Rule rule, CppcheckXmlParser.Message message) {
+      rules.add(rule);
+      messages.add(message);
+    }
+
   }
 
   void save(Resource resource, Rule rule, CppcheckXmlParser.Message message) {
+    save(resource, Collections.singletonList(rule), Collections.singletonList(message));
+  }
+
+  /**
+   * Saves the issues of the given messages, with their respective rules, on a resource whose Issuable is
+   * looked up once for all of them.
+   */
+  void save(Resource resource, List<Rule> rules, List<CppcheckXmlParser.Message> messages) {
+    Issuable issuable = issuable(resource, messages.size());
+    if (issuable != null) {
+      for (int i = 0; i < messages.size(); i++) {
+        CppcheckXmlParser.Message message = messages.get(i);
+        addIssue(issuable, rules.get(i).ruleKey(), message.getLine(), message.getMsg(), formatSecondaryLocations(message));
+      }
+    }
+  }
+
+  @CheckForNull
+  private Issuable issuable(Resource resource, int issues) {
     Issuable issuable = resourcePerspectives.as(Issuable.class, resource);
     if (issuable == null) {
-      return;
+      stats.drop(CppcheckImportStats.Drop.NO_ISSUABLE, issues);
     }
+    return issuable;
+  }
+
+  private void addIssue(Issuable issuable, RuleKey ruleKey, int line, String message, @Nullable String secondaryLocations) {
+    stats.issue(StringUtils.removeEnd(ruleKey.repository(), "-" + CppcheckRuleRepository.REPOSITORY_KEY));
     Issuable.IssueBuilder issue = issuable.newIssueBuilder()
-      .ruleKey(rule.ruleKey())
-      .message(message.getMsg());
-    if (message.getLine() != null) {
-      int line = Integer.parseInt(message.getLine());
-      if (line != 0) {
-        issue.line(line);
-      }
+      .ruleKey(ruleKey)
+      .message(message);
+    if (line != 0) {
+      issue.line(line);
+    }
+    if (secondaryLocations != null) {
+      issue.attribute(SECONDARY_LOCATIONS_ATTRIBUTE, secondaryLocations);
     }
     issuable.addIssue(issue.build());
   }
 
+  @CheckForNull
+  private String formatSecondaryLocations(CppcheckXmlParser.Message message) {
+    return formatSecondaryLocations(message.getSecondaryLocations());
+  }
+
+  /**
+   * Secondary locations with the paths of the files of the module relative to the project, the others being kept as
+   * written in the report. Locations beyond {@link #MAX_SECONDARY_LOCATIONS} or {@link #MAX_SECONDARY_LOCATIONS_LENGTH}
+   * are replaced by a last line giving their number.
+   */
+  @CheckForNull
+  private String formatSecondaryLocations(@Nullable CppcheckXmlParser.Locations locations) {
+    if (locations == null) {
+      return null;
+    }
+    StringBuilder sb = new StringBuilder();
+    int formatted = 0;
+    for (; formatted < locations.size() && formatted < MAX_SECONDARY_LOCATIONS; formatted++) {
+      String location = path(locations.getFilename(formatted)) + ':' + locations.getLine(formatted);
+      // room is kept for the line of the truncated locations
+      if (sb.length() + 1 + location.length() > MAX_SECONDARY_LOCATIONS_LENGTH - 32) {
+        break;
+      }
+      if (formatted > 0) {
+        sb.append('\n');
+      }
+      sb.append(location);
+    }
+    if (formatted < locations.size()) {
+      sb.append(formatted > 0 ? "\n" : "").append("... ").append(locations.size() - formatted).append(" more location(s)");
+    }
+    return sb.toString();
+  }
+
+  private String path(String filename) {
+    InputFile inputFile = pathIndex == null ? null : pathIndex.resolve(filename);
+    return inputFile == null ? filename : inputFile.relativePath();
+  }
+
   @Override
   public String toString() {
     return "Cppcheck";
@@ -19,8 +19,15 @@
  */
 package org.sonarqube.cppcheck;
 
+import com.ctc.wstx.stax.WstxInputFactory;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.io.Closeables;
+import org.apache.commons.lang.StringUtils;
 import org.codehaus.staxmate.in.SMHierarchicCursor;
 import org.codehaus.staxmate.in.SMInputCursor;
 import org.slf4j.Logger;
@@ -28,50 +35,130 @@ import org.slf4j.LoggerFactory;
 import org.sonar.api.utils.SonarException;
 import org.sonar.api.utils.StaxParser;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 import javax.annotation.WillClose;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 public final class CppcheckXmlParser implements StaxParser.XmlStreamHandler {
 
   private static final Logger LOG = LoggerFactory.getLogger(CppcheckXmlParser.class);
 
-  private CppcheckXmlParser() {
+  private CppcheckXmlParser(Predicate<String> ruleFilter, MessageHandler handler) {
+    this.ruleFilter = ruleFilter;
+    this.handler = handler;
   }
 
+  /**
+   * Implementations of the parsing of a report, which give the same messages.
+   */
+  public enum Backend {
+
+    /**
+     * StaxMate cursors of the SonarQube API, which look attributes up by name.
+     */
+    STAXMATE {
+      @Override
+      void parse(InputStream is, Predicate<String> ruleFilter, MessageHandler handler) throws XMLStreamException {
+        new StaxParser(new CppcheckXmlParser(ruleFilter, handler)).parse(is);
+      }
+    },
+
+    /**
+     * A bare {@link XMLStreamReader} created by a shared factory, which reads all the attributes of an element
+     * in a single pass over their indexes.
+     */
+    STAX {
+      @Override
+      void parse(InputStream is, Predicate<String> ruleFilter, MessageHandler handler) throws XMLStreamException {
+        new CppcheckXmlParser(ruleFilter, handler).read(is);
+      }
+    };
+
+    abstract void parse(InputStream is, Predicate<String> ruleFilter, MessageHandler handler) throws XMLStreamException;
+
+  }
+
+  /**
+   * Severities of Cppcheck errors. {@link #NONE} is used when the severity is missing or unknown.
+   */
+  public enum Severity {
+    NONE, ERROR, WARNING, STYLE, PERFORMANCE, PORTABILITY, INFORMATION, DEBUG;
+
+    public static Severity fromName(@Nullable String name) {
+      if (name != null) {
+        for (Severity severity : values()) {
+          if (severity.name().equalsIgnoreCase(name)) {
+            return severity;
+          }
+        }
+      }
+      return NONE;
+    }
+
+  }
+
+  /**
+   * An error of a report. Ids and file names are shared between the messages of a report, and the verbose
+   * description is not stored when it is the same as the short one, which is the case of most errors. Descriptions
+   * are null when the report does not have them.
+   */
   public static class Message {
 
     @Nullable
     private final String replacement;
 
     private final String id;
-    private final String severity;
+    private final Severity severity;
+    @Nullable
     private final String msg;
+    // null when it is the same as the short description
+    @Nullable
     private final String verbose;
+    private final boolean verboseOfMsg;
+    @Nullable
     private final String filename;
-    private final String line;
+    private final int line;
+    @Nullable
+    private final Locations secondaryLocations;
 
-    public Message(@Nullable String replacement, String id, String severity, String msg, String verbose) {
+    public Message(@Nullable String replacement, String id, Severity severity, @Nullable String msg, @Nullable String verbose) {
       this.replacement = replacement;
       this.id = id;
       this.severity = severity;
       this.msg = msg;
-      this.verbose = verbose;
+      this.verboseOfMsg = verbose != null && verbose.equals(msg);
+      this.verbose = verboseOfMsg ? null : verbose;
       this.filename = null;
-      this.line = null;
+      this.line = 0;
+      this.secondaryLocations = null;
     }
 
-    public Message(String id, String severity, String msg, String verbose, @Nullable String filename, @Nullable String line) {
+    public Message(String id, Severity severity, @Nullable String msg, @Nullable String verbose, @Nullable String filename, int line) {
+      this(id, severity, msg, verbose, filename, line, null);
+    }
+
+    public Message(String id, Severity severity, @Nullable String msg, @Nullable String verbose, @Nullable String filename, int line,
+      @Nullable Locations secondaryLocations) {
       this.replacement = null;
       this.id = id;
       this.severity = severity;
       this.msg = msg;
-      this.verbose = verbose;
+      this.verboseOfMsg = verbose != null && verbose.equals(msg);
+      this.verbose = verboseOfMsg ? null : verbose;
       this.filename = filename;
       this.line = line;
+      this.secondaryLocations = secondaryLocations;
     }
 
     @Nullable
@@ -83,16 +170,25 @@ public final class CppcheckXmlParser implements StaxParser.XmlStreamHandler {
       return id;
     }
 
-    public String getSeverity() {
+    public Severity getSeverity() {
       return severity;
     }
 
+    @CheckForNull
     public String getMsg() {
       return msg;
     }
 
+    @CheckForNull
     public String getVerbose() {
-      return verbose;
+      return verboseOfMsg ? msg : verbose;
+    }
+
+    /**
+     * Whether the verbose description is the same as the short one, in which case it is not stored again.
+     */
+    boolean isVerboseOfMsg() {
+      return verboseOfMsg;
     }
 
     @Nullable
@@ -100,34 +196,134 @@ public final class CppcheckXmlParser implements StaxParser.XmlStreamHandler {
       return filename;
     }
 
-    @Nullable
-    public String getLine() {
+    /**
+     * Line of the first location, or 0 when unknown.
+     */
+    public int getLine() {
       return line;
     }
 
+    /**
+     * Locations following the first one, which describe the path leading to the error, or null when the
+     * error has a single location.
+     */
+    @CheckForNull
+    public Locations getSecondaryLocations() {
+      return secondaryLocations;
+    }
+
+  }
+
+  /**
+   * Files and lines of the locations of an error, stored in parallel arrays. File names are shared between
+   * all the messages of a report.
+   */
+  public static final class Locations {
+
+    private final String[] filenames;
+    private final int[] lines;
+
+    public Locations(String[] filenames, int[] lines) {
+      Preconditions.checkArgument(filenames.length == lines.length, "As many files as lines are expected");
+      this.filenames = filenames;
+      this.lines = lines;
+    }
+
+    public int size() {
+      return lines.length;
+    }
+
+    public String getFilename(int index) {
+      return filenames[index];
+    }
+
+    /**
+     * Line of the location, or 0 when unknown.
+     */
+    public int getLine(int index) {
+      return lines[index];
+    }
+
+  }
+
+  /**
+   * Receives the messages of a report one by one, in document order, while it is being parsed.
+   */
+  public interface MessageHandler {
+
+    void onMessage(Message message);
+
+  }
+
+  private static class CollectingHandler implements MessageHandler {
+
+    private final ImmutableList.Builder<Message> result = ImmutableList.builder();
+
+    @Override
+    public void onMessage(Message message) {
+      result.add(message);
+    }
+
   }
 
   public static Collection<Message> parse(@WillClose InputStream is) throws XMLStreamException {
-    CppcheckXmlParser handler = new CppcheckXmlParser();
+    CollectingHandler collector = new CollectingHandler();
+    parse(is, collector);
+    return collector.result.build();
+  }
+
+  public static void parse(@WillClose InputStream is, MessageHandler handler) throws XMLStreamException {
     try {
-      new StaxParser(handler).parse(is);
+      new StaxParser(new CppcheckXmlParser(Predicates.<String>alwaysTrue(), handler)).parse(is);
     } finally {
       Closeables.closeQuietly(is);
     }
-    return handler.result.build();
   }
 
   public static Collection<Message> parse(File file) {
-    CppcheckXmlParser handler = new CppcheckXmlParser();
+    CollectingHandler collector = new CollectingHandler();
+    parse(file, collector);
+    return collector.result.build();
+  }
+
+  /**
+   * Streams the messages of the given report, possibly gzip-compressed, to the handler, without keeping them in memory.
+   */
+  public static void parse(File file, MessageHandler handler) {
+    parse(file, Predicates.<String>alwaysTrue(), handler);
+  }
+
+  /**
+   * Same as {@link #parse(File, MessageHandler)}, but errors whose id is not accepted by the filter are
+   * skipped without being decoded.
+   */
+  public static void parse(File file, Predicate<String> ruleFilter, MessageHandler handler) {
+    parse(file, Backend.STAXMATE, ruleFilter, handler);
+  }
+
+  /**
+   * Same as {@link #parse(File, Predicate, MessageHandler)}, with the given implementation of the parsing.
+   */
+  public static void parse(File file, Backend backend, Predicate<String> ruleFilter, MessageHandler handler) {
+    InputStream is = null;
     try {
-      new StaxParser(handler).parse(file);
-    } catch (XMLStreamException e) {
+      is = CppcheckReportInput.open(file);
+      backend.parse(is, ruleFilter, handler);
+    } catch (IOException | XMLStreamException e) {
       throw new SonarException("Unable to parse file: " + file, e);
+    } finally {
+      Closeables.closeQuietly(is);
     }
-    return handler.result.build();
   }
 
-  private final ImmutableList.Builder<Message> result = ImmutableList.builder();
+  private static final XMLInputFactory STAX_FACTORY = createStaxFactory();
+
+  private final Predicate<String> ruleFilter;
+  private final MessageHandler handler;
+  // ids and file names, which are repeated from one error to the other
+  private final Map<String, String> symbols = Maps.newHashMap();
+  private final List<String> secondaryFilenames = Lists.newArrayList();
+  private final List<Integer> secondaryLines = Lists.newArrayList();
 
   @Override
   public void stream(SMHierarchicCursor rootCursor) throws XMLStreamException {
@@ -153,7 +349,12 @@ public final class CppcheckXmlParser implements StaxParser.XmlStreamHandler {
   private void loopOnErrors(SMInputCursor error) throws XMLStreamException {
     while (error.getNext() != null) {
       String id = error.getAttrValue("id");
-      String severity = error.getAttrValue("severity");
+      if (!ruleFilter.apply(id)) {
+        // remaining attributes and nested locations are skipped by the next call to getNext()
+        continue;
+      }
+      id = intern(id);
+      Severity severity = Severity.fromName(error.getAttrValue("severity"));
       String msg = error.getAttrValue("msg");
       String verbose = error.getAttrValue("verbose");
 
@@ -161,13 +362,218 @@ public final class CppcheckXmlParser implements StaxParser.XmlStreamHandler {
 
       SMInputCursor location = error.childElementCursor("location");
       if (location.getNext() != null) {
-        String filename = location.getAttrValue("file");
-        String line = location.getAttrValue("line");
-        result.add(new Message(id, severity, msg, verbose, filename, line));
+        String filename = intern(location.getAttrValue("file"));
+        int line = parseLine(location.getAttrValue("line"));
+        handler.onMessage(new Message(id, severity, msg, verbose, filename, line, secondaryLocations(location)));
       } else {
-        result.add(new Message(replacement, id, severity, msg, verbose));
+        handler.onMessage(new Message(replacement, id, severity, msg, verbose));
       }
     }
   }
 
+  @CheckForNull
+  private Locations secondaryLocations(SMInputCursor location) throws XMLStreamException {
+    while (location.getNext() != null) {
+      addSecondaryLocation(location.getAttrValue("file"), location.getAttrValue("line"));
+    }
+    return secondaryLocations();
+  }
+
+  private void addSecondaryLocation(@Nullable String file, @Nullable String line) {
+    String filename = intern(file);
+    secondaryFilenames.add(filename == null ? "" : filename);
+    secondaryLines.add(parseLine(line));
+  }
+
+  @CheckForNull
+  private Locations secondaryLocations() {
+    if (secondaryLines.isEmpty()) {
+      return null;
+    }
+    String[] files = secondaryFilenames.toArray(new String[secondaryFilenames.size()]);
+    int[] lines = new int[secondaryLines.size()];
+    for (int i = 0; i < lines.length; i++) {
+      lines[i] = secondaryLines.get(i);
+    }
+    secondaryFilenames.clear();
+    secondaryLines.clear();
+    return new Locations(files, lines);
+  }
+
+  /**
+   * Same as {@link #stream(SMHierarchicCursor)}, directly on the events of the reader.
+   */
+  private void read(InputStream is) throws XMLStreamException {
+    XMLStreamReader reader = STAX_FACTORY.createXMLStreamReader(is);
+    try {
+      while (reader.next() != XMLStreamConstants.START_ELEMENT) {
+        // prolog of the document
+      }
+      while (nextChildElement(reader)) {
+        String localName = reader.getLocalName();
+        if ("cppcheck".equals(localName)) {
+          String version = reader.getAttributeValue(null, "version");
+          if (version != null) {
+            LOG.info("Cppcheck version: " + version);
+          }
+          skipElement(reader);
+        } else if ("errors".equals(localName)) {
+          readErrors(reader);
+        } else {
+          throw new IllegalStateException("Unexpected cppcheck file format, unexpected xml element: " + localName);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  private void readErrors(XMLStreamReader reader) throws XMLStreamException {
+    while (nextChildElement(reader)) {
+      if ("error".equals(reader.getLocalName())) {
+        readError(reader);
+      } else {
+        skipElement(reader);
+      }
+    }
+  }
+
+  private void readError(XMLStreamReader reader) throws XMLStreamException {
+    String id = null;
+    String severity = null;
+    String msg = null;
+    String verbose = null;
+    String replacement = null;
+    for (int i = 0; i < reader.getAttributeCount(); i++) {
+      switch (reader.getAttributeLocalName(i)) {
+        case "id":
+          id = reader.getAttributeValue(i);
+          break;
+        case "severity":
+          severity = reader.getAttributeValue(i);
+          break;
+        case "msg":
+          msg = reader.getAttributeValue(i);
+          break;
+        case "verbose":
+          verbose = reader.getAttributeValue(i);
+          break;
+        case "SonarQube":
+          replacement = reader.getAttributeValue(i);
+          break;
+        default:
+          break;
+      }
+    }
+    if (!ruleFilter.apply(id)) {
+      skipElement(reader);
+      return;
+    }
+    id = intern(id);
+    boolean located = false;
+    String filename = null;
+    int line = 0;
+    while (nextChildElement(reader)) {
+      if ("location".equals(reader.getLocalName())) {
+        String file = reader.getAttributeValue(null, "file");
+        String lineValue = reader.getAttributeValue(null, "line");
+        if (located) {
+          addSecondaryLocation(file, lineValue);
+        } else {
+          located = true;
+          filename = intern(file);
+          line = parseLine(lineValue);
+        }
+      }
+      skipElement(reader);
+    }
+    if (located) {
+      handler.onMessage(new Message(id, Severity.fromName(severity), msg, verbose, filename, line, secondaryLocations()));
+    } else {
+      handler.onMessage(new Message(replacement, id, Severity.fromName(severity), msg, verbose));
+    }
+  }
+
+  /**
+   * Moves to the next child of the current element, skipping text and comments. Returns false, the reader being
+   * on the end of the current element, when there is no more child.
+   */
+  private static boolean nextChildElement(XMLStreamReader reader) throws XMLStreamException {
+    while (true) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        return true;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Moves from the start of an element to its end.
+   */
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+
+  /**
+   * Factory configured like the one of {@link StaxParser}, which is thread-safe once configured, so that it is
+   * created once instead of once per report.
+   */
+  private static XMLInputFactory createStaxFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    if (factory instanceof WstxInputFactory) {
+      ((WstxInputFactory) factory).configureForSpeed();
+      ((WstxInputFactory) factory).getConfig().setUndeclaredEntityResolver(new UndeclaredEntitiesResolver());
+    }
+    factory.setProperty(XMLInputFactory.IS_VALIDATING, false);
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+    return factory;
+  }
+
+  /**
+   * Resolves undeclared entities like {@link StaxParser}: the name of an entity "uXXXX" is replaced by the
+   * unicode character XXXX, and any other name is kept as is.
+   */
+  private static class UndeclaredEntitiesResolver implements XMLResolver {
+
+    @Override
+    public Object resolveEntity(String publicId, String systemId, String baseUri, String namespace) {
+      if (StringUtils.startsWithIgnoreCase(namespace, "u") && namespace.length() == 5) {
+        int unicode = Integer.parseInt(namespace.substring(1), 16);
+        if (Character.isDefined(unicode)) {
+          return new String(new char[] {(char) unicode});
+        }
+      }
+      return namespace;
+    }
+
+  }
+
+  private static int parseLine(@Nullable String line) {
+    return line == null ? 0 : Integer.parseInt(line);
+  }
+
+  @CheckForNull
+  private String intern(@Nullable String symbol) {
+    if (symbol == null) {
+      return null;
+    }
+    String interned = symbols.get(symbol);
+    if (interned == null) {
+      symbols.put(symbol, symbol);
+      interned = symbol;
+    }
+    return interned;
+  }
+
 }
@@ -0,0 +1,59 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import javax.annotation.Nullable;
+
+/**
+ * 64-bit fingerprints of messages, used to compare them without keeping their strings in memory.
+ * Strings are hashed with FNV-1a, preceded by their length so that consecutive fields cannot be confused.
+ */
+final class Fingerprints {
+
+  static final long SEED = 0xcbf29ce484222325L;
+  private static final long PRIME = 0x100000001b3L;
+
+  private Fingerprints() {
+  }
+
+  static long hash(long hash, @Nullable String value) {
+    if (value == null) {
+      return hash(hash, -1);
+    }
+    long h = hash(hash, value.length());
+    for (int i = 0; i < value.length(); i++) {
+      h = (h ^ value.charAt(i)) * PRIME;
+    }
+    return h;
+  }
+
+  static long hash(long hash, long value) {
+    return hash(hash(hash, (int) value), (int) (value >>> 32));
+  }
+
+  static long hash(long hash, int value) {
+    long h = hash;
+    for (int i = 0; i < 4; i++) {
+      h = (h ^ ((value >>> (8 * i)) & 0xff)) * PRIME;
+    }
+    return h;
+  }
+
+}
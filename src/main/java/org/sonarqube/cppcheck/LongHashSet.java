@@ -0,0 +1,111 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+/**
+ * Set of primitive longs with open addressing, which takes about 11 bytes per element instead of the
+ * 50 or more of a {@code HashSet<Long>}.
+ */
+final class LongHashSet {
+
+  private static final float LOAD_FACTOR = 0.75f;
+
+  private long[] slots;
+  // 0 marks free slots, so it is stored apart
+  private boolean containsZero;
+  private int size;
+
+  LongHashSet() {
+    this(16);
+  }
+
+  LongHashSet(int expectedSize) {
+    int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+    slots = new long[capacity];
+  }
+
+  /**
+   * @return true if the value was not already in the set
+   */
+  boolean add(long value) {
+    if (value == 0) {
+      boolean added = !containsZero;
+      containsZero = true;
+      if (added) {
+        size++;
+      }
+      return added;
+    }
+    int mask = slots.length - 1;
+    int index = mix(value) & mask;
+    while (slots[index] != 0) {
+      if (slots[index] == value) {
+        return false;
+      }
+      index = (index + 1) & mask;
+    }
+    slots[index] = value;
+    size++;
+    if (size > slots.length * LOAD_FACTOR) {
+      grow();
+    }
+    return true;
+  }
+
+  boolean contains(long value) {
+    if (value == 0) {
+      return containsZero;
+    }
+    int mask = slots.length - 1;
+    int index = mix(value) & mask;
+    while (slots[index] != 0) {
+      if (slots[index] == value) {
+        return true;
+      }
+      index = (index + 1) & mask;
+    }
+    return false;
+  }
+
+  int size() {
+    return size;
+  }
+
+  private void grow() {
+    long[] previous = slots;
+    slots = new long[previous.length * 2];
+    int mask = slots.length - 1;
+    for (long value : previous) {
+      if (value != 0) {
+        int index = mix(value) & mask;
+        while (slots[index] != 0) {
+          index = (index + 1) & mask;
+        }
+        slots[index] = value;
+      }
+    }
+  }
+
+  private static int mix(long value) {
+    long h = value * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only mappings of files, which are released without waiting for the garbage collector. Until then, a mapping
+ * keeps the address space of the file and, on Windows, prevents the file from being deleted or replaced.
+ */
+final class MappedFiles {
+
+  private MappedFiles() {
+  }
+
+  static ByteBuffer map(File file) throws IOException {
+    try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+      // the mapping stays valid once the file is closed
+      return input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+    }
+  }
+
+  /**
+   * Releases the mapping, or the memory of a direct buffer, which must not be read anymore by any thread: reading it
+   * afterwards crashes the JVM.
+   * Releasing is best effort, as it relies on internal APIs of the JVM; the mapping is left to the garbage collector
+   * when they are not available.
+   */
+  static void unmap(ByteBuffer mapping) {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner;
+      try {
+        invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      } catch (NoSuchMethodException e) {
+        // before Java 9, the buffer exposes its cleaner
+        Method cleanerMethod = mapping.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        Object cleaner = cleanerMethod.invoke(mapping);
+        cleaner.getClass().getMethod("clean").invoke(cleaner);
+        return;
+      }
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      invokeCleaner.invoke(theUnsafe.get(null), mapping);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // the mapping is released once collected
+    }
+  }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.utils.SonarException;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CppcheckBaselineTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void should_load_suppressions() {
+    CppcheckBaseline baseline = CppcheckBaseline.load(new File("src/test/resources/baseline/suppressions.txt"));
+    assertThat(baseline.size()).isEqualTo(5);
+
+    assertThat(baseline.contains(message("memleak", "src/memleak/bad.c", 8, "Memory leak: a"))).isTrue();
+    assertThat(baseline.contains(message("memleak", "src/memleak/bad.c", 9, "Memory leak: a"))).isFalse();
+    assertThat(baseline.contains(message("memleak", "src/memleak/other.c", 8, "Memory leak: a"))).isFalse();
+
+    assertThat(baseline.contains(message("erase", "src/erase/bad.cpp", 11, "Dangerous iterator usage"))).isTrue();
+    assertThat(baseline.contains(message("erase", "src\\erase\\bad.cpp", 12, "Dangerous iterator usage"))).isTrue();
+
+    assertThat(baseline.contains(message("nullPointer", "src/generated/parser/grammar.c", 3, "Null pointer"))).isTrue();
+    assertThat(baseline.contains(message("nullPointer", "src/parser/grammar.c", 3, "Null pointer"))).isFalse();
+
+    assertThat(baseline.contains(new CppcheckXmlParser.Message(null, "missingInclude", CppcheckXmlParser.Severity.INFORMATION, "Missing", null))).isTrue();
+    assertThat(baseline.contains(message("missingInclude", "src/a.c", 1, "Missing"))).isTrue();
+
+    assertThat(baseline.contains(message("resourceLeak", "src/resourceLeak/bad.c", 8, "Resource leak: a"))).isTrue();
+    assertThat(baseline.contains(message("resourceLeak", "src/resourceLeak/bad.c", 7, "Resource leak: a"))).isFalse();
+    assertThat(baseline.contains(message("resourceLeak", "src/resourceLeak/bad.cpp", 8, "Resource leak: a"))).isFalse();
+  }
+
+  @Test
+  public void should_read_line_of_suppression_after_colon_of_drive() throws Exception {
+    CppcheckBaseline baseline = CppcheckBaseline.load(write("memleak:C:/src/a.c:3\nmemleak:C:/src/b.c\n"));
+    assertThat(baseline.contains(message("memleak", "C:/src/a.c", 3, "Memory leak"))).isTrue();
+    assertThat(baseline.contains(message("memleak", "C:/src/a.c", 4, "Memory leak"))).isFalse();
+    assertThat(baseline.contains(message("memleak", "C:/src/b.c", 4, "Memory leak"))).isTrue();
+  }
+
+  @Test
+  public void should_load_previous_report() {
+    CppcheckBaseline baseline = CppcheckBaseline.load(new File("src/test/resources/cppcheck2.xml"));
+    assertThat(baseline.size()).isEqualTo(9);
+
+    // lines of accepted findings can move
+    assertThat(baseline.contains(message("memleak", "src/memleak/bad.c", 12, "Memory leak: a"))).isTrue();
+    assertThat(baseline.contains(message("memleak", "./src/memleak/bad.c", 8, "Memory leak: a"))).isTrue();
+    assertThat(baseline.contains(message("memleak", "src/memleak/bad.c", 8, "Memory leak: b"))).isFalse();
+    assertThat(baseline.contains(message("resourceLeak", "src/memleak/bad.c", 8, "Memory leak: a"))).isFalse();
+    assertThat(baseline.contains(new CppcheckXmlParser.Message(null, "missingInclude", CppcheckXmlParser.Severity.INFORMATION,
+      "Cppcheck cannot find all the include files (use --check-config for details)", null))).isTrue();
+  }
+
+  @Test
+  public void empty_baseline_should_contain_nothing() throws Exception {
+    assertThat(CppcheckBaseline.EMPTY.isEmpty()).isTrue();
+    assertThat(CppcheckBaseline.EMPTY.contains(message("memleak", "src/memleak/bad.c", 8, "Memory leak: a"))).isFalse();
+    assertThat(CppcheckBaseline.load(write("// nothing accepted yet\n\n")).isEmpty()).isTrue();
+  }
+
+  @Test
+  public void should_fail_on_malformed_report() throws Exception {
+    File report = write("<results><errors><error id=\"memleak\"</errors></results>");
+    thrown.expect(SonarException.class);
+    thrown.expectMessage("Unable to parse file: " + report);
+    CppcheckBaseline.load(report);
+  }
+
+  private File write(String content) throws IOException {
+    File file = temp.newFile();
+    FileUtils.write(file, content, "UTF-8");
+    return file;
+  }
+
+  private static CppcheckXmlParser.Message message(String id, String filename, int line, String msg) {
+    return new CppcheckXmlParser.Message(id, CppcheckXmlParser.Severity.ERROR, msg, null, filename, line);
+  }
+
+}
@@ -48,7 +48,7 @@ public class CppcheckConfigurationTest {
   public void should_check_for_missing_property() {
     thrown.expect(SonarException.class);
     thrown.expectMessage("Cppcheck report property found empty, you should run cppcheck externally and import its report using sonar.cppcheck.reportPath property, for more information see the plugin documentation.");
-    configuration.getCppcheckReportFile();
+    configuration.getCppcheckReportFiles();
   }
 
   @Test
@@ -57,14 +57,108 @@ public class CppcheckConfigurationTest {
     settings.setProperty(CppcheckConfiguration.CPPCHECK_REPORT_PATH_PROPERTY, reportPath);
     thrown.expect(SonarException.class);
     thrown.expectMessage("Cppcheck report is not found, please check property 'sonar.cppcheck.reportPath': not-existing");
-    configuration.getCppcheckReportFile();
+    configuration.getCppcheckReportFiles();
   }
 
   @Test
   public void should_return_path_to_cppcheck_report() {
     String reportPath = "src/test/resources/cppcheck2.xml";
     settings.setProperty(CppcheckConfiguration.CPPCHECK_REPORT_PATH_PROPERTY, reportPath);
-    assertThat(configuration.getCppcheckReportFile()).isEqualTo(new File(reportPath));
+    assertThat(configuration.getCppcheckReportFiles()).containsExactly(new File(reportPath));
+  }
+
+  @Test
+  public void should_return_paths_to_cppcheck_reports() {
+    settings.setProperty(CppcheckConfiguration.CPPCHECK_REPORT_PATH_PROPERTY, "src/test/resources/no-location.xml, src/test/resources/cppcheck2.xml");
+    assertThat(configuration.getCppcheckReportFiles()).containsExactly(
+      new File("src/test/resources/no-location.xml"), new File("src/test/resources/cppcheck2.xml"));
+  }
+
+  @Test
+  public void should_expand_wildcard_patterns() {
+    settings.setProperty(CppcheckConfiguration.CPPCHECK_REPORT_PATH_PROPERTY, "src/test/resources/*.xml");
+    assertThat(configuration.getCppcheckReportFiles()).containsExactly(
+      new File("src/test/resources/cppcheck2.xml"), new File("src/test/resources/duplicates.xml"), new File("src/test/resources/no-location.xml"));
+
+    settings.setProperty(CppcheckConfiguration.CPPCHECK_REPORT_PATH_PROPERTY, "src/**/no-*.xml");
+    assertThat(configuration.getCppcheckReportFiles()).containsExactly(new File("src/test/resources/no-location.xml"));
+  }
+
+  @Test
+  public void should_fail_when_pattern_matches_nothing() {
+    settings.setProperty(CppcheckConfiguration.CPPCHECK_REPORT_PATH_PROPERTY, "src/test/resources/*.txt");
+    thrown.expect(SonarException.class);
+    thrown.expectMessage("Cppcheck report is not found, please check property 'sonar.cppcheck.reportPath': src/test/resources/*.txt");
+    configuration.getCppcheckReportFiles();
+  }
+
+  @Test
+  public void should_default_report_threads_to_available_processors() {
+    assertThat(configuration.getReportThreads()).isEqualTo(Runtime.getRuntime().availableProcessors());
+    settings.setProperty(CppcheckConfiguration.CPPCHECK_REPORT_THREADS_PROPERTY, 3);
+    assertThat(configuration.getReportThreads()).isEqualTo(3);
+  }
+
+  @Test
+  public void should_return_memory_budget_in_bytes() {
+    assertThat(configuration.getMemoryBudget()).isEqualTo(0);
+    settings.setProperty(CppcheckConfiguration.CPPCHECK_MEMORY_BUDGET_PROPERTY, 256);
+    assertThat(configuration.getMemoryBudget()).isEqualTo(256L * 1024 * 1024);
+  }
+
+  @Test
+  public void should_return_baseline_file() {
+    assertThat(configuration.getBaselineFile()).isNull();
+    settings.setProperty(CppcheckConfiguration.CPPCHECK_BASELINE_PATH_PROPERTY, "src/test/resources/baseline/suppressions.txt");
+    assertThat(configuration.getBaselineFile()).isEqualTo(new File("src/test/resources/baseline/suppressions.txt"));
+  }
+
+  @Test
+  public void should_fail_when_baseline_is_not_found() {
+    settings.setProperty(CppcheckConfiguration.CPPCHECK_BASELINE_PATH_PROPERTY, "notfound.txt");
+    thrown.expect(SonarException.class);
+    thrown.expectMessage("Cppcheck baseline is not found, please check property 'sonar.cppcheck.baselinePath': notfound.txt");
+    configuration.getBaselineFile();
+  }
+
+  @Test
+  public void should_return_executable_and_its_options() {
+    assertThat(configuration.getExecutable()).isNull();
+    assertThat(configuration.getOptions()).isEmpty();
+    settings.setProperty(CppcheckConfiguration.CPPCHECK_EXECUTABLE_PROPERTY, "src/test/resources/runner/cppcheck.sh");
+    settings.setProperty(CppcheckConfiguration.CPPCHECK_OPTIONS_PROPERTY, " --enable=all  -I include ");
+    assertThat(configuration.getExecutable()).isEqualTo(new File("src/test/resources/runner/cppcheck.sh"));
+    assertThat(configuration.getOptions()).containsExactly("--enable=all", "-I", "include");
+  }
+
+  @Test
+  public void should_fail_when_executable_is_not_found() {
+    settings.setProperty(CppcheckConfiguration.CPPCHECK_EXECUTABLE_PROPERTY, "notfound");
+    thrown.expect(SonarException.class);
+    thrown.expectMessage("Cppcheck executable is not found, please check property 'sonar.cppcheck.executable': notfound");
+    configuration.getExecutable();
+  }
+
+  @Test
+  public void should_default_processes_to_available_processors() {
+    assertThat(configuration.getProcesses()).isEqualTo(Runtime.getRuntime().availableProcessors());
+    settings.setProperty(CppcheckConfiguration.CPPCHECK_PROCESSES_PROPERTY, 0);
+    assertThat(configuration.getProcesses()).isEqualTo(1);
+  }
+
+  @Test
+  public void should_default_xml_parser_to_staxmate() {
+    assertThat(configuration.getXmlParser()).isEqualTo(CppcheckXmlParser.Backend.STAXMATE);
+    settings.setProperty(CppcheckConfiguration.CPPCHECK_XML_PARSER_PROPERTY, "stax");
+    assertThat(configuration.getXmlParser()).isEqualTo(CppcheckXmlParser.Backend.STAX);
+  }
+
+  @Test
+  public void should_fail_on_unknown_xml_parser() {
+    settings.setProperty(CppcheckConfiguration.CPPCHECK_XML_PARSER_PROPERTY, "dom");
+    thrown.expect(SonarException.class);
+    thrown.expectMessage("Unknown XML parser in property 'sonar.cppcheck.xmlParser': dom, expected one of staxmate, stax");
+    configuration.getXmlParser();
   }
 
 }
@@ -0,0 +1,62 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CppcheckDeduplicatorTest {
+
+  @Test
+  public void should_ignore_duplicated_messages() {
+    final List<CppcheckXmlParser.Message> messages = Lists.newArrayList();
+    CppcheckDeduplicator deduplicator = new CppcheckDeduplicator(new CppcheckXmlParser.MessageHandler() {
+      @Override
+      public void onMessage(CppcheckXmlParser.Message message) {
+        messages.add(message);
+      }
+    });
+    CppcheckXmlParser.parse(new File("src/test/resources/duplicates.xml"), deduplicator);
+
+    assertThat(messages).onProperty("msg").containsExactly("Memory leak: a", "Null pointer dereference", "Memory leak: b", "Memory leak: a");
+    assertThat(messages).onProperty("line").containsExactly(8, 3, 8, 9);
+    assertThat(deduplicator.getDuplicates()).isEqualTo(2);
+  }
+
+  @Test
+  public void should_store_fingerprints_in_long_hash_set() {
+    LongHashSet set = new LongHashSet();
+    for (long i = -1000; i < 100000; i += 3) {
+      assertThat(set.add(i * 0x100000001L)).isTrue();
+    }
+    for (long i = -1000; i < 100000; i++) {
+      assertThat(set.contains(i * 0x100000001L)).isEqualTo((i + 1000) % 3 == 0);
+    }
+    assertThat(set.add(0)).isTrue();
+    assertThat(set.add(0)).isFalse();
+    assertThat(set.size()).isEqualTo(33668);
+  }
+
+}
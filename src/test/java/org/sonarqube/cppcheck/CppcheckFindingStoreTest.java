@@ -0,0 +1,202 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CppcheckFindingStoreTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void should_keep_all_fields_of_messages() {
+    CppcheckFindingStore store = new CppcheckFindingStore();
+    store.add("src/a.c", new CppcheckXmlParser.Message("nullPointer", CppcheckXmlParser.Severity.WARNING, "Null pointer", "Possible null pointer dereference",
+      "src\\a.c", 5, new CppcheckXmlParser.Locations(new String[] {"src/a.c", "src/b.c"}, new int[] {4, 0})));
+    store.add(null, new CppcheckXmlParser.Message(null, "missingInclude", CppcheckXmlParser.Severity.INFORMATION, "Missing include", "Missing include"));
+    store.add("src/a.c", new CppcheckXmlParser.Message("memleak", CppcheckXmlParser.Severity.ERROR, "Memory leak: été", null, "src/a.c", 7));
+    assertThat(store.size()).isEqualTo(3);
+    assertThat(store.files()).containsExactly("src/a.c");
+
+    CppcheckFindingStore.Cursor cursor = store.cursor("src/a.c");
+    assertThat(cursor.next()).isTrue();
+    assertThat(cursor.getId()).isEqualTo("nullPointer");
+    assertThat(cursor.getSeverity()).isEqualTo(CppcheckXmlParser.Severity.WARNING);
+    assertThat(cursor.getMsg()).isEqualTo("Null pointer");
+    assertThat(cursor.getVerbose()).isEqualTo("Possible null pointer dereference");
+    assertThat(cursor.getFilename()).isEqualTo("src\\a.c");
+    assertThat(cursor.getLine()).isEqualTo(5);
+    CppcheckXmlParser.Locations locations = cursor.getSecondaryLocations();
+    assertThat(locations.size()).isEqualTo(2);
+    assertThat(locations.getFilename(1)).isEqualTo("src/b.c");
+    assertThat(locations.getLine(0)).isEqualTo(4);
+    assertThat(cursor.next()).isTrue();
+    assertThat(cursor.getId()).isEqualTo("memleak");
+    assertThat(cursor.getMsg()).isEqualTo("Memory leak: été");
+    assertThat(cursor.getVerbose()).isNull();
+    assertThat(cursor.getSecondaryLocations()).isNull();
+    assertThat(cursor.next()).isFalse();
+
+    CppcheckFindingStore.Cursor project = store.cursor(null);
+    assertThat(project.next()).isTrue();
+    CppcheckXmlParser.Message message = project.toMessage();
+    assertThat(message.getId()).isEqualTo("missingInclude");
+    assertThat(message.getSeverity()).isEqualTo(CppcheckXmlParser.Severity.INFORMATION);
+    assertThat(message.getFilename()).isNull();
+    assertThat(message.getLine()).isEqualTo(0);
+    assertThat(project.next()).isFalse();
+
+    assertThat(store.cursor("src/b.c").next()).isFalse();
+    assertThat(store.cursor("src/unknown.c").next()).isFalse();
+  }
+
+  @Test
+  public void should_keep_missing_descriptions() {
+    CppcheckFindingStore store = new CppcheckFindingStore();
+    store.add("src/a.c", new CppcheckXmlParser.Message("memleak", CppcheckXmlParser.Severity.ERROR, null, null, "src/a.c", 7));
+    store.add("src/a.c", new CppcheckXmlParser.Message("nullPointer", CppcheckXmlParser.Severity.ERROR, "Null pointer", "Null pointer", "src/a.c", 8));
+
+    CppcheckFindingStore.Cursor cursor = store.cursor("src/a.c");
+    assertThat(cursor.next()).isTrue();
+    assertThat(cursor.getMsg()).isNull();
+    assertThat(cursor.toMessage().getVerbose()).isNull();
+    assertThat(cursor.next()).isTrue();
+    assertThat(cursor.getVerbose()).isEqualTo("Null pointer");
+    assertThat(cursor.toMessage().getVerbose()).isEqualTo("Null pointer");
+    assertThat(cursor.next()).isFalse();
+  }
+
+  @Test
+  public void should_read_messages_file_after_file_in_order_of_report() throws Exception {
+    File report = new CppcheckReportGenerator().setErrors(5000).setFiles(50).setLocations(3).write(temp.newFile("generated.xml"));
+    final List<CppcheckXmlParser.Message> parsed = Lists.newArrayList();
+    final CppcheckFindingStore store = new CppcheckFindingStore();
+    CppcheckXmlParser.parse(report, new CppcheckXmlParser.MessageHandler() {
+      @Override
+      public void onMessage(CppcheckXmlParser.Message message) {
+        parsed.add(message);
+        store.add(message.getFilename(), message);
+      }
+    });
+    assertThat(store.size()).isEqualTo(parsed.size());
+    assertThat(store.offHeapBytes()).isGreaterThan(0L);
+
+    List<String> expected = Lists.newArrayList();
+    List<String> files = Lists.newArrayList();
+    for (CppcheckXmlParser.Message message : parsed) {
+      if (message.getFilename() != null && !files.contains(message.getFilename())) {
+        files.add(message.getFilename());
+      }
+    }
+    for (String file : files) {
+      for (CppcheckXmlParser.Message message : parsed) {
+        if (file.equals(message.getFilename())) {
+          expected.add(describe(message));
+        }
+      }
+    }
+    assertThat(store.files()).isEqualTo(files);
+
+    List<String> stored = Lists.newArrayList();
+    for (String file : store.files()) {
+      CppcheckFindingStore.Cursor cursor = store.cursor(file);
+      while (cursor.next()) {
+        stored.add(describe(cursor.toMessage()));
+      }
+    }
+    assertThat(stored).isEqualTo(expected);
+  }
+
+  @Test
+  public void should_read_messages_spanning_segments() throws Exception {
+    File report = new CppcheckReportGenerator().setErrors(500).setFiles(5).setLocations(3).write(temp.newFile("generated.xml"));
+    final CppcheckFindingStore segmented = new CppcheckFindingStore(64, Long.MAX_VALUE);
+    final CppcheckFindingStore store = new CppcheckFindingStore();
+    CppcheckXmlParser.parse(report, new CppcheckXmlParser.MessageHandler() {
+      @Override
+      public void onMessage(CppcheckXmlParser.Message message) {
+        segmented.add(message.getFilename(), message);
+        store.add(message.getFilename(), message);
+      }
+    });
+    // a text longer than a segment is written alone in a larger one
+    String longText = Strings.repeat("x", 100);
+    segmented.add("long.c", new CppcheckXmlParser.Message("long", CppcheckXmlParser.Severity.STYLE, longText, longText + "!", "long.c", 1));
+    store.add("long.c", new CppcheckXmlParser.Message("long", CppcheckXmlParser.Severity.STYLE, longText, longText + "!", "long.c", 1));
+
+    assertThat(segmented.isFull()).isFalse();
+    assertThat(segmented.files()).isEqualTo(store.files());
+    for (String file : store.files()) {
+      assertThat(read(segmented.cursor(file))).isEqualTo(read(store.cursor(file)));
+    }
+    assertThat(read(segmented.cursor(null))).isEqualTo(read(store.cursor(null)));
+    store.release();
+    segmented.release();
+  }
+
+  @Test
+  public void should_release_findings_and_ignore_next_ones_when_full() {
+    CppcheckFindingStore store = new CppcheckFindingStore(64, 1024);
+    int added = 0;
+    while (!store.isFull()) {
+      store.add("src/a.c", new CppcheckXmlParser.Message("memleak", CppcheckXmlParser.Severity.ERROR, "Memory leak", null, "src/a.c", added));
+      added++;
+    }
+    assertThat(added).isGreaterThan(1);
+    assertThat(store.offHeapBytes()).isEqualTo(0L);
+    assertThat(store.size()).isEqualTo(0);
+    assertThat(store.files()).isEmpty();
+    store.add("src/b.c", new CppcheckXmlParser.Message("memleak", CppcheckXmlParser.Severity.ERROR, "Memory leak", null, "src/b.c", 1));
+    assertThat(store.size()).isEqualTo(0);
+    assertThat(store.offHeapBytes()).isEqualTo(0L);
+    assertThat(store.cursor("src/a.c").next()).isFalse();
+  }
+
+  private static List<String> read(CppcheckFindingStore.Cursor cursor) {
+    List<String> messages = Lists.newArrayList();
+    while (cursor.next()) {
+      messages.add(describe(cursor.toMessage()));
+    }
+    return messages;
+  }
+
+  private static String describe(CppcheckXmlParser.Message message) {
+    StringBuilder sb = new StringBuilder().append(message.getId()).append('|').append(message.getSeverity()).append('|').append(message.getMsg())
+      .append('|').append(message.getVerbose()).append('|').append(message.getFilename()).append(':').append(message.getLine());
+    CppcheckXmlParser.Locations locations = message.getSecondaryLocations();
+    if (locations != null) {
+      for (int i = 0; i < locations.size(); i++) {
+        sb.append('|').append(locations.getFilename(i)).append(':').append(locations.getLine(i));
+      }
+    }
+    return sb.toString();
+  }
+
+}
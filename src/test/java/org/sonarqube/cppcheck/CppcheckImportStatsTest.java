@@ -0,0 +1,88 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CppcheckImportStatsTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void should_count_messages_issues_and_drops() {
+    CppcheckImportStats stats = new CppcheckImportStats();
+    stats.messages(1);
+    stats.messages(3);
+    stats.issue("c");
+    stats.issue("c");
+    stats.issue("cpp");
+    stats.drop(CppcheckImportStats.Drop.UNKNOWN_RULE);
+    stats.drop(CppcheckImportStats.Drop.DUPLICATE, 5);
+
+    assertThat(stats.getMessages()).isEqualTo(4);
+    assertThat(stats.getIssues("c")).isEqualTo(2);
+    assertThat(stats.getIssues("cpp")).isEqualTo(1);
+    assertThat(stats.getIssues("objc")).isEqualTo(0);
+    assertThat(stats.getDropped(CppcheckImportStats.Drop.UNKNOWN_RULE)).isEqualTo(1);
+    assertThat(stats.getDropped(CppcheckImportStats.Drop.DUPLICATE)).isEqualTo(5);
+    assertThat(stats.getDropped(CppcheckImportStats.Drop.NO_ISSUABLE)).isEqualTo(0);
+  }
+
+  @Test
+  public void should_measure_phases() throws Exception {
+    CppcheckImportStats stats = new CppcheckImportStats();
+    assertThat(stats.getBytesPerSecond()).isEqualTo(0);
+
+    stats.reports(Collections.singletonList(new File("src/test/resources/cppcheck2.xml")));
+    long start = CppcheckImportStats.start();
+    Thread.sleep(20);
+    stats.stop(CppcheckImportStats.Phase.PARSE, start);
+
+    assertThat(stats.getMillis(CppcheckImportStats.Phase.PARSE)).isGreaterThanOrEqualTo(20);
+    assertThat(stats.getMillis(CppcheckImportStats.Phase.SAVE)).isEqualTo(0);
+    assertThat(stats.getBytesPerSecond()).isGreaterThan(0);
+  }
+
+  @Test
+  public void should_write_json() throws Exception {
+    CppcheckImportStats stats = new CppcheckImportStats();
+    stats.messages(2);
+    stats.issue("cpp");
+    stats.drop(CppcheckImportStats.Drop.NOT_ANALYSED_FILE);
+    File dir = new File(temp.getRoot(), "work");
+    stats.write(dir);
+
+    String json = FileUtils.readFileToString(new File(dir, CppcheckImportStats.FILENAME));
+    assertThat(json).startsWith("{\"messages\":2,");
+    assertThat(json).contains("\"issues\":{\"cpp\":1}");
+    assertThat(json).contains("\"notAnalysedFile\":1");
+    assertThat(json).contains("\"millis\":{\"rules\":0,\"index\":0,\"parse\":0,\"resolve\":0,\"save\":0,\"baseline\":0}");
+  }
+
+}
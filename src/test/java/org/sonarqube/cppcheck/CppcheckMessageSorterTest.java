@@ -0,0 +1,169 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.collect.Lists;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CppcheckMessageSorterTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void should_sort_messages_by_file_in_memory() throws Exception {
+    File dir = temp.newFolder();
+    CppcheckMessageSorter sorter = new CppcheckMessageSorter(dir, Long.MAX_VALUE);
+    sorter.onMessage(message("memleak", "src/b.c", 3));
+    sorter.onMessage(message("nullPointer", "src/a.c", 2));
+    sorter.onMessage(new CppcheckXmlParser.Message(null, "missingInclude", CppcheckXmlParser.Severity.INFORMATION, "Missing include", null));
+    sorter.onMessage(message("resourceLeak", "src/b.c", 1));
+
+    List<String> sorted = Lists.newArrayList();
+    sorter.replay(collect(sorted));
+    assertThat(sorted).containsExactly("missingInclude|null:0", "nullPointer|src/a.c:2", "memleak|src/b.c:3", "resourceLeak|src/b.c:1");
+    assertThat(sorter.getRuns()).isEqualTo(0);
+    assertThat(dir.list()).isEmpty();
+  }
+
+  @Test
+  public void should_merge_runs_spilled_to_disk() throws Exception {
+    File report = new CppcheckReportGenerator().setErrors(3000).setFiles(50).setLocations(3).write(temp.newFile("generated.xml"));
+    List<String> expected = Lists.newArrayList();
+    CppcheckXmlParser.parse(report, collect(expected));
+    // stable sort by file, messages of a file staying in the order of the report
+    Collections.sort(expected, new Comparator<String>() {
+      @Override
+      public int compare(String s1, String s2) {
+        return filename(s1).compareTo(filename(s2));
+      }
+    });
+
+    File dir = new File(temp.getRoot(), "work/cppcheck");
+    CppcheckMessageSorter sorter = new CppcheckMessageSorter(dir, 64 * 1024);
+    CppcheckXmlParser.parse(report, sorter);
+    assertThat(sorter.getRuns()).isGreaterThan(2);
+    assertThat(dir.list()).hasSize(sorter.getRuns());
+
+    List<String> sorted = Lists.newArrayList();
+    sorter.replay(collect(sorted));
+    assertThat(sorted).isEqualTo(expected);
+
+    sorter.close();
+    assertThat(dir.list()).isEmpty();
+  }
+
+  @Test
+  public void should_merge_runs_in_passes_when_too_many() throws Exception {
+    File report = new CppcheckReportGenerator().setErrors(3000).setFiles(50).setLocations(3).write(temp.newFile("generated.xml"));
+    File dir = new File(temp.getRoot(), "work/cppcheck");
+    CppcheckMessageSorter sorter = new CppcheckMessageSorter(dir, 16 * 1024);
+    CppcheckXmlParser.parse(report, sorter);
+    List<String> expected = Lists.newArrayList();
+    sorter.replay(collect(expected));
+    sorter.close();
+
+    CppcheckMessageSorter capped = new CppcheckMessageSorter(dir, 16 * 1024, 3);
+    CppcheckXmlParser.parse(report, capped);
+    assertThat(capped.getRuns()).isGreaterThan(9);
+
+    List<String> sorted = Lists.newArrayList();
+    capped.replay(collect(sorted));
+    assertThat(sorted).isEqualTo(expected);
+    // merged runs replace the spilled ones, the last merge opening them with the messages left in memory
+    assertThat(capped.getRuns()).isLessThan(3);
+    assertThat(dir.list()).hasSize(capped.getRuns());
+
+    capped.close();
+    assertThat(dir.list()).isEmpty();
+  }
+
+  @Test
+  public void should_keep_all_fields_of_spilled_messages() throws Exception {
+    CppcheckMessageSorter sorter = new CppcheckMessageSorter(temp.newFolder(), 1);
+    sorter.onMessage(new CppcheckXmlParser.Message("nullPointer", CppcheckXmlParser.Severity.WARNING, "Null pointer", "Possible null pointer dereference",
+      "src/a.c", 5, new CppcheckXmlParser.Locations(new String[] {"src/a.c", "src/b.c"}, new int[] {4, 0})));
+    sorter.onMessage(new CppcheckXmlParser.Message("replacement", "missingInclude", CppcheckXmlParser.Severity.NONE, "Missing include", "Missing include"));
+    sorter.onMessage(new CppcheckXmlParser.Message("memleak", CppcheckXmlParser.Severity.ERROR, null, null, "src/b.c", 7));
+    assertThat(sorter.getRuns()).isEqualTo(3);
+
+    final List<CppcheckXmlParser.Message> messages = Lists.newArrayList();
+    sorter.replay(new CppcheckXmlParser.MessageHandler() {
+      @Override
+      public void onMessage(CppcheckXmlParser.Message message) {
+        messages.add(message);
+      }
+    });
+    sorter.close();
+
+    CppcheckXmlParser.Message project = messages.get(0);
+    assertThat(project.getReplacement()).isEqualTo("replacement");
+    assertThat(project.getFilename()).isNull();
+    assertThat(project.getSeverity()).isEqualTo(CppcheckXmlParser.Severity.NONE);
+    assertThat(project.getVerbose()).isEqualTo("Missing include");
+
+    CppcheckXmlParser.Message file = messages.get(1);
+    assertThat(file.getId()).isEqualTo("nullPointer");
+    assertThat(file.getSeverity()).isEqualTo(CppcheckXmlParser.Severity.WARNING);
+    assertThat(file.getMsg()).isEqualTo("Null pointer");
+    assertThat(file.getVerbose()).isEqualTo("Possible null pointer dereference");
+    assertThat(file.getFilename()).isEqualTo("src/a.c");
+    assertThat(file.getLine()).isEqualTo(5);
+    assertThat(file.getSecondaryLocations().size()).isEqualTo(2);
+    assertThat(file.getSecondaryLocations().getFilename(1)).isEqualTo("src/b.c");
+    assertThat(file.getSecondaryLocations().getLine(1)).isEqualTo(0);
+
+    assertThat(messages.get(2).getMsg()).isNull();
+    assertThat(messages.get(2).getVerbose()).isNull();
+  }
+
+  private static String filename(String message) {
+    return message.substring(message.indexOf('|') + 1, message.indexOf(':'));
+  }
+
+  private static CppcheckXmlParser.Message message(String id, @Nullable String filename, int line) {
+    return new CppcheckXmlParser.Message(id, CppcheckXmlParser.Severity.ERROR, id, null, filename, line);
+  }
+
+  private static CppcheckXmlParser.MessageHandler collect(final List<String> messages) {
+    return new CppcheckXmlParser.MessageHandler() {
+      @Override
+      public void onMessage(CppcheckXmlParser.Message message) {
+        StringBuilder sb = new StringBuilder().append(message.getId()).append('|').append(message.getFilename()).append(':').append(message.getLine());
+        CppcheckXmlParser.Locations locations = message.getSecondaryLocations();
+        for (int i = 0; locations != null && i < locations.size(); i++) {
+          sb.append('|').append(locations.getFilename(i)).append(':').append(locations.getLine(i));
+        }
+        messages.add(sb.toString());
+      }
+    };
+  }
+
+}
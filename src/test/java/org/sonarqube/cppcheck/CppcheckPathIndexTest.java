@@ -0,0 +1,113 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CppcheckPathIndexTest {
+
+  private final File baseDir = new File("/home/project");
+  private final InputFile main = inputFile("src/main.c");
+  private final InputFile util = inputFile("src/util/util.c");
+  private final InputFile otherUtil = inputFile("lib/util/util.c");
+  private final InputFile header = inputFile("include/util.h");
+
+  private final CppcheckPathIndex index = new CppcheckPathIndex(baseDir, ImmutableList.of(main, util, otherUtil, header));
+
+  @Test
+  public void should_resolve_absolute_paths() {
+    assertThat(index.resolve("/home/project/src/main.c")).isSameAs(main);
+    assertThat(index.resolve("/home/project/src/../src/util/util.c")).isSameAs(util);
+  }
+
+  @Test
+  public void should_resolve_paths_relative_to_base_dir() {
+    assertThat(index.resolve("src/main.c")).isSameAs(main);
+    assertThat(index.resolve("./lib/util/util.c")).isSameAs(otherUtil);
+    assertThat(index.resolve("src\\util\\util.c")).isSameAs(util);
+  }
+
+  @Test
+  public void should_resolve_paths_from_other_root() {
+    assertThat(index.resolve("/build/agent/checkout/src/main.c")).isSameAs(main);
+    assertThat(index.resolve("/build/agent/checkout/lib/util/util.c")).isSameAs(otherUtil);
+    assertThat(index.resolve("C:\\build\\src\\util\\util.c")).isSameAs(util);
+  }
+
+  @Test
+  public void should_resolve_paths_relative_to_sub_directory() {
+    assertThat(index.resolve("main.c")).isSameAs(main);
+    assertThat(index.resolve("util.h")).isSameAs(header);
+    // ambiguous
+    assertThat(index.resolve("util/util.c")).isNull();
+    assertThat(index.resolve("util.c")).isNull();
+  }
+
+  @Test
+  public void should_not_resolve_files_of_other_modules() {
+    // whether the directories exist does not matter
+    File projectDir = new File("/work/project");
+    File moduleA = new File(projectDir, "moduleA");
+    File moduleB = new File(projectDir, "moduleB");
+    InputFile mainOfA = inputFile(moduleA, "src/main.c");
+    InputFile mainOfB = inputFile(moduleB, "src/main.c");
+    CppcheckPathIndex indexOfA = new CppcheckPathIndex(moduleA, ImmutableList.of(mainOfA));
+    CppcheckPathIndex indexOfB = new CppcheckPathIndex(moduleB, ImmutableList.of(mainOfB));
+
+    // paths of the report imported by both modules
+    for (String path : ImmutableList.of(new File(moduleB, "src/main.c").getAbsolutePath(), "moduleB/src/main.c")) {
+      assertThat(indexOfA.resolve(path)).isNull();
+      assertThat(indexOfB.resolve(path)).isSameAs(mainOfB);
+    }
+    assertThat(indexOfA.resolve("moduleA/src/main.c")).isSameAs(mainOfA);
+    assertThat(indexOfB.resolve("moduleA/src/main.c")).isNull();
+    assertThat(indexOfA.resolve("../moduleA/src/main.c")).isSameAs(mainOfA);
+    assertThat(indexOfA.resolve("/work/project/other/src/main.c")).isNull();
+    assertThat(indexOfA.resolve("other/src/main.c")).isNull();
+    // report produced on another machine
+    assertThat(indexOfA.resolve("/build/moduleA/src/main.c")).isSameAs(mainOfA);
+    assertThat(indexOfA.resolve("/build/src/main.c")).isSameAs(mainOfA);
+  }
+
+  @Test
+  public void should_not_resolve_unknown_files() {
+    assertThat(index.resolve("/home/project/src/other.c")).isNull();
+    // under the base directory, but not indexed
+    assertThat(index.resolve("/home/project/generated/src/main.c")).isNull();
+    assertThat(index.resolve("other/main.cpp")).isNull();
+    assertThat(index.resolve("")).isNull();
+  }
+
+  private InputFile inputFile(String relativePath) {
+    return inputFile(baseDir, relativePath);
+  }
+
+  private static InputFile inputFile(File baseDir, String relativePath) {
+    return new DefaultInputFile(relativePath).setAbsolutePath(new File(baseDir, relativePath).getAbsolutePath()).setLanguage("c");
+  }
+
+}
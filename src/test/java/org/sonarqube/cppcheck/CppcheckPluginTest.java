@@ -27,6 +27,6 @@ public class CppcheckPluginTest {
   @Test
   public void testExtensions() throws Exception {
     CppcheckPlugin cppcheckPlugin = new CppcheckPlugin();
-    assertThat(cppcheckPlugin.getExtensions()).hasSize(5);
+    assertThat(cppcheckPlugin.getExtensions()).hasSize(19);
   }
 }
@@ -0,0 +1,132 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CppcheckReportCacheTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final CppcheckReportCache cache = new CppcheckReportCache();
+
+  @Test
+  public void should_index_messages_by_file() {
+    CppcheckReportCache.ParsedReport report = cache.get(ImmutableList.of(new File("src/test/resources/cppcheck2.xml")), new CppcheckReports.Options(1, CppcheckXmlParser.Backend.STAXMATE, false), Predicates.<String>alwaysTrue());
+    assertThat(report.filenames()).hasSize(8);
+    assertThat(report.messagesOf("src/autoVariables/bad.c")).onProperty("id").containsOnly("autoVariables");
+    assertThat(report.messagesOf("src/unknown.c")).isEmpty();
+    assertThat(report.projectMessages()).onProperty("id").containsOnly("missingInclude");
+  }
+
+  @Test
+  public void should_parse_report_only_once() {
+    List<File> reports = ImmutableList.of(new File("src/test/resources/cppcheck2.xml"));
+    assertThat(cache.get(reports, new CppcheckReports.Options(1, CppcheckXmlParser.Backend.STAXMATE, false), Predicates.<String>alwaysTrue())).isSameAs(cache.get(reports, new CppcheckReports.Options(1, CppcheckXmlParser.Backend.STAXMATE, false), Predicates.<String>alwaysTrue()));
+  }
+
+  @Test
+  public void should_parse_again_for_other_rules() {
+    List<File> reports = ImmutableList.of(new File("src/test/resources/cppcheck2.xml"));
+    CppcheckReportCache.ParsedReport report = cache.get(reports, new CppcheckReports.Options(1, CppcheckXmlParser.Backend.STAXMATE, false), Predicates.in(ImmutableSet.of("memleak")));
+    assertThat(report.filenames()).containsOnly("src/memleak/bad.c");
+    assertThat(cache.get(reports, new CppcheckReports.Options(1, CppcheckXmlParser.Backend.STAXMATE, false), Predicates.in(ImmutableSet.of("memleak")))).isSameAs(report);
+    assertThat(cache.get(reports, new CppcheckReports.Options(1, CppcheckXmlParser.Backend.STAXMATE, false), Predicates.in(ImmutableSet.of("erase"))).filenames()).containsOnly("src/erase/bad.cpp");
+  }
+
+  @Test
+  public void should_parse_again_with_other_options() {
+    List<File> reports = ImmutableList.of(new File("src/test/resources/cppcheck2.xml"));
+    CppcheckReportCache.ParsedReport report = cache.get(reports, new CppcheckReports.Options(1, CppcheckXmlParser.Backend.STAXMATE, false), Predicates.<String>alwaysTrue());
+    assertThat(report.getStore()).isNull();
+    // threads do not change the parsed messages
+    assertThat(cache.get(reports, new CppcheckReports.Options(4, CppcheckXmlParser.Backend.STAXMATE, false), Predicates.<String>alwaysTrue())).isSameAs(report);
+    assertThat(cache.get(reports, new CppcheckReports.Options(1, CppcheckXmlParser.Backend.STAX, false), Predicates.<String>alwaysTrue())).isNotSameAs(report);
+    CppcheckReportCache.ParsedReport offHeap = cache.get(reports, new CppcheckReports.Options(1, CppcheckXmlParser.Backend.STAXMATE, false, true, false),
+      Predicates.<String>alwaysTrue());
+    assertThat(offHeap).isNotSameAs(report);
+    assertThat(offHeap.getStore()).isNotNull();
+  }
+
+  @Test
+  public void should_parse_again_once_released() {
+    List<File> reports = ImmutableList.of(new File("src/test/resources/cppcheck2.xml"));
+    CppcheckReports.Options offHeap = new CppcheckReports.Options(1, CppcheckXmlParser.Backend.STAXMATE, false, true, false);
+    CppcheckReportCache.ParsedReport report = cache.get(reports, offHeap, Predicates.<String>alwaysTrue());
+    cache.release();
+    assertThat(cache.get(reports, offHeap, Predicates.<String>alwaysTrue())).isNotSameAs(report);
+  }
+
+  @Test
+  public void should_keep_messages_on_heap_when_store_is_full() {
+    List<File> reports = ImmutableList.of(new File("src/test/resources/cppcheck2.xml"));
+    CppcheckReports.Options offHeap = new CppcheckReports.Options(1, CppcheckXmlParser.Backend.STAXMATE, false, true, false);
+    CppcheckFindingStore store = new CppcheckFindingStore(64, 512);
+    CppcheckReportCache.ParsedReport report = CppcheckReportCache.ParsedReport.parseOffHeap(reports, offHeap, Predicates.<String>alwaysTrue(), store);
+    assertThat(store.isFull()).isTrue();
+    assertThat(store.offHeapBytes()).isEqualTo(0L);
+    assertThat(report.getStore()).isNull();
+    assertThat(report.filenames()).hasSize(8);
+    assertThat(report.messagesOf("src/autoVariables/bad.c")).onProperty("id").containsOnly("autoVariables");
+    assertThat(report.projectMessages()).onProperty("id").containsOnly("missingInclude");
+  }
+
+  @Test
+  public void should_count_duplicates() {
+    CppcheckReportCache.ParsedReport report = cache.get(ImmutableList.of(new File("src/test/resources/duplicates.xml")),
+      new CppcheckReports.Options(1, CppcheckXmlParser.Backend.STAXMATE, false), Predicates.<String>alwaysTrue());
+    assertThat(report.getDuplicates()).isEqualTo(2);
+    assertThat(report.messagesOf("src/memleak/bad.c")).hasSize(3);
+  }
+
+  @Test
+  public void should_parse_modified_report_again() throws Exception {
+    File file = temp.newFile("cppcheck.xml");
+    Files.copy(new File("src/test/resources/no-location.xml"), file);
+    CppcheckReportCache.ParsedReport first = cache.get(ImmutableList.of(file), new CppcheckReports.Options(1, CppcheckXmlParser.Backend.STAXMATE, false), Predicates.<String>alwaysTrue());
+    assertThat(first.filenames()).isEmpty();
+
+    Files.copy(new File("src/test/resources/cppcheck2.xml"), file);
+    file.setLastModified(file.lastModified() + 2000);
+    CppcheckReportCache.ParsedReport second = cache.get(ImmutableList.of(file), new CppcheckReports.Options(1, CppcheckXmlParser.Backend.STAXMATE, false), Predicates.<String>alwaysTrue());
+    assertThat(second).isNotSameAs(first);
+    assertThat(second.filenames()).hasSize(8);
+  }
+
+  @Test
+  public void should_normalize_file_names() {
+    assertThat(CppcheckReportCache.normalize("./src/a.c")).isEqualTo("src/a.c");
+    assertThat(CppcheckReportCache.normalize("src\\dir\\..\\a.c")).isEqualTo("src/a.c");
+    assertThat(CppcheckReportCache.normalize("../../a.c")).isEqualTo("../../a.c");
+  }
+
+}
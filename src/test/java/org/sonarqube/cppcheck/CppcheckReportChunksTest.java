@@ -0,0 +1,290 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.utils.SonarException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class CppcheckReportChunksTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void should_give_messages_in_order_of_report() throws Exception {
+    File report = new CppcheckReportGenerator().setErrors(5000).setFiles(100).setLocations(3).write(temp.newFile("generated.xml"));
+    for (CppcheckXmlParser.Backend backend : CppcheckXmlParser.Backend.values()) {
+      List<String> chunked = Lists.newArrayList();
+      assertThat(CppcheckReportChunks.parse(report, new CppcheckReports.Options(4, backend, 0), Predicates.<String>alwaysTrue(), collect(chunked))).isTrue();
+      assertThat(chunked).hasSize(5000);
+      assertThat(chunked).isEqualTo(sequential(report));
+    }
+  }
+
+  @Test
+  public void should_split_at_error_start_tags() throws Exception {
+    File report = new CppcheckReportGenerator().setErrors(1000).write(temp.newFile("generated.xml"));
+    List<CppcheckReportChunks.Chunk> chunks = CppcheckReportChunks.split(ByteBuffer.wrap(FileUtils.readFileToByteArray(report)), 8);
+    assertThat(chunks).hasSize(8);
+
+    String first = read(chunks.get(0));
+    assertThat(first).startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<results version=\"2\">\n  <cppcheck version=\"1.71\"/>\n  <errors>\n    <error ");
+    assertThat(first).endsWith("</errors></results>");
+    String middle = read(chunks.get(3));
+    assertThat(middle).startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?><results><errors><error ");
+    assertThat(middle).endsWith("    </error>\n    </errors></results>");
+    assertThat(read(chunks.get(7))).endsWith("    </error>\n  </errors>\n</results>\n");
+  }
+
+  @Test
+  public void should_apply_rule_filter() throws Exception {
+    File report = new CppcheckReportGenerator().setErrors(2000).setIds(ImmutableList.of("memleak", "nullPointer")).write(temp.newFile("generated.xml"));
+    List<String> chunked = Lists.newArrayList();
+    CppcheckReportChunks.parse(report, new CppcheckReports.Options(2, CppcheckXmlParser.Backend.STAXMATE, 0),
+      Predicates.in(ImmutableSet.of("memleak")), collect(chunked));
+    assertThat(chunked).isNotEmpty();
+    for (String message : chunked) {
+      assertThat(message).startsWith("memleak|");
+    }
+  }
+
+  @Test
+  public void should_not_split_small_reports() throws Exception {
+    File report = new CppcheckReportGenerator().setErrors(100).write(temp.newFile("generated.xml"));
+    List<String> chunked = Lists.newArrayList();
+    assertThat(CppcheckReportChunks.parse(report, new CppcheckReports.Options(4, CppcheckXmlParser.Backend.STAXMATE, true),
+      Predicates.<String>alwaysTrue(), collect(chunked))).isFalse();
+    assertThat(CppcheckReportChunks.parse(report, new CppcheckReports.Options(1, CppcheckXmlParser.Backend.STAXMATE, 0),
+      Predicates.<String>alwaysTrue(), collect(chunked))).isFalse();
+    assertThat(chunked).isEmpty();
+  }
+
+  @Test
+  public void should_not_split_compressed_reports() throws Exception {
+    File report = new CppcheckReportGenerator().setErrors(1000).write(temp.newFile("generated.xml"));
+    File compressed = temp.newFile("generated.xml.gz");
+    try (FileInputStream in = new FileInputStream(report); OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed))) {
+      ByteStreams.copy(in, out);
+    }
+    assertThat(CppcheckReportChunks.parse(compressed, new CppcheckReports.Options(4, CppcheckXmlParser.Backend.STAXMATE, 0),
+      Predicates.<String>alwaysTrue(), collect(Lists.<String>newArrayList()))).isFalse();
+  }
+
+  @Test
+  public void should_not_split_reports_with_comments_or_without_errors_element() throws Exception {
+    File report = new CppcheckReportGenerator().setErrors(1000).write(temp.newFile("generated.xml"));
+    String content = FileUtils.readFileToString(report, "UTF-8");
+    File commented = temp.newFile("commented.xml");
+    FileUtils.write(commented, content.replace("</errors>", "<!-- <error id=\"x\"/> --></errors>"), "UTF-8");
+    File version1 = temp.newFile("version1.xml");
+    FileUtils.write(version1, "<results><error id=\"memleak\" msg=\"leak\"/><error id=\"memleak\" msg=\"leak\"/></results>", "UTF-8");
+
+    List<String> chunked = Lists.newArrayList();
+    CppcheckReports.Options options = new CppcheckReports.Options(4, CppcheckXmlParser.Backend.STAXMATE, 0);
+    assertThat(CppcheckReportChunks.parse(commented, options, Predicates.<String>alwaysTrue(), collect(chunked))).isFalse();
+    assertThat(CppcheckReportChunks.parse(version1, options, Predicates.<String>alwaysTrue(), collect(chunked))).isFalse();
+    assertThat(chunked).isEmpty();
+  }
+
+  @Test
+  public void should_fall_back_to_sequential_parse() throws Exception {
+    File report = new CppcheckReportGenerator().setErrors(300).write(temp.newFile("generated.xml"));
+    List<String> messages = Lists.newArrayList();
+    CppcheckReports.parse(ImmutableList.of(report), new CppcheckReports.Options(4, CppcheckXmlParser.Backend.STAXMATE, true),
+      Predicates.<String>alwaysTrue(), collect(messages));
+    assertThat(messages).isEqualTo(sequential(report));
+  }
+
+  @Test
+  public void should_fail_on_malformed_chunk() throws Exception {
+    File report = new CppcheckReportGenerator().setErrors(1000).write(temp.newFile("generated.xml"));
+    String content = FileUtils.readFileToString(report, "UTF-8");
+    int middle = content.indexOf("</error>", content.length() / 2);
+    FileUtils.write(report, content.substring(0, middle) + content.substring(middle + "</error>".length()), "UTF-8");
+
+    thrown.expect(SonarException.class);
+    thrown.expectMessage("Unable to parse file: " + report);
+    CppcheckReportChunks.parse(report, new CppcheckReports.Options(4, CppcheckXmlParser.Backend.STAXMATE, 0),
+      Predicates.<String>alwaysTrue(), collect(Lists.<String>newArrayList()));
+  }
+
+  @Test
+  public void should_bound_chunks_parsed_ahead_of_handled_chunk() throws Exception {
+    File report = new CppcheckReportGenerator().setErrors(8000).write(temp.newFile("generated.xml"));
+    final AtomicInteger parsed = new AtomicInteger();
+    Predicate<String> counting = new Predicate<String>() {
+      @Override
+      public boolean apply(String ruleKey) {
+        parsed.incrementAndGet();
+        return true;
+      }
+    };
+    final List<String> chunked = Lists.newArrayList();
+    final int[] parsedBeforeHandling = new int[1];
+    final CppcheckXmlParser.MessageHandler collecting = collect(chunked);
+    CppcheckReportChunks.parse(report, new CppcheckReports.Options(2, CppcheckXmlParser.Backend.STAXMATE, 0), counting,
+      new CppcheckXmlParser.MessageHandler() {
+        @Override
+        public void onMessage(CppcheckXmlParser.Message message) {
+          if (chunked.isEmpty()) {
+            // lets the threads parse as far ahead as they are allowed to
+            int count;
+            do {
+              count = parsed.get();
+              sleep(300);
+            } while (count != parsed.get());
+            parsedBeforeHandling[0] = count;
+          }
+          collecting.onMessage(message);
+        }
+      });
+
+    // 2 threads split the report in 8 chunks, of which 4 are parsed ahead, and the next one once the first is drained
+    assertThat(parsedBeforeHandling[0]).isLessThanOrEqualTo(8000 * 5 / 8 + 100);
+    assertThat(chunked).isEqualTo(sequential(report));
+  }
+
+  @Test
+  public void should_release_mapping_of_report() throws Exception {
+    File maps = new File("/proc/self/maps");
+    assumeTrue(maps.isFile());
+    File report = new CppcheckReportGenerator().setErrors(1000).write(temp.newFile("generated.xml"));
+    CppcheckReportChunks.parse(report, new CppcheckReports.Options(2, CppcheckXmlParser.Backend.STAXMATE, 0),
+      Predicates.<String>alwaysTrue(), collect(Lists.<String>newArrayList()));
+    assertThat(FileUtils.readFileToString(maps, "UTF-8")).doesNotContain(report.getAbsolutePath());
+  }
+
+  @Test
+  public void should_keep_mapping_of_report_while_chunks_are_parsed_after_a_failure() throws Exception {
+    File maps = new File("/proc/self/maps");
+    assumeTrue(maps.isFile());
+    File report = new CppcheckReportGenerator().setErrors(8000).write(temp.newFile("generated.xml"));
+    final AtomicBoolean failing = new AtomicBoolean();
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch released = new CountDownLatch(1);
+    Predicate<String> blocking = new Predicate<String>() {
+      @Override
+      public boolean apply(String ruleKey) {
+        if (failing.get()) {
+          // a chunk is being parsed when the handler fails
+          blocked.countDown();
+          await(released, 60);
+        } else {
+          sleep(1);
+        }
+        return true;
+      }
+    };
+    try {
+      CppcheckReportChunks.parse(report, new CppcheckReports.Options(2, CppcheckXmlParser.Backend.STAXMATE, 0), blocking,
+        new CppcheckXmlParser.MessageHandler() {
+          @Override
+          public void onMessage(CppcheckXmlParser.Message message) {
+            failing.set(true);
+            assertThat(await(blocked, 10)).isTrue();
+            throw new IllegalStateException("handler failure");
+          }
+        });
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("handler failure");
+    }
+    // released once collected
+    assertThat(FileUtils.readFileToString(maps, "UTF-8")).contains(report.getAbsolutePath());
+    released.countDown();
+  }
+
+  private static boolean await(CountDownLatch latch, long seconds) {
+    try {
+      return latch.await(seconds, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static List<String> sequential(File report) {
+    List<String> messages = Lists.newArrayList();
+    CppcheckXmlParser.parse(report, collect(messages));
+    return messages;
+  }
+
+  private static CppcheckXmlParser.MessageHandler collect(final List<String> messages) {
+    return new CppcheckXmlParser.MessageHandler() {
+      @Override
+      public void onMessage(CppcheckXmlParser.Message message) {
+        StringBuilder sb = new StringBuilder()
+          .append(message.getId()).append('|')
+          .append(message.getSeverity()).append('|')
+          .append(message.getMsg()).append('|')
+          .append(message.getVerbose()).append('|')
+          .append(message.getFilename()).append(':').append(message.getLine());
+        CppcheckXmlParser.Locations locations = message.getSecondaryLocations();
+        for (int i = 0; locations != null && i < locations.size(); i++) {
+          sb.append('|').append(locations.getFilename(i)).append(':').append(locations.getLine(i));
+        }
+        messages.add(sb.toString());
+      }
+    };
+  }
+
+  private static String read(CppcheckReportChunks.Chunk chunk) throws Exception {
+    return new String(ByteStreams.toByteArray(chunk.open()), Charsets.UTF_8);
+  }
+
+}
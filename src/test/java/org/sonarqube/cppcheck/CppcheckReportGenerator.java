@@ -0,0 +1,171 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+import org.apache.commons.lang.StringEscapeUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic Cppcheck reports, for tests and benchmarks. For given settings, the generated report is
+ * always the same.
+ */
+public class CppcheckReportGenerator {
+
+  private static final String[] SEVERITIES = {"error", "warning", "style", "performance", "portability", "information"};
+  private static final String[] WORDS = {"variable", "pointer", "buffer", "array", "index", "function", "return", "value",
+    "condition", "always", "never", "null", "memory", "leak", "iterator", "uninitialized", "scope", "reduced", "const"};
+
+  private int errors = 1000;
+  private int files = 100;
+  private int locations = 1;
+  private int messageLength = 60;
+  private long seed = 42;
+  private int hotFiles = 0;
+  private double hotShare = 0;
+  private List<String> ids;
+
+  public CppcheckReportGenerator setErrors(int errors) {
+    this.errors = errors;
+    return this;
+  }
+
+  public CppcheckReportGenerator setFiles(int files) {
+    this.files = files;
+    return this;
+  }
+
+  /**
+   * Number of locations of each error, errors without location are generated when 0.
+   */
+  public CppcheckReportGenerator setLocations(int locations) {
+    this.locations = locations;
+    return this;
+  }
+
+  /**
+   * Approximate length of the msg attribute, verbose attribute being twice longer.
+   */
+  public CppcheckReportGenerator setMessageLength(int messageLength) {
+    this.messageLength = messageLength;
+    return this;
+  }
+
+  /**
+   * Skews the distribution of errors, the given share of errors being located in the first {@code hotFiles} files.
+   * Errors are evenly distributed between all the files by default.
+   */
+  public CppcheckReportGenerator setHotFiles(int hotFiles, double share) {
+    this.hotFiles = hotFiles;
+    this.hotShare = share;
+    return this;
+  }
+
+  public CppcheckReportGenerator setSeed(long seed) {
+    this.seed = seed;
+    return this;
+  }
+
+  /**
+   * Rule ids of the generated errors, all the rules known by the plugin by default.
+   */
+  public CppcheckReportGenerator setIds(List<String> ids) {
+    this.ids = ImmutableList.copyOf(ids);
+    return this;
+  }
+
+  public List<String> ids() {
+    if (ids == null) {
+      List<String> allIds = Lists.newArrayList();
+      for (CppcheckXmlParser.Message message : CppcheckXmlParser.parse(new File("src/main/resources/org/sonarqube/cppcheck.xml"))) {
+        allIds.add(message.getId());
+      }
+      ids = ImmutableList.copyOf(allIds);
+    }
+    return ids;
+  }
+
+  /**
+   * Relative path of the i-th file of the generated report.
+   */
+  public static String filename(int i) {
+    return "src/module" + (i % 50) + "/file" + i + (i % 2 == 0 ? ".c" : ".cpp");
+  }
+
+  public File write(File report) {
+    Writer writer = null;
+    try {
+      writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(report), Charsets.UTF_8));
+      write(writer);
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    } finally {
+      Closeables.closeQuietly(writer);
+    }
+    return report;
+  }
+
+  private void write(Writer writer) throws IOException {
+    Random random = new Random(seed);
+    List<String> ruleIds = ids();
+    writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<results version=\"2\">\n  <cppcheck version=\"1.71\"/>\n  <errors>\n");
+    for (int i = 0; i < errors; i++) {
+      String id = ruleIds.get(random.nextInt(ruleIds.size()));
+      writer.append("    <error id=\"").append(id)
+        .append("\" severity=\"").append(SEVERITIES[random.nextInt(SEVERITIES.length)])
+        .append("\" msg=\"").append(text(random, id, messageLength))
+        .append("\" verbose=\"").append(text(random, id, 2 * messageLength))
+        .append("\">\n");
+      int file = hotFiles > 0 && random.nextDouble() < hotShare ? random.nextInt(hotFiles) : random.nextInt(files);
+      for (int j = 0; j < locations; j++) {
+        writer.append("      <location file=\"").append(filename(file))
+          .append("\" line=\"").append(Integer.toString(1 + random.nextInt(2000)))
+          .append("\"/>\n");
+      }
+      writer.write("    </error>\n");
+    }
+    writer.write("  </errors>\n</results>\n");
+  }
+
+  private static String text(Random random, String id, int length) {
+    StringBuilder sb = new StringBuilder(length + 16);
+    sb.append(id).append(':');
+    while (sb.length() < length) {
+      sb.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+      if (random.nextInt(8) == 0) {
+        sb.append(" '").append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(100)).append("' & <").append(random.nextInt(10)).append('>');
+      }
+    }
+    return StringEscapeUtils.escapeXml(sb.toString());
+  }
+
+}
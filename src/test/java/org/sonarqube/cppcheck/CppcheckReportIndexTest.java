@@ -0,0 +1,257 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class CppcheckReportIndexTest {
+
+  private static final CppcheckReports.Options INDEXED = new CppcheckReports.Options(1, CppcheckXmlParser.Backend.STAXMATE, false, false, true);
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void should_write_index_on_first_parse_and_read_it_afterwards() throws Exception {
+    File report = new CppcheckReportGenerator().setErrors(3000).setFiles(50).setLocations(3).write(temp.newFile("generated.xml"));
+    List<String> expected = Lists.newArrayList();
+    CppcheckXmlParser.parse(report, collect(expected));
+
+    List<String> parsed = Lists.newArrayList();
+    CppcheckReports.parse(ImmutableList.of(report), INDEXED, Predicates.<String>alwaysTrue(), collect(parsed));
+    // messages are handled while the index is written
+    assertThat(parsed).isEqualTo(expected);
+    assertThat(CppcheckReportIndex.sidecarOf(report)).exists();
+    assertThat(temp.getRoot().list()).containsOnly("generated.xml", "generated.xml" + CppcheckReportIndex.SUFFIX);
+
+    List<String> replayed = Lists.newArrayList();
+    CppcheckReportIndex index = CppcheckReportIndex.open(report);
+    assertThat(index).isNotNull();
+    index.replay(Predicates.<String>alwaysTrue(), collect(replayed));
+    assertThat(replayed).isEqualTo(groupedByFile(expected));
+
+    List<String> reimported = Lists.newArrayList();
+    CppcheckReports.parse(ImmutableList.of(report), INDEXED, Predicates.<String>alwaysTrue(), collect(reimported));
+    assertThat(reimported).isEqualTo(replayed);
+  }
+
+  @Test
+  public void should_keep_all_fields_of_messages() throws Exception {
+    File report = temp.newFile("cppcheck.xml");
+    Files.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<results version=\"2\"><errors>"
+      + "<error id=\"nullPointer\" severity=\"warning\" msg=\"Null pointer\" verbose=\"Possible null pointer dereference: été\">"
+      + "<location file=\"src/a.c\" line=\"5\"/><location file=\"src/b.c\" line=\"4\"/></error>"
+      + "<error id=\"missingInclude\" severity=\"information\" msg=\"Missing include\" verbose=\"Missing include\" SonarQube=\"replacement\"/>"
+      + "<error id=\"memleak\" severity=\"error\" msg=\"Memory leak\" verbose=\"Memory leak\"><location file=\"src/a.c\" line=\"7\"/></error>"
+      + "<error id=\"resourceLeak\" severity=\"error\"><location file=\"src/a.c\" line=\"9\"/></error>"
+      + "</errors></results>", report, Charsets.UTF_8);
+    CppcheckReports.parse(ImmutableList.of(report), INDEXED, Predicates.<String>alwaysTrue(), collect(Lists.<String>newArrayList()));
+
+    final List<CppcheckXmlParser.Message> messages = Lists.newArrayList();
+    CppcheckReportIndex.open(report).replay(Predicates.<String>alwaysTrue(), new CppcheckXmlParser.MessageHandler() {
+      @Override
+      public void onMessage(CppcheckXmlParser.Message message) {
+        messages.add(message);
+      }
+    });
+    assertThat(messages).hasSize(4);
+
+    CppcheckXmlParser.Message project = messages.get(0);
+    assertThat(project.getId()).isEqualTo("missingInclude");
+    assertThat(project.getReplacement()).isEqualTo("replacement");
+    assertThat(project.getFilename()).isNull();
+    assertThat(project.getSeverity()).isEqualTo(CppcheckXmlParser.Severity.INFORMATION);
+
+    CppcheckXmlParser.Message file = messages.get(1);
+    assertThat(file.getId()).isEqualTo("nullPointer");
+    assertThat(file.getSeverity()).isEqualTo(CppcheckXmlParser.Severity.WARNING);
+    assertThat(file.getMsg()).isEqualTo("Null pointer");
+    assertThat(file.getVerbose()).isEqualTo("Possible null pointer dereference: été");
+    assertThat(file.getFilename()).isEqualTo("src/a.c");
+    assertThat(file.getLine()).isEqualTo(5);
+    assertThat(file.getSecondaryLocations().size()).isEqualTo(1);
+    assertThat(file.getSecondaryLocations().getFilename(0)).isEqualTo("src/b.c");
+    assertThat(file.getSecondaryLocations().getLine(0)).isEqualTo(4);
+
+    assertThat(messages.get(2).getId()).isEqualTo("memleak");
+    assertThat(messages.get(2).getVerbose()).isEqualTo("Memory leak");
+    assertThat(messages.get(2).getSecondaryLocations()).isNull();
+    assertThat(messages.get(3).getMsg()).isNull();
+    assertThat(messages.get(3).getVerbose()).isNull();
+  }
+
+  @Test
+  public void should_index_messages_of_all_rules() throws Exception {
+    File report = new CppcheckReportGenerator().setErrors(500).setFiles(10).write(temp.newFile("generated.xml"));
+    Predicate<String> memleak = Predicates.equalTo("memleak");
+    List<String> expected = Lists.newArrayList();
+    CppcheckXmlParser.parse(report, memleak, collect(expected));
+    assertThat(expected).isNotEmpty();
+
+    List<String> parsed = Lists.newArrayList();
+    CppcheckReports.parse(ImmutableList.of(report), INDEXED, memleak, collect(parsed));
+    assertThat(parsed).isEqualTo(expected);
+
+    List<String> replayed = Lists.newArrayList();
+    CppcheckReportIndex.open(report).replay(memleak, collect(replayed));
+    assertThat(replayed).isEqualTo(groupedByFile(expected));
+    List<String> all = Lists.newArrayList();
+    CppcheckReportIndex.open(report).replay(Predicates.<String>alwaysTrue(), collect(all));
+    assertThat(all.size()).isEqualTo(500);
+  }
+
+  @Test
+  public void should_ignore_outdated_index() throws Exception {
+    File report = new CppcheckReportGenerator().setErrors(100).setFiles(10).write(temp.newFile("generated.xml"));
+    CppcheckReports.parse(ImmutableList.of(report), INDEXED, Predicates.<String>alwaysTrue(), collect(Lists.<String>newArrayList()));
+    assertThat(CppcheckReportIndex.open(report)).isNotNull();
+
+    // same size and date, other content
+    long lastModified = report.lastModified();
+    new CppcheckReportGenerator().setErrors(100).setFiles(10).setSeed(7).write(report);
+    report.setLastModified(lastModified);
+    assertThat(CppcheckReportIndex.open(report)).isNull();
+
+    List<String> expected = Lists.newArrayList();
+    CppcheckXmlParser.parse(report, collect(expected));
+    List<String> parsed = Lists.newArrayList();
+    CppcheckReports.parse(ImmutableList.of(report), INDEXED, Predicates.<String>alwaysTrue(), collect(parsed));
+    assertThat(parsed).isEqualTo(expected);
+    List<String> replayed = Lists.newArrayList();
+    CppcheckReportIndex.open(report).replay(Predicates.<String>alwaysTrue(), collect(replayed));
+    assertThat(replayed).isEqualTo(groupedByFile(expected));
+  }
+
+  @Test
+  public void should_ignore_index_of_report_changed_in_the_middle() throws Exception {
+    File report = new CppcheckReportGenerator().setErrors(2000).setFiles(10).write(temp.newFile("generated.xml"));
+    CppcheckReports.parse(ImmutableList.of(report), INDEXED, Predicates.<String>alwaysTrue(), collect(Lists.<String>newArrayList()));
+    assertThat(CppcheckReportIndex.open(report)).isNotNull();
+
+    long lastModified = report.lastModified();
+    RandomAccessFile file = new RandomAccessFile(report, "rw");
+    try {
+      file.seek(report.length() / 2);
+      int b = file.read();
+      file.seek(report.length() / 2);
+      file.write(b ^ 1);
+    } finally {
+      file.close();
+    }
+    report.setLastModified(lastModified);
+    assertThat(CppcheckReportIndex.open(report)).isNull();
+  }
+
+  @Test
+  public void should_release_mapping_of_index() throws Exception {
+    File maps = new File("/proc/self/maps");
+    assumeTrue(maps.isFile());
+    File report = new CppcheckReportGenerator().setErrors(100).setFiles(10).write(temp.newFile("generated.xml"));
+    CppcheckReports.parse(ImmutableList.of(report), INDEXED, Predicates.<String>alwaysTrue(), collect(Lists.<String>newArrayList()));
+    String sidecar = CppcheckReportIndex.sidecarOf(report).getCanonicalPath();
+
+    CppcheckReportIndex index = CppcheckReportIndex.open(report);
+    assertThat(Files.toString(maps, Charsets.UTF_8)).contains(sidecar);
+    index.close();
+    assertThat(Files.toString(maps, Charsets.UTF_8)).doesNotContain(sidecar);
+
+    CppcheckReports.parse(ImmutableList.of(report), INDEXED, Predicates.<String>alwaysTrue(), collect(Lists.<String>newArrayList()));
+    assertThat(Files.toString(maps, Charsets.UTF_8)).doesNotContain(sidecar);
+  }
+
+  @Test
+  public void should_store_again_strings_which_are_no_longer_cached() throws Exception {
+    File report = new CppcheckReportGenerator().setErrors(1000).setFiles(20).setLocations(3).write(temp.newFile("generated.xml"));
+    List<String> expected = Lists.newArrayList();
+    CppcheckReportIndex.Writer writer = new CppcheckReportIndex.Writer(report, Predicates.<String>alwaysTrue(), collect(expected), 4);
+    CppcheckXmlParser.parse(report, writer);
+    writer.finish();
+    assertThat(temp.getRoot().list()).containsOnly("generated.xml", "generated.xml" + CppcheckReportIndex.SUFFIX);
+
+    List<String> replayed = Lists.newArrayList();
+    CppcheckReportIndex index = CppcheckReportIndex.open(report);
+    index.replay(Predicates.<String>alwaysTrue(), collect(replayed));
+    index.close();
+    assertThat(replayed).isEqualTo(groupedByFile(expected));
+  }
+
+  @Test
+  public void should_ignore_corrupted_index() throws Exception {
+    File report = new CppcheckReportGenerator().setErrors(100).setFiles(10).write(temp.newFile("generated.xml"));
+    Files.write("not an index", CppcheckReportIndex.sidecarOf(report), Charsets.UTF_8);
+    assertThat(CppcheckReportIndex.open(report)).isNull();
+
+    CppcheckReports.parse(ImmutableList.of(report), INDEXED, Predicates.<String>alwaysTrue(), collect(Lists.<String>newArrayList()));
+    assertThat(CppcheckReportIndex.open(report)).isNotNull();
+  }
+
+  private static List<String> groupedByFile(List<String> messages) {
+    // messages of the project first, then those of each file in the order of the report
+    Map<String, List<String>> messagesByFile = Maps.newLinkedHashMap();
+    messagesByFile.put("null", Lists.<String>newArrayList());
+    for (String message : messages) {
+      String filename = message.substring(message.indexOf('@') + 1);
+      if (!messagesByFile.containsKey(filename)) {
+        messagesByFile.put(filename, Lists.<String>newArrayList());
+      }
+      messagesByFile.get(filename).add(message);
+    }
+    List<String> grouped = Lists.newArrayList();
+    for (List<String> messagesOfFile : messagesByFile.values()) {
+      grouped.addAll(messagesOfFile);
+    }
+    return grouped;
+  }
+
+  private static CppcheckXmlParser.MessageHandler collect(final List<String> messages) {
+    return new CppcheckXmlParser.MessageHandler() {
+      @Override
+      public void onMessage(CppcheckXmlParser.Message message) {
+        StringBuilder sb = new StringBuilder().append(message.getId()).append('|').append(message.getSeverity()).append('|').append(message.getMsg())
+          .append('|').append(message.getVerbose()).append('|').append(message.getLine());
+        CppcheckXmlParser.Locations locations = message.getSecondaryLocations();
+        if (locations != null) {
+          for (int i = 0; i < locations.size(); i++) {
+            sb.append('|').append(locations.getFilename(i)).append(':').append(locations.getLine(i));
+          }
+        }
+        messages.add(sb.append('@').append(message.getFilename()).toString());
+      }
+    };
+  }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.utils.SonarException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CppcheckReportInputTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final File report = new File("src/test/resources/cppcheck2.xml");
+
+  @Test
+  public void should_parse_gzip_compressed_report() throws Exception {
+    File compressed = temp.newFile("cppcheck.xml.gz");
+    OutputStream os = new GZIPOutputStream(new FileOutputStream(compressed));
+    Files.copy(report, os);
+    os.close();
+
+    assertThat(CppcheckReportInput.isCompressed(compressed)).isTrue();
+    assertThat(ImmutableList.copyOf(CppcheckXmlParser.parse(compressed))).onProperty("id").containsExactly(
+      "autoVariables", "missingInclude", "arrayIndexOutOfBounds", "bufferAccessOutOfBounds", "erase", "memleak", "outOfBounds", "resourceLeak", "syntaxError");
+  }
+
+  @Test
+  public void should_detect_compression_from_content() throws Exception {
+    assertThat(CppcheckReportInput.isCompressed(report)).isFalse();
+    assertThat(CppcheckReportInput.isCompressed(temp.newFile("empty.xml.gz"))).isFalse();
+  }
+
+  @Test
+  public void should_fail_on_unsupported_compression() throws Exception {
+    File compressed = temp.newFile("cppcheck.xml.zst");
+    Files.write(new byte[] {(byte) 0x28, (byte) 0xb5, (byte) 0x2f, (byte) 0xfd, 0, 0}, compressed);
+    assertThat(CppcheckReportInput.isCompressed(compressed)).isTrue();
+
+    thrown.expect(SonarException.class);
+    thrown.expectMessage("Unsupported compression of Cppcheck report, only gzip is supported");
+    CppcheckXmlParser.parse(compressed);
+  }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import org.junit.Test;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.resources.Project;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CppcheckReportReleaseTest {
+
+  private final CppcheckReportCache reportCache = mock(CppcheckReportCache.class);
+  private final CppcheckReportRelease release = new CppcheckReportRelease(reportCache);
+
+  @Test
+  public void should_execute_on_root_project_only() {
+    Project root = mock(Project.class);
+    when(root.isRoot()).thenReturn(true);
+    assertThat(release.shouldExecuteOnProject(root)).isTrue();
+    assertThat(release.shouldExecuteOnProject(mock(Project.class))).isFalse();
+  }
+
+  @Test
+  public void should_release_parsed_reports() {
+    release.executeOn(mock(Project.class), mock(SensorContext.class));
+    verify(reportCache).release();
+  }
+
+}
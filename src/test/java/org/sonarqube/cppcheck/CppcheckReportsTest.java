@@ -0,0 +1,174 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.utils.SonarException;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class CppcheckReportsTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private static final File REPORT = new File("src/test/resources/cppcheck2.xml");
+  private static final File NO_LOCATION_REPORT = new File("src/test/resources/no-location.xml");
+
+  @Test
+  public void should_give_messages_in_order_of_reports() {
+    List<File> reports = ImmutableList.of(NO_LOCATION_REPORT, REPORT, NO_LOCATION_REPORT, REPORT);
+    List<String> sequential = parse(reports, 1);
+    assertThat(sequential).hasSize(20);
+    assertThat(sequential.get(0)).isEqualTo("missingInclude");
+    assertThat(sequential.get(1)).isEqualTo("autoVariables");
+
+    assertThat(parse(reports, 4)).isEqualTo(sequential);
+  }
+
+  @Test
+  public void should_bound_messages_parsed_ahead_of_handled_report() throws Exception {
+    int errors = 3 * CppcheckReports.QUEUE_CAPACITY * CppcheckReports.BATCH_SIZE;
+    File report = new CppcheckReportGenerator().setErrors(errors).write(temp.newFile("generated.xml"));
+    List<File> reports = ImmutableList.of(REPORT, report, report);
+    final AtomicInteger parsed = new AtomicInteger();
+    final AtomicInteger parsedBeforeHandling = new AtomicInteger(-1);
+    final List<String> ids = Lists.newArrayList();
+    CppcheckReports.parse(reports, new CppcheckReports.Options(3, CppcheckXmlParser.Backend.STAXMATE, false), new Predicate<String>() {
+      @Override
+      public boolean apply(String id) {
+        parsed.incrementAndGet();
+        return true;
+      }
+    }, new CppcheckXmlParser.MessageHandler() {
+      @Override
+      public void onMessage(CppcheckXmlParser.Message message) {
+        if (ids.isEmpty()) {
+          // other reports are parsed ahead while the first message is handled, until their parsers are blocked
+          int before = -1;
+          while (parsed.get() != before) {
+            before = parsed.get();
+            sleep(300);
+          }
+          parsedBeforeHandling.set(before);
+        }
+        ids.add(message.getId());
+      }
+    });
+
+    // parsers of the next reports are blocked once their queue is full
+    int maxParsedAhead = (CppcheckReports.QUEUE_CAPACITY + 1) * CppcheckReports.BATCH_SIZE + 1;
+    assertThat(parsedBeforeHandling.get()).isLessThanOrEqualTo(9 + 2 * maxParsedAhead);
+    assertThat(ids).isEqualTo(parse(reports, 1));
+  }
+
+  @Test
+  public void should_propagate_parse_failure() {
+    thrown.expect(SonarException.class);
+    thrown.expectMessage("Unable to parse file: notfound.xml");
+    parse(ImmutableList.of(REPORT, new File("notfound.xml")), 2);
+  }
+
+  @Test
+  public void should_pipeline_parsing_and_handling() throws Exception {
+    File report = new CppcheckReportGenerator().setErrors(5 * CppcheckReports.BATCH_SIZE + 1).write(temp.newFile("generated.xml"));
+    List<File> reports = ImmutableList.of(NO_LOCATION_REPORT, report, REPORT);
+
+    assertThat(parsePipelined(reports, 1)).isEqualTo(parse(reports, 1));
+    assertThat(parsePipelined(reports, 2)).isEqualTo(parse(reports, 1));
+  }
+
+  @Test
+  public void should_propagate_pipelined_parse_failure_after_parsed_messages() {
+    final List<String> ids = Lists.newArrayList();
+    try {
+      CppcheckReports.parsePipelined(ImmutableList.of(REPORT, new File("notfound.xml")), new CppcheckReports.Options(1, CppcheckXmlParser.Backend.STAXMATE, false), Predicates.<String>alwaysTrue(), new CppcheckXmlParser.MessageHandler() {
+        @Override
+        public void onMessage(CppcheckXmlParser.Message message) {
+          ids.add(message.getId());
+        }
+      });
+      fail();
+    } catch (SonarException e) {
+      assertThat(e.getMessage()).isEqualTo("Unable to parse file: notfound.xml");
+    }
+    assertThat(ids).hasSize(9);
+  }
+
+  @Test
+  public void should_stop_pipelined_parse_on_handler_failure() throws Exception {
+    // enough batches to fill the queue and block the parser
+    File report = new CppcheckReportGenerator().setErrors(2 * CppcheckReports.QUEUE_CAPACITY * CppcheckReports.BATCH_SIZE).write(temp.newFile("generated.xml"));
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("handler failure");
+    CppcheckReports.parsePipelined(ImmutableList.of(report), new CppcheckReports.Options(1, CppcheckXmlParser.Backend.STAXMATE, false), Predicates.<String>alwaysTrue(), new CppcheckXmlParser.MessageHandler() {
+      @Override
+      public void onMessage(CppcheckXmlParser.Message message) {
+        throw new IllegalArgumentException("handler failure");
+      }
+    });
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static List<String> parsePipelined(List<File> reports, int threads) {
+    final List<String> ids = Lists.newArrayList();
+    CppcheckReports.parsePipelined(reports, new CppcheckReports.Options(threads, CppcheckXmlParser.Backend.STAXMATE, false), Predicates.<String>alwaysTrue(), new CppcheckXmlParser.MessageHandler() {
+      @Override
+      public void onMessage(CppcheckXmlParser.Message message) {
+        ids.add(message.getId());
+      }
+    });
+    return ids;
+  }
+
+  private static List<String> parse(List<File> reports, int threads) {
+    final List<String> ids = Lists.newArrayList();
+    CppcheckReports.parse(reports, new CppcheckReports.Options(threads, CppcheckXmlParser.Backend.STAXMATE, false), Predicates.<String>alwaysTrue(), new CppcheckXmlParser.MessageHandler() {
+      @Override
+      public void onMessage(CppcheckXmlParser.Message message) {
+        ids.add(message.getId());
+      }
+    });
+    return ids;
+  }
+
+}
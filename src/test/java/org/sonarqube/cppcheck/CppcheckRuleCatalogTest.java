@@ -0,0 +1,118 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.sonar.api.utils.SonarException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CppcheckRuleCatalogTest {
+
+  @Test
+  public void should_match_xml_descriptions() {
+    List<CppcheckXmlParser.Message> expected = ImmutableList.copyOf(CppcheckXmlParser.parse(new File("src/main/resources/org/sonarqube/cppcheck.xml")));
+    List<CppcheckXmlParser.Message> rules = CppcheckRuleCatalog.load();
+
+    assertThat(rules).hasSize(expected.size());
+    for (int i = 0; i < rules.size(); i++) {
+      assertSameRule(rules.get(i), expected.get(i));
+    }
+  }
+
+  @Test
+  public void should_parse_xml_descriptions_when_not_compiled() {
+    List<CppcheckXmlParser.Message> compiled = CppcheckRuleCatalog.load();
+    List<CppcheckXmlParser.Message> rules = CppcheckRuleCatalog.load("/org/sonarqube/missing.bin", CppcheckRuleCatalog.XML_RESOURCE);
+
+    assertThat(rules).hasSize(compiled.size());
+    for (int i = 0; i < rules.size(); i++) {
+      assertSameRule(rules.get(i), compiled.get(i));
+    }
+  }
+
+  @Test(expected = SonarException.class)
+  public void should_fail_without_descriptions() {
+    CppcheckRuleCatalog.load("/org/sonarqube/missing.bin", "/org/sonarqube/missing.xml");
+  }
+
+  @Test
+  public void should_write_and_read_rules() throws IOException {
+    List<CppcheckXmlParser.Message> rules = ImmutableList.of(
+      new CppcheckXmlParser.Message(null, "memleak", CppcheckXmlParser.Severity.NONE, "Memory leak", "Memory leak: é"),
+      new CppcheckXmlParser.Message("S1862", "duplicateIf", CppcheckXmlParser.Severity.NONE, "Duplicate conditions", "Same condition"));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CppcheckRuleCatalog.write(rules, out);
+
+    List<CppcheckXmlParser.Message> read = CppcheckRuleCatalog.read(new ByteArrayInputStream(out.toByteArray()));
+    assertThat(read).hasSize(2);
+    assertSameRule(read.get(0), rules.get(0));
+    assertSameRule(read.get(1), rules.get(1));
+  }
+
+  @Test
+  public void should_share_definitions_between_languages() {
+    List<CppcheckRuleCatalog.Definition> definitions = CppcheckRuleCatalog.definitions();
+    assertThat(CppcheckRuleCatalog.definitions()).isSameAs(definitions);
+    assertThat(definitions).hasSize(CppcheckRuleCatalog.load().size());
+
+    CppcheckRuleCatalog.Definition allLanguages = find(definitions, "duplicateIf");
+    assertThat(allLanguages.isDeprecated()).isTrue();
+    assertThat(allLanguages.getReplacementKey("c")).isEqualTo("S1862");
+    assertThat(allLanguages.getReplacementKey("cpp")).isEqualTo("S1862");
+
+    CppcheckRuleCatalog.Definition cppOnly = find(definitions, "initializerList");
+    assertThat(cppOnly.isDeprecated()).isTrue();
+    assertThat(cppOnly.getReplacementKey("c")).isNull();
+    assertThat(cppOnly.getReplacementKey("CPP")).isEqualTo("S3229");
+
+    assertThat(find(definitions, "memleak").isDeprecated()).isFalse();
+    assertThat(find(definitions, "memleak").getReplacementKey("c")).isNull();
+  }
+
+  private static CppcheckRuleCatalog.Definition find(List<CppcheckRuleCatalog.Definition> definitions, String id) {
+    for (CppcheckRuleCatalog.Definition definition : definitions) {
+      if (definition.getId().equals(id)) {
+        return definition;
+      }
+    }
+    throw new IllegalArgumentException(id);
+  }
+
+  @Test(expected = IOException.class)
+  public void should_fail_on_unexpected_format() throws IOException {
+    CppcheckRuleCatalog.read(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}));
+  }
+
+  private static void assertSameRule(CppcheckXmlParser.Message rule, CppcheckXmlParser.Message expected) {
+    assertThat(rule.getId()).isEqualTo(expected.getId());
+    assertThat(rule.getReplacement()).isEqualTo(expected.getReplacement());
+    assertThat(rule.getMsg()).isEqualTo(expected.getMsg());
+    assertThat(rule.getVerbose()).isEqualTo(expected.getVerbose());
+  }
+
+}
@@ -19,14 +19,7 @@
  */
 package org.sonarqube.cppcheck;
 
-import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.io.Closeables;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.lang.StringEscapeUtils;
-import org.apache.commons.lang.StringUtils;
 import org.custommonkey.xmlunit.Diff;
 import org.custommonkey.xmlunit.XMLUnit;
 import org.junit.Test;
@@ -35,15 +28,8 @@ import org.sonar.api.rules.RulePriority;
 
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Properties;
-import java.util.TreeMap;
 
 import static org.fest.assertions.Assertions.assertThat;
 
@@ -79,88 +65,15 @@ public class CppcheckRuleRepositoryTest {
     assertThat(diff.identical()).as("Generated cppcheck.xml identical to currently used").isTrue();
   }
 
-  public static void generate() throws Exception {
-    PrintWriter writer = new PrintWriter(new FileWriter("target/generated-cppcheck.xml"));
-    TreeMap<String, RuleDescription> map = Maps.newTreeMap();
-    String prevVersion = "";
-    for (String version : listVersions()) {
-      for (CppcheckXmlParser.Message msg : CppcheckXmlParser.parse(new File("src/main/files/cppcheck-" + version + ".xml"))) {
-        RuleDescription ruleDescription = map.get(msg.getId());
-        if (ruleDescription == null) {
-          // new rule
-          ruleDescription = new RuleDescription();
-          map.put(msg.getId(), ruleDescription);
-          ruleDescription.minVersion = version;
-        } else {
-          // existing rule
-          if (!prevVersion.equals(ruleDescription.maxVersion)) {
-            System.err.println("Merge of rule, which appear and disappear from version to version: " + msg.getId());
-          }
-        }
-        ruleDescription.maxVersion = version;
-        // Supposed that message from newer version is better
-        ruleDescription.msg = msg;
-      }
-      prevVersion = version;
-    }
-
-    Properties replacements = loadReplacements();
-
-    writer.println("<results version=\"2\">");
-    writer.println("<errors>");
-    for (Map.Entry<String, RuleDescription> entry : map.entrySet()) {
-      RuleDescription description = entry.getValue();
-      final String versions;
-      if (description.maxVersion.equals(prevVersion)) {
-        versions = " (since Cppcheck " + description.minVersion + ")";
-      } else if (description.minVersion.equals(description.maxVersion)) {
-        versions = " (Cppcheck " + description.minVersion + ")";
-      } else {
-        versions = " (Cppcheck " + description.minVersion + "-" + description.maxVersion + ")";
-      }
-      writer.append("<error ");
-      if (replacements.containsKey(entry.getKey())) {
-        writer.append("SonarQube=\"").append(replacements.getProperty(entry.getKey())).append("\"\n    ");
-      }
-      writer.append("id=\"").append(entry.getKey())
-        .append("\" msg=\"").append(StringEscapeUtils.escapeXml(description.msg.getMsg() + versions))
-        .append("\" verbose=\"").append(StringEscapeUtils.escapeXml(description.msg.getVerbose()))
-        .append("\" />")
-        .println();
-    }
-    writer.println("</errors>");
-    writer.println("</results>");
-    writer.close();
-  }
-
-  private static List<String> listVersions() {
-    Collection<File> files = FileUtils.listFiles(new File("src/main/files"), new String[]{"xml"}, false);
-    List<String> names = Lists.newArrayList();
-    for (File file : files) {
-      names.add(StringUtils.substringBetween(file.getName(), "cppcheck-", ".xml"));
-    }
-    Collections.sort(names);
-    return names;
-  }
-
-  private static class RuleDescription {
-    String minVersion, maxVersion;
-    CppcheckXmlParser.Message msg;
+  @Test
+  public void should_sort_versions_numerically() {
+    List<String> versions = Lists.newArrayList("1.9", "2.1.1", "1.10", "2.1", "1.52");
+    Collections.sort(versions, CppcheckRulesMerger.VERSION_ORDER);
+    assertThat(versions).containsExactly("1.9", "1.10", "1.52", "2.1", "2.1.1");
   }
 
-  @VisibleForTesting
-  static Properties loadReplacements() {
-    Properties properties = new Properties();
-    FileReader reader = null;
-    try {
-      reader = new FileReader("src/main/files/cppcheck_replacements.properties");
-      properties.load(reader);
-    } catch (IOException e) {
-      throw Throwables.propagate(e);
-    } finally {
-      Closeables.closeQuietly(reader);
-    }
-    return properties;
+  public static void generate() throws Exception {
+    new CppcheckRulesMerger(new File("src/main/files")).write(new File("target/generated-cppcheck.xml"));
   }
 
 }
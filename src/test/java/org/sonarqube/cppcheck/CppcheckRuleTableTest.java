@@ -0,0 +1,102 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.profiles.RulesProfile;
+import org.sonar.api.rules.ActiveRule;
+import org.sonar.api.rules.Rule;
+import org.sonar.api.rules.RuleFinder;
+import org.sonar.api.rules.RuleQuery;
+
+import java.util.Collections;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CppcheckRuleTableTest {
+
+  private RulesProfile profile;
+  private RuleFinder ruleFinder;
+  private Rule rule;
+
+  @Before
+  public void setUp() {
+    profile = mock(RulesProfile.class);
+    ruleFinder = mock(RuleFinder.class);
+    rule = Rule.create("cpp-cppcheck", "memleak");
+    ActiveRule activeRule = mock(ActiveRule.class);
+    when(activeRule.getRule()).thenReturn(rule);
+    when(profile.getActiveRulesByRepository("cpp-cppcheck")).thenReturn(ImmutableList.of(activeRule));
+    when(profile.getActiveRulesByRepository("c-cppcheck")).thenReturn(Collections.<ActiveRule>emptyList());
+    when(ruleFinder.findAll(argThat(new RepositoryQuery("c-cppcheck"))))
+      .thenReturn(ImmutableList.of(Rule.create("c-cppcheck", "memleak"), Rule.create("c-cppcheck", "resourceLeak")));
+    when(ruleFinder.findAll(argThat(new RepositoryQuery("cpp-cppcheck"))))
+      .thenReturn(ImmutableList.of(rule, Rule.create("cpp-cppcheck", "resourceLeak")));
+  }
+
+  @Test
+  public void should_index_active_rules() {
+    CppcheckRuleTable table = new CppcheckRuleTable(profile, ruleFinder, "c", "cpp");
+    assertThat(table.hasActiveRules("c")).isFalse();
+    assertThat(table.hasActiveRules("cpp")).isTrue();
+    assertThat(table.get("cpp", "memleak")).isSameAs(rule);
+    assertThat(table.get("c", "memleak")).isNull();
+    assertThat(table.get("cpp", "resourceLeak")).isNull();
+    assertThat(table.get("cpp", "unknown")).isNull();
+    table.logUnknownRules();
+    verify(ruleFinder, never()).findByKey(anyString(), anyString());
+    verify(ruleFinder, never()).findByKey(any(org.sonar.api.rule.RuleKey.class));
+  }
+
+  @Test
+  public void should_filter_rules_known_but_never_active() {
+    Predicate<String> filter = new CppcheckRuleTable(profile, ruleFinder, "c", "cpp").ruleFilter();
+    assertThat(filter.apply("memleak")).isTrue();
+    assertThat(filter.apply("resourceLeak")).isFalse();
+    assertThat(filter.apply("unknown")).isTrue();
+    assertThat(filter).isEqualTo(new CppcheckRuleTable(profile, ruleFinder, "c", "cpp").ruleFilter());
+  }
+
+  private static class RepositoryQuery extends org.mockito.ArgumentMatcher<RuleQuery> {
+
+    private final String repositoryKey;
+
+    RepositoryQuery(String repositoryKey) {
+      this.repositoryKey = repositoryKey;
+    }
+
+    @Override
+    public boolean matches(Object query) {
+      return query != null && repositoryKey.equals(((RuleQuery) query).getRepositoryKey());
+    }
+
+  }
+
+}
@@ -0,0 +1,272 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Merges the rules exported from each version of Cppcheck, {@code cppcheck-<version>.xml} in {@code src/main/files},
+ * into {@code cppcheck.xml}. The exports are parsed concurrently, each one handing its rules over through its own
+ * bounded queue, so that rules are merged version after version while the newer exports are parsed, without keeping
+ * the rules of all the exports in memory. Rules are annotated with the versions of Cppcheck providing them and with
+ * their SonarQube replacement from {@code cppcheck_replacements.properties}.
+ * <p/>
+ * Run with: {@code mvn -Pupdate-rules test-compile exec:java}
+ */
+public class CppcheckRulesMerger {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CppcheckRulesMerger.class);
+
+  static final String REPLACEMENTS = "cppcheck_replacements.properties";
+
+  private static final int QUEUE_CAPACITY = 1024;
+  // end of the rules of an export, put even when its parse fails
+  private static final CppcheckXmlParser.Message END = new CppcheckXmlParser.Message(null, "", CppcheckXmlParser.Severity.NONE, null, null);
+
+  private final File dir;
+
+  public CppcheckRulesMerger(File dir) {
+    this.dir = dir;
+  }
+
+  /**
+   * Arguments are the directory of the exports and the file to write.
+   */
+  public static void main(String[] args) throws IOException {
+    new CppcheckRulesMerger(new File(args[0])).write(new File(args[1]));
+  }
+
+  public void write(File output) throws IOException {
+    Map<String, RuleDescription> rules = merge();
+    String lastVersion = Collections.max(listVersions(), VERSION_ORDER);
+    Properties replacements = loadReplacements(new File(dir, REPLACEMENTS));
+
+    output.getParentFile().mkdirs();
+    Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), Charsets.UTF_8));
+    try {
+      writer.write("<results version=\"2\">\n");
+      writer.write("<errors>\n");
+      for (Map.Entry<String, RuleDescription> entry : rules.entrySet()) {
+        RuleDescription description = entry.getValue();
+        writer.append("<error ");
+        if (replacements.containsKey(entry.getKey())) {
+          writer.append("SonarQube=\"").append(replacements.getProperty(entry.getKey())).append("\"\n    ");
+        }
+        writer.append("id=\"").append(entry.getKey())
+          .append("\" msg=\"").append(StringEscapeUtils.escapeXml(description.msg.getMsg() + description.versions(lastVersion)))
+          .append("\" verbose=\"").append(StringEscapeUtils.escapeXml(description.msg.getVerbose()))
+          .append("\" />\n");
+      }
+      writer.write("</errors>\n");
+      writer.write("</results>\n");
+    } finally {
+      // a failure to flush the end of the rules must not be ignored
+      writer.close();
+    }
+  }
+
+  /**
+   * Rules sorted by id, with the message of the latest version providing them.
+   */
+  Map<String, RuleDescription> merge() {
+    List<String> versions = listVersions();
+    TreeMap<String, RuleDescription> map = Maps.newTreeMap();
+    ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    try {
+      List<BlockingQueue<CppcheckXmlParser.Message>> queues = Lists.newArrayList();
+      List<Future<Void>> parsers = Lists.newArrayList();
+      for (String version : versions) {
+        // exports are started in order, so the parser of the export being merged never waits for a thread
+        BlockingQueue<CppcheckXmlParser.Message> queue = new ArrayBlockingQueue<CppcheckXmlParser.Message>(QUEUE_CAPACITY);
+        queues.add(queue);
+        parsers.add(executor.submit(new ExportParser(new File(dir, "cppcheck-" + version + ".xml"), queue)));
+      }
+      String prevVersion = "";
+      for (int i = 0; i < versions.size(); i++) {
+        String version = versions.get(i);
+        for (CppcheckXmlParser.Message msg = queues.get(i).take(); msg != END; msg = queues.get(i).take()) {
+          merge(map, version, prevVersion, msg);
+        }
+        parsers.get(i).get();
+        prevVersion = version;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw Throwables.propagate(e);
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    return map;
+  }
+
+  private static void merge(Map<String, RuleDescription> map, String version, String prevVersion, CppcheckXmlParser.Message msg) {
+    RuleDescription ruleDescription = map.get(msg.getId());
+    if (ruleDescription == null) {
+      // new rule
+      ruleDescription = new RuleDescription();
+      map.put(msg.getId(), ruleDescription);
+      ruleDescription.minVersion = version;
+    } else if (!prevVersion.equals(ruleDescription.maxVersion)) {
+      LOG.warn("Merge of rule, which appear and disappear from version to version: " + msg.getId());
+    }
+    ruleDescription.maxVersion = version;
+    // Supposed that message from newer version is better
+    ruleDescription.msg = msg;
+  }
+
+  /**
+   * Parses an export into a bounded queue, followed by the end of its rules.
+   */
+  private static class ExportParser implements Callable<Void> {
+
+    private final File export;
+    private final BlockingQueue<CppcheckXmlParser.Message> queue;
+
+    ExportParser(File export, BlockingQueue<CppcheckXmlParser.Message> queue) {
+      this.export = export;
+      this.queue = queue;
+    }
+
+    @Override
+    public Void call() throws InterruptedException {
+      try {
+        CppcheckXmlParser.parse(export, new CppcheckXmlParser.MessageHandler() {
+          @Override
+          public void onMessage(CppcheckXmlParser.Message message) {
+            try {
+              queue.put(message);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              throw Throwables.propagate(e);
+            }
+          }
+        });
+      } finally {
+        // the merge is interrupted rather than waiting for room when it failed
+        queue.put(END);
+      }
+      return null;
+    }
+
+  }
+
+  /**
+   * Versions of the exports, from the oldest to the newest.
+   */
+  List<String> listVersions() {
+    List<String> versions = Lists.newArrayList();
+    for (File file : FileUtils.listFiles(dir, new String[] {"xml"}, false)) {
+      String version = StringUtils.substringBetween(file.getName(), "cppcheck-", ".xml");
+      if (version != null) {
+        versions.add(version);
+      }
+    }
+    Collections.sort(versions, VERSION_ORDER);
+    return versions;
+  }
+
+  /**
+   * Compares versions such as 1.9, 1.10 and 2.1.1 number by number.
+   */
+  static final Comparator<String> VERSION_ORDER = new Comparator<String>() {
+    @Override
+    public int compare(String v1, String v2) {
+      String[] n1 = StringUtils.split(v1, '.');
+      String[] n2 = StringUtils.split(v2, '.');
+      for (int i = 0; i < Math.min(n1.length, n2.length); i++) {
+        int c = compareNumbers(n1[i], n2[i]);
+        if (c != 0) {
+          return c;
+        }
+      }
+      return n1.length - n2.length;
+    }
+
+    private int compareNumbers(String n1, String n2) {
+      if (StringUtils.isNumeric(n1) && StringUtils.isNumeric(n2)) {
+        return Long.valueOf(n1).compareTo(Long.valueOf(n2));
+      }
+      return n1.compareTo(n2);
+    }
+  };
+
+  static Properties loadReplacements(File file) {
+    Properties properties = new Properties();
+    Reader reader = null;
+    try {
+      reader = new InputStreamReader(new FileInputStream(file), Charsets.UTF_8);
+      properties.load(reader);
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    } finally {
+      Closeables.closeQuietly(reader);
+    }
+    return properties;
+  }
+
+  static class RuleDescription {
+    String minVersion, maxVersion;
+    CppcheckXmlParser.Message msg;
+
+    String versions(String lastVersion) {
+      if (maxVersion.equals(lastVersion)) {
+        return " (since Cppcheck " + minVersion + ")";
+      } else if (minVersion.equals(maxVersion)) {
+        return " (Cppcheck " + minVersion + ")";
+      }
+      return " (Cppcheck " + minVersion + "-" + maxVersion + ")";
+    }
+  }
+
+}
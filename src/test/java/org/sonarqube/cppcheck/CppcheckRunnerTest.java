@@ -0,0 +1,144 @@
+/*
+ * SonarQube :: Cppcheck Plugin
+ * Copyright (C) 2016-2016 SonarSource SA
+ * mailto:contact AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonarqube.cppcheck;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.apache.commons.lang.SystemUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.utils.SonarException;
+
+import java.io.File;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class CppcheckRunnerTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private File executable;
+  private File baseDir;
+  private File cacheDir;
+  private File log;
+
+  @Before
+  public void setUp() throws Exception {
+    // the stub of Cppcheck is a shell script
+    assumeTrue(!SystemUtils.IS_OS_WINDOWS);
+    executable = new File(temp.newFolder(), "cppcheck.sh");
+    Files.copy(new File("src/test/resources/runner/cppcheck.sh"), executable);
+    executable.setExecutable(true);
+    baseDir = temp.newFolder();
+    cacheDir = new File(temp.getRoot(), "work/cppcheck/results");
+    log = new File(temp.getRoot(), "cppcheck.log");
+  }
+
+  @Test
+  public void should_run_cppcheck_on_each_file() throws Exception {
+    List<InputFile> files = ImmutableList.of(source("src/a.c", "int a;"), source("src/b.c", "int b;"), source("src/c.c", "int c;"));
+    CppcheckRunner runner = runner("--enable=all");
+
+    List<String> messages = run(runner, files);
+
+    // results are parsed in the order of the files, whatever the order of the processes
+    assertThat(messages).containsExactly("memleak@src/a.c:3", "missingInclude@null:0", "memleak@src/b.c:3", "missingInclude@null:0",
+      "memleak@src/c.c:3", "missingInclude@null:0");
+    assertThat(Files.readLines(log, Charsets.UTF_8)).containsOnly("src/a.c", "src/b.c", "src/c.c");
+    assertThat(runner.getMisses()).isEqualTo(3);
+    assertThat(runner.getHits()).isEqualTo(0);
+    assertThat(cacheDir.list()).hasSize(3);
+  }
+
+  @Test
+  public void should_reuse_results_of_unchanged_files() throws Exception {
+    InputFile a = source("src/a.c", "int a;");
+    InputFile b = source("src/b.c", "int b;");
+    List<String> first = run(runner("--enable=all"), ImmutableList.of(a, b));
+
+    CppcheckRunner unchanged = runner("--enable=all");
+    assertThat(run(unchanged, ImmutableList.of(a, b))).isEqualTo(first);
+    assertThat(unchanged.getHits()).isEqualTo(2);
+    assertThat(Files.readLines(log, Charsets.UTF_8)).hasSize(2);
+
+    Files.write("int b = 0;", b.file(), Charsets.UTF_8);
+    CppcheckRunner changed = runner("--enable=all");
+    assertThat(run(changed, ImmutableList.of(a, b))).isEqualTo(first);
+    assertThat(changed.getHits()).isEqualTo(1);
+    assertThat(changed.getMisses()).isEqualTo(1);
+    List<String> lines = Files.readLines(log, Charsets.UTF_8);
+    assertThat(lines).hasSize(3);
+    // both files are checked concurrently by the first run
+    assertThat(lines.subList(0, 2)).containsOnly("src/a.c", "src/b.c");
+    assertThat(lines.get(2)).isEqualTo("src/b.c");
+    // the result of the previous content is dropped
+    assertThat(cacheDir.list()).hasSize(2);
+
+    CppcheckRunner otherOptions = runner("--enable=warning");
+    run(otherOptions, ImmutableList.of(a));
+    assertThat(otherOptions.getMisses()).isEqualTo(1);
+    assertThat(cacheDir.list()).hasSize(1);
+  }
+
+  @Test
+  public void should_fail_when_cppcheck_fails() throws Exception {
+    CppcheckRunner runner = runner("--enable=all");
+    thrown.expect(SonarException.class);
+    thrown.expectMessage("Cppcheck failed with exit code 2 on src/fail.c");
+    run(runner, ImmutableList.of(source("src/a.c", "int a;"), source("src/fail.c", "int fail;")));
+  }
+
+  private CppcheckRunner runner(String option) {
+    return new CppcheckRunner(executable, ImmutableList.of(option, "--log=" + log.getAbsolutePath()), 2, baseDir, cacheDir);
+  }
+
+  private InputFile source(String relativePath, String content) throws Exception {
+    File file = new File(baseDir, relativePath);
+    Files.createParentDirs(file);
+    Files.write(content, file, Charsets.UTF_8);
+    return new DefaultInputFile(relativePath).setAbsolutePath(file.getAbsolutePath()).setLanguage("c");
+  }
+
+  private static List<String> run(CppcheckRunner runner, List<InputFile> files) {
+    final List<String> messages = Lists.newArrayList();
+    runner.run(files, CppcheckXmlParser.Backend.STAXMATE, Predicates.<String>alwaysTrue(), new CppcheckXmlParser.MessageHandler() {
+      @Override
+      public void onMessage(CppcheckXmlParser.Message message) {
+        messages.add(message.getId() + "@" + message.getFilename() + ":" + message.getLine());
+      }
+    });
+    return messages;
+  }
+
+}
@@ -19,28 +19,46 @@
  */
 package org.sonarqube.cppcheck;
 
+import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.SystemUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.sonar.api.batch.SensorContext;
 import org.sonar.api.batch.fs.FilePredicate;
 import org.sonar.api.batch.fs.internal.DefaultFileSystem;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.component.ResourcePerspectives;
+import org.sonar.api.issue.Issuable;
+import org.sonar.api.issue.Issue;
 import org.sonar.api.profiles.RulesProfile;
 import org.sonar.api.resources.Project;
 import org.sonar.api.resources.Resource;
+import org.sonar.api.rule.RuleKey;
 import org.sonar.api.rules.ActiveRule;
 import org.sonar.api.rules.Rule;
 import org.sonar.api.rules.RuleFinder;
+import org.sonar.api.rules.RuleQuery;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Collections;
+import java.util.List;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -48,24 +66,47 @@ import static org.mockito.Mockito.when;
 
 public class CppcheckSensorTest {
 
+  private static final String CPPCHECK2 = "src/test/resources/cppcheck2.xml";
+
   private RuleFinder ruleFinder;
   private RulesProfile profile;
   private CppcheckConfiguration configuration;
   private CppcheckSensor sensor;
   private DefaultFileSystem fileSystem;
+  private CppcheckReportCache reportCache;
+  private SensorContext context;
+  private ResourcePerspectives perspectives;
+  private Issuable issuable;
+  private Issuable.IssueBuilder builder;
 
   @org.junit.Rule
   public ExpectedException thrown = ExpectedException.none();
 
+  @org.junit.Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
   @Before
   public void setUp() {
     ruleFinder = mock(RuleFinder.class);
     profile = mock(RulesProfile.class);
     configuration = mock(CppcheckConfiguration.class);
+    when(configuration.getXmlParser()).thenReturn(CppcheckXmlParser.Backend.STAXMATE);
     fileSystem = spy(new DefaultFileSystem(new File("src/test/resources/cppcheck")));
+    reportCache = spy(new CppcheckReportCache());
+    context = mock(SensorContext.class);
 
-    sensor = spy(new CppcheckSensor(configuration, profile, ruleFinder, fileSystem, null));
+    perspectives = mock(ResourcePerspectives.class);
+    issuable = mock(Issuable.class);
+    builder = mock(Issuable.IssueBuilder.class, Mockito.RETURNS_DEEP_STUBS);
+    when(issuable.newIssueBuilder()).thenReturn(builder);
+    when(builder.ruleKey(any(RuleKey.class))).thenReturn(builder);
+    when(builder.message(anyString())).thenReturn(builder);
+    when(builder.line(Mockito.anyInt())).thenReturn(builder);
+    when(builder.attribute(anyString(), anyString())).thenReturn(builder);
+
+    sensor = spy(new CppcheckSensor(configuration, profile, ruleFinder, fileSystem, null, reportCache));
     Mockito.doNothing().when(sensor).save(any(Resource.class), Mockito.any(Rule.class), any(CppcheckXmlParser.Message.class));
+    Mockito.doNothing().when(sensor).save(any(Resource.class), anyListOf(Rule.class), anyListOf(CppcheckXmlParser.Message.class));
   }
 
   @Test
@@ -89,23 +130,259 @@ public class CppcheckSensorTest {
 
   @Test
   public void should_parse() {
-    when(ruleFinder.findByKey(anyString(), anyString()))
-      .thenReturn(null)
-      .thenReturn(Rule.create());
+    activateRules("missingInclude");
+    reports(CPPCHECK2);
+    Project project = mock(Project.class);
+
+    sensor.analyse(project, context);
+
+    // message without location is saved on the project, once per language
+    verify(sensor, times(2)).save(Mockito.eq(project), Mockito.any(Rule.class), any(CppcheckXmlParser.Message.class));
+    verify(ruleFinder, never()).findByKey(anyString(), anyString());
+  }
+
+  @Test
+  public void should_save_messages_on_resolved_files() {
+    activateRules("memleak", "erase");
+    Resource memleak = indexFile("src/memleak/bad.c", "c");
+    // file src/erase/bad.cpp is not indexed by SonarQube
+    addFile("src/erase/bad.cpp", "cpp");
+    reports(CPPCHECK2);
+
+    sensor.analyse(mock(Project.class), context);
 
+    verify(sensor).save(Mockito.eq(memleak), anyListOf(Rule.class), anyListOf(CppcheckXmlParser.Message.class));
+    verify(sensor, times(1)).save(any(Resource.class), anyListOf(Rule.class), anyListOf(CppcheckXmlParser.Message.class));
+  }
+
+  @Test
+  public void should_export_statistics() throws Exception {
+    activateRules("memleak", "erase");
+    indexFile("src/memleak/bad.c", "c");
+    addFile("src/erase/bad.cpp", "cpp");
+    File stats = exportStats();
+    reports(CPPCHECK2);
+
+    sensor.analyse(mock(Project.class), context);
+
+    String json = FileUtils.readFileToString(stats);
+    assertThat(json).contains("\"messages\":9");
+    // message without location, with an unknown rule for each language, is dropped once
+    assertThat(json).contains("\"unknownRule\":1");
+    assertThat(json).contains("\"unindexedFile\":6");
+    assertThat(json).contains("\"notAnalysedFile\":1");
+    assertThat(json).contains("\"parse\":");
+  }
+
+  @Test
+  public void should_drop_messages_of_baseline() throws Exception {
+    activateRules("memleak", "missingInclude");
+    indexFile("src/memleak/bad.c", "c");
+    File stats = exportStats();
+    when(configuration.getBaselineFile()).thenReturn(new File("src/test/resources/baseline/suppressions.txt"));
+    reports(CPPCHECK2);
     Project project = mock(Project.class);
 
-    SensorContext context = mock(SensorContext.class);
-    when(context.isIndexed(Mockito.eq((Resource) null), Mockito.eq(false)))
-      .thenReturn(false)
-      .thenReturn(true);
+    sensor.analyse(project, context);
+
+    verify(sensor, never()).save(any(Resource.class), anyListOf(Rule.class), anyListOf(CppcheckXmlParser.Message.class));
+    verify(sensor, never()).save(Mockito.eq(project), Mockito.any(Rule.class), any(CppcheckXmlParser.Message.class));
+    String json = FileUtils.readFileToString(stats);
+    assertThat(json).contains("\"messages\":9");
+    // memleak, erase, resourceLeak and missingInclude
+    assertThat(json).contains("\"duplicate\":0,\"baseline\":4,");
+  }
 
-    when(profile.getActiveRulesByRepository(anyString())).thenReturn(ImmutableList.of(mock(ActiveRule.class)));
+  @Test
+  public void should_drop_messages_of_baseline_from_shared_report() {
+    activateRules("missingInclude");
+    reports("src/test/resources/no-location.xml");
+    when(configuration.getBaselineFile()).thenReturn(new File("src/test/resources/baseline/suppressions.txt"));
+    Project module = module();
+
+    sensor.analyse(module, context);
+
+    verify(sensor, never()).save(Mockito.eq(module), Mockito.any(Rule.class), any(CppcheckXmlParser.Message.class));
+  }
+
+  @Test
+  public void should_import_messages_sorted_by_file_within_memory_budget() throws Exception {
+    activateRules("memleak", "resourceLeak");
+    Resource memleak = indexFile("src/memleak/bad.c", "c");
+    Resource resourceLeak = indexFile("src/resourceLeak/bad.c", "c");
+    File workDir = workDir();
+    // a few messages per run
+    when(configuration.getMemoryBudget()).thenReturn(500L);
+    reports(CPPCHECK2, CPPCHECK2);
+
+    sensor.analyse(mock(Project.class), context);
+
+    verify(sensor).save(Mockito.eq(memleak), anyListOf(Rule.class), anyListOf(CppcheckXmlParser.Message.class));
+    verify(sensor).save(Mockito.eq(resourceLeak), anyListOf(Rule.class), anyListOf(CppcheckXmlParser.Message.class));
+    assertThat(new File(workDir, "cppcheck").list()).isEmpty();
+  }
+
+  @Test
+  public void should_import_messages_stored_off_heap_for_modules() throws Exception {
+    activateRules("memleak", "resourceLeak");
+    Resource memleak = indexFile("src/memleak/bad.c", "c");
+    Resource resourceLeak = indexFile("src/resourceLeak/bad.c", "c");
+    issuesOn(memleak);
+    File stats = exportStats();
+    when(configuration.isOffHeap()).thenReturn(true);
+    reports(CPPCHECK2);
+    CppcheckSensor sensor = spy(issueSensor());
+
+    sensor.analyse(module(), context);
+
+    // issues are built from the store, without messages
+    verify(builder).ruleKey(RuleKey.of("c-cppcheck", "memleak"));
+    verify(builder).message("Memory leak: a");
+    verify(builder).line(8);
+    verify(issuable, times(1)).addIssue(any(Issue.class));
+    verify(perspectives).as(Issuable.class, resourceLeak);
+    verify(sensor, never()).save(any(Resource.class), anyListOf(Rule.class), anyListOf(CppcheckXmlParser.Message.class));
+    assertThat(FileUtils.readFileToString(stats)).contains("\"messages\":9");
+  }
+
+  @Test
+  public void should_run_cppcheck_instead_of_importing_reports() throws Exception {
+    assumeTrue(!SystemUtils.IS_OS_WINDOWS);
+    activateRules("memleak", "missingInclude");
+    File executable = new File(temp.newFolder(), "cppcheck.sh");
+    FileUtils.copyFile(new File("src/test/resources/runner/cppcheck.sh"), executable);
+    executable.setExecutable(true);
+    File baseDir = temp.newFolder();
+    FileUtils.write(new File(baseDir, "src/memleak/bad.c"), "int main() { malloc(1); }");
+    fileSystem.setBaseDir(baseDir);
+    Resource memleak = indexFile("src/memleak/bad.c", "c");
+    File workDir = workDir();
+    when(configuration.getExecutable()).thenReturn(executable);
+    when(configuration.getOptions()).thenReturn(ImmutableList.of("--enable=all"));
+    when(configuration.getProcesses()).thenReturn(2);
+    Project project = mock(Project.class);
 
-    when(configuration.getCppcheckReportFile()).thenReturn(new File("src/test/resources/cppcheck2.xml"));
     sensor.analyse(project, context);
 
-    verify(sensor, times(2)).save(any(Resource.class), Mockito.any(Rule.class), any(CppcheckXmlParser.Message.class));
+    verify(configuration, never()).getCppcheckReportFiles();
+    verify(sensor).save(Mockito.eq(memleak), anyListOf(Rule.class), anyListOf(CppcheckXmlParser.Message.class));
+    // message without location is saved once per language
+    verify(sensor, times(2)).save(Mockito.eq(project), Mockito.any(Rule.class), any(CppcheckXmlParser.Message.class));
+    assertThat(new File(workDir, "cppcheck/results").list()).hasSize(1);
+  }
+
+  @Test
+  public void should_share_parsed_report_between_modules() {
+    activateRules("missingInclude");
+    List<File> reports = reports("src/test/resources/no-location.xml");
+    when(configuration.getReportThreads()).thenReturn(1);
+    Project module = module();
+
+    sensor.analyse(module, context);
+    sensor.analyse(module, context);
+
+    verify(reportCache, times(2)).get(Mockito.eq(reports), any(CppcheckReports.Options.class), Mockito.<Predicate<String>>any());
+    // message without location is saved on each module, once per language
+    verify(sensor, times(4)).save(Mockito.eq(module), Mockito.any(Rule.class), any(CppcheckXmlParser.Message.class));
+  }
+
+  @Test
+  public void should_count_messages_of_inactive_rules() throws Exception {
+    activateRules("memleak");
+    when(ruleFinder.findAll(any(RuleQuery.class))).thenReturn(ImmutableList.of(Rule.create("c-cppcheck", "erase"), Rule.create("c-cppcheck", "resourceLeak")));
+    File stats = exportStats();
+    reports(CPPCHECK2);
+
+    // messages skipped by the parser are counted whether the report is streamed or shared between modules
+    for (Project project : ImmutableList.of(mock(Project.class), module())) {
+      sensor.analyse(project, context);
+      String json = FileUtils.readFileToString(stats);
+      assertThat(json).contains("\"messages\":9");
+      assertThat(json).contains("\"inactiveRule\":2");
+    }
+  }
+
+  @Test
+  public void should_count_duplicates_of_shared_report() throws Exception {
+    activateRules("memleak");
+    File stats = exportStats();
+    reports("src/test/resources/duplicates.xml");
+
+    sensor.analyse(module(), context);
+
+    String json = FileUtils.readFileToString(stats);
+    assertThat(json).contains("\"messages\":6");
+    assertThat(json).contains("\"duplicate\":2,");
+  }
+
+  @Test
+  public void should_save_issues_of_a_file_together() {
+    activateRules("memleak");
+    Resource memleak = indexFile("src/memleak/bad.c", "c");
+    issuesOn(memleak);
+    when(configuration.getReportThreads()).thenReturn(1);
+    reports("src/test/resources/duplicates.xml");
+
+    issueSensor().analyse(mock(Project.class), context);
+
+    // 3 distinct messages on the same file
+    verify(perspectives, times(1)).as(Issuable.class, memleak);
+    verify(issuable, times(3)).addIssue(any(Issue.class));
+  }
+
+  @Test
+  public void should_report_secondary_locations_as_issue_attribute() {
+    Resource resource = org.sonar.api.resources.File.create("src/nullPointer/bad.c");
+    issuesOn(resource);
+
+    CppcheckSensor issueSensor = issueSensor();
+    Rule rule = Rule.create("c-cppcheck", "nullPointer");
+    issueSensor.save(resource, rule, new CppcheckXmlParser.Message("nullPointer", CppcheckXmlParser.Severity.ERROR, "msg", "verbose", "src/nullPointer/bad.c", 5,
+      new CppcheckXmlParser.Locations(new String[] {"src/nullPointer/bad.c", "src/nullPointer/util.h"}, new int[] {3, 0})));
+    issueSensor.save(resource, rule, new CppcheckXmlParser.Message("nullPointer", CppcheckXmlParser.Severity.ERROR, "msg", "verbose", "src/nullPointer/bad.c", 7));
+
+    verify(builder).line(5);
+    verify(builder).line(7);
+    verify(builder).attribute(CppcheckSensor.SECONDARY_LOCATIONS_ATTRIBUTE, "src/nullPointer/bad.c:3\nsrc/nullPointer/util.h:0");
+    verify(builder, times(1)).attribute(anyString(), anyString());
+    verify(issuable, times(2)).addIssue(any(Issue.class));
+  }
+
+  @Test
+  public void should_truncate_secondary_locations() {
+    Resource resource = org.sonar.api.resources.File.create("src/nullPointer/bad.c");
+    issuesOn(resource);
+
+    CppcheckSensor issueSensor = issueSensor();
+    Rule rule = Rule.create("c-cppcheck", "nullPointer");
+    issueSensor.save(resource, rule, messageWithLocations(200, "src/nullPointer/util.h"));
+    issueSensor.save(resource, rule, messageWithLocations(10, "src/" + StringUtils.repeat("directory/", 30) + "util.h"));
+
+    ArgumentCaptor<String> attribute = ArgumentCaptor.forClass(String.class);
+    verify(builder, times(2)).attribute(Mockito.eq(CppcheckSensor.SECONDARY_LOCATIONS_ATTRIBUTE), attribute.capture());
+    String tooMany = attribute.getAllValues().get(0);
+    assertThat(tooMany.split("\n")).hasSize(CppcheckSensor.MAX_SECONDARY_LOCATIONS + 1);
+    assertThat(tooMany).startsWith("src/nullPointer/util.h:0\nsrc/nullPointer/util.h:1\n").endsWith("\nsrc/nullPointer/util.h:49\n... 150 more location(s)");
+    String tooLong = attribute.getAllValues().get(1);
+    assertThat(tooLong.length()).isLessThanOrEqualTo(CppcheckSensor.MAX_SECONDARY_LOCATIONS_LENGTH);
+    assertThat(tooLong).endsWith("\n... 4 more location(s)");
+  }
+
+  @Test
+  public void should_resolve_paths_of_secondary_locations() throws Exception {
+    activateRules("memleak");
+    issuesOn(indexFile("src/memleak/bad.c", "c"));
+    String source = new File(fileSystem.baseDir(), "src/memleak/bad.c").getAbsolutePath();
+    File report = temp.newFile("report.xml");
+    FileUtils.write(report, "<results version=\"2\"><errors><error id=\"memleak\" severity=\"error\" msg=\"Memory leak: a\" verbose=\"Memory leak: a\">"
+      + "<location file=\"" + source + "\" line=\"8\"/><location file=\"" + source + "\" line=\"3\"/>"
+      + "<location file=\"/usr/include/stdlib.h\" line=\"12\"/></error></errors></results>");
+    reports(report.getPath());
+
+    issueSensor().analyse(mock(Project.class), context);
+
+    // files of the module are given relative to the project, others as written in the report
+    verify(builder).attribute(CppcheckSensor.SECONDARY_LOCATIONS_ATTRIBUTE, "src/memleak/bad.c:3\n/usr/include/stdlib.h:12");
   }
 
   @Test
@@ -113,4 +390,90 @@ public class CppcheckSensorTest {
     assertThat(sensor.toString()).isEqualTo("Cppcheck");
   }
 
+  private static CppcheckXmlParser.Message messageWithLocations(int count, String filename) {
+    String[] filenames = new String[count];
+    int[] lines = new int[count];
+    for (int i = 0; i < count; i++) {
+      filenames[i] = filename;
+      lines[i] = i;
+    }
+    return new CppcheckXmlParser.Message("nullPointer", CppcheckXmlParser.Severity.ERROR, "msg", "verbose", "src/nullPointer/bad.c", 5,
+      new CppcheckXmlParser.Locations(filenames, lines));
+  }
+
+  private void activateRules(String... ids) {
+    for (String language : new String[] {"c", "cpp"}) {
+      String repositoryKey = CppcheckRuleRepository.repositoryKeyForLanguage(language);
+      List<ActiveRule> activeRules = Lists.newArrayList();
+      for (String id : ids) {
+        ActiveRule activeRule = mock(ActiveRule.class);
+        when(activeRule.getRule()).thenReturn(Rule.create(repositoryKey, id));
+        activeRules.add(activeRule);
+      }
+      when(profile.getActiveRulesByRepository(repositoryKey)).thenReturn(activeRules);
+    }
+  }
+
+  /**
+   * Adds a file of the base directory to the file system, without resource in the context.
+   */
+  private DefaultInputFile addFile(String path, String language) {
+    DefaultInputFile inputFile = new DefaultInputFile(path).setAbsolutePath(new File(fileSystem.baseDir(), path).getAbsolutePath()).setLanguage(language);
+    fileSystem.add(inputFile);
+    return inputFile;
+  }
+
+  /**
+   * Adds a file of the base directory to the file system, and returns its resource in the context.
+   */
+  private Resource indexFile(String path, String language) {
+    DefaultInputFile inputFile = addFile(path, language);
+    Resource resource = org.sonar.api.resources.File.create(path);
+    when(context.getResource(inputFile)).thenReturn(resource);
+    return resource;
+  }
+
+  /**
+   * Issues of the resource are built with the shared issuable and builder.
+   */
+  private void issuesOn(Resource resource) {
+    when(perspectives.as(Issuable.class, resource)).thenReturn(issuable);
+  }
+
+  /**
+   * Sensor saving issues through the perspectives, instead of the sensor whose saves are stubbed.
+   */
+  private CppcheckSensor issueSensor() {
+    return new CppcheckSensor(configuration, profile, ruleFinder, fileSystem, perspectives, reportCache);
+  }
+
+  private List<File> reports(String... paths) {
+    List<File> reports = Lists.newArrayList();
+    for (String path : paths) {
+      reports.add(new File(path));
+    }
+    when(configuration.getCppcheckReportFiles()).thenReturn(reports);
+    return reports;
+  }
+
+  private static Project module() {
+    Project module = mock(Project.class);
+    when(module.isModule()).thenReturn(true);
+    return module;
+  }
+
+  private File workDir() throws IOException {
+    File workDir = temp.newFolder();
+    fileSystem.setWorkDir(workDir);
+    return workDir;
+  }
+
+  /**
+   * Enables the export of statistics, and returns the file they are exported to.
+   */
+  private File exportStats() throws IOException {
+    when(configuration.isStatsExported()).thenReturn(true);
+    return new File(workDir(), CppcheckImportStats.FILENAME);
+  }
+
 }
@@ -19,23 +19,36 @@
  */
 package org.sonarqube.cppcheck;
 
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import org.apache.commons.io.FileUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.sonar.api.utils.SonarException;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
 
 public class CppcheckXmlParserTest {
 
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
   @Test
   public void test2() {
     File file = FileUtils.toFile(getClass().getResource("/cppcheck2.xml"));
@@ -47,21 +60,196 @@ public class CppcheckXmlParserTest {
     assertThat(message.getId()).isEqualTo("autoVariables");
     assertThat(message.getMsg()).isEqualTo("Assigning address of local auto-variable to a function parameter.");
     assertThat(message.getVerbose()).startsWith("Dangerous assignment");
-    assertThat(message.getSeverity()).isEqualTo("error");
-    assertThat(message.getLine()).isEqualTo("4");
+    assertThat(message.getSeverity()).isEqualTo(CppcheckXmlParser.Severity.ERROR);
+    assertThat(message.getLine()).isEqualTo(4);
     assertThat(message.getFilename()).isEqualTo("src/autoVariables/bad.c");
   }
 
+  @Test
+  public void should_read_secondary_locations() {
+    File file = FileUtils.toFile(getClass().getResource("/locations/multiple-locations.xml"));
+
+    List<CppcheckXmlParser.Message> messages = ImmutableList.copyOf(CppcheckXmlParser.parse(file));
+    CppcheckXmlParser.Message single = messages.get(0);
+    assertThat(single.getSecondaryLocations()).isNull();
+
+    CppcheckXmlParser.Message multiple = messages.get(1);
+    assertThat(multiple.getId()).isEqualTo("nullPointer");
+    assertThat(multiple.getFilename()).isEqualTo("src/nullPointer/bad.c");
+    assertThat(multiple.getLine()).isEqualTo(5);
+    CppcheckXmlParser.Locations locations = multiple.getSecondaryLocations();
+    assertThat(locations.size()).isEqualTo(2);
+    assertThat(locations.getFilename(0)).isEqualTo("src/nullPointer/bad.c");
+    assertThat(locations.getFilename(1)).isSameAs(locations.getFilename(0));
+    assertThat(locations.getLine(0)).isEqualTo(4);
+    assertThat(locations.getLine(1)).isEqualTo(3);
+  }
+
+  @Test
+  public void should_share_ids_and_filenames_between_messages() {
+    File file = FileUtils.toFile(getClass().getResource("/duplicates.xml"));
+
+    List<CppcheckXmlParser.Message> messages = ImmutableList.copyOf(CppcheckXmlParser.parse(file));
+    assertThat(messages.get(2).getId()).isSameAs(messages.get(0).getId());
+    assertThat(messages.get(2).getFilename()).isSameAs(messages.get(0).getFilename());
+    assertThat(messages.get(0).getVerbose()).isSameAs(messages.get(0).getMsg());
+  }
+
+  @Test
+  public void should_keep_missing_descriptions() {
+    File file = FileUtils.toFile(getClass().getResource("/locations/missing-descriptions.xml"));
+    for (CppcheckXmlParser.Backend backend : CppcheckXmlParser.Backend.values()) {
+      final List<CppcheckXmlParser.Message> messages = Lists.newArrayList();
+      CppcheckXmlParser.parse(file, backend, Predicates.<String>alwaysTrue(), new CppcheckXmlParser.MessageHandler() {
+        @Override
+        public void onMessage(CppcheckXmlParser.Message message) {
+          messages.add(message);
+        }
+      });
+      assertThat(messages).hasSize(3);
+      assertThat(messages.get(0).getMsg()).isNull();
+      assertThat(messages.get(0).getVerbose()).isNull();
+      assertThat(messages.get(1).getMsg()).isEqualTo("Null pointer dereference");
+      assertThat(messages.get(1).getVerbose()).isNull();
+      assertThat(messages.get(2).getVerbose()).isEqualTo("Missing include");
+    }
+  }
+
+  @Test
+  public void should_default_to_none_severity() {
+    assertThat(CppcheckXmlParser.Severity.fromName("warning")).isEqualTo(CppcheckXmlParser.Severity.WARNING);
+    assertThat(CppcheckXmlParser.Severity.fromName("unknown")).isEqualTo(CppcheckXmlParser.Severity.NONE);
+    assertThat(CppcheckXmlParser.Severity.fromName(null)).isEqualTo(CppcheckXmlParser.Severity.NONE);
+  }
+
+  @Test
+  public void should_stream_messages_in_document_order() {
+    File file = FileUtils.toFile(getClass().getResource("/cppcheck2.xml"));
+    final List<String> ids = Lists.newArrayList();
+    CppcheckXmlParser.parse(file, new CppcheckXmlParser.MessageHandler() {
+      @Override
+      public void onMessage(CppcheckXmlParser.Message message) {
+        ids.add(message.getId());
+      }
+    });
+    assertThat(ids).hasSize(9);
+    assertThat(ids.get(0)).isEqualTo("autoVariables");
+    assertThat(ids.get(8)).isEqualTo("syntaxError");
+  }
+
+  @Test
+  public void should_skip_messages_rejected_by_rule_filter() {
+    File file = FileUtils.toFile(getClass().getResource("/cppcheck2.xml"));
+    final List<CppcheckXmlParser.Message> messages = Lists.newArrayList();
+    CppcheckXmlParser.parse(file, Predicates.in(ImmutableSet.of("memleak", "missingInclude")), new CppcheckXmlParser.MessageHandler() {
+      @Override
+      public void onMessage(CppcheckXmlParser.Message message) {
+        messages.add(message);
+      }
+    });
+    assertThat(messages).onProperty("id").containsExactly("missingInclude", "memleak");
+    assertThat(messages.get(1).getFilename()).isEqualTo("src/memleak/bad.c");
+  }
+
   @Test
   public void test3() {
     File file = FileUtils.toFile(getClass().getResource("/no-location.xml"));
     Collection<CppcheckXmlParser.Message> messages = CppcheckXmlParser.parse(file);
     CppcheckXmlParser.Message message = Iterables.getOnlyElement(messages);
     assertThat(message.getMsg()).isNotNull();
-    assertThat(message.getLine()).isNull();
+    assertThat(message.getLine()).isEqualTo(0);
+    assertThat(message.getSeverity()).isEqualTo(CppcheckXmlParser.Severity.INFORMATION);
     assertThat(message.getFilename()).isNull();
   }
 
+  @Test
+  public void should_parse_generated_report() throws Exception {
+    File report = new CppcheckReportGenerator().setErrors(500).setFiles(20).write(temp.newFile("generated.xml"));
+    Collection<CppcheckXmlParser.Message> messages = CppcheckXmlParser.parse(report);
+    assertThat(messages).hasSize(500);
+    assertThat(FileUtils.readFileToString(report))
+      .isEqualTo(FileUtils.readFileToString(new CppcheckReportGenerator().setErrors(500).setFiles(20).write(temp.newFile("same.xml"))));
+  }
+
+  @Test
+  public void backends_should_give_same_messages() throws Exception {
+    List<File> reports = Lists.newArrayList(FileUtils.listFiles(new File("src/test/resources"), new String[] {"xml"}, true));
+    reports.addAll(FileUtils.listFiles(new File("src/main/files"), new String[] {"xml"}, false));
+    reports.add(new File("src/main/resources/org/sonarqube/cppcheck.xml"));
+    reports.add(new CppcheckReportGenerator().setErrors(20000).setFiles(200).setLocations(3).write(temp.newFile("generated.xml")));
+    reports.add(new CppcheckReportGenerator().setErrors(100).setLocations(0).write(temp.newFile("no-location.xml")));
+    for (File report : reports) {
+      assertThat(describe(report, CppcheckXmlParser.Backend.STAX)).as(report.getPath()).isEqualTo(describe(report, CppcheckXmlParser.Backend.STAXMATE));
+    }
+  }
+
+  @Test
+  public void backends_should_apply_rule_filter() {
+    File file = FileUtils.toFile(getClass().getResource("/cppcheck2.xml"));
+    final List<String> ids = Lists.newArrayList();
+    CppcheckXmlParser.parse(file, CppcheckXmlParser.Backend.STAX, Predicates.in(ImmutableSet.of("memleak", "missingInclude")),
+      new CppcheckXmlParser.MessageHandler() {
+        @Override
+        public void onMessage(CppcheckXmlParser.Message message) {
+          ids.add(message.getId());
+        }
+      });
+    assertThat(ids).containsExactly("missingInclude", "memleak");
+  }
+
+  @Test
+  public void backends_should_fail_on_unexpected_element() throws Exception {
+    File report = temp.newFile("unexpected.xml");
+    FileUtils.write(report, "<results><error id=\"memleak\" msg=\"leak\"/></results>");
+    for (CppcheckXmlParser.Backend backend : CppcheckXmlParser.Backend.values()) {
+      try {
+        CppcheckXmlParser.parse(report, backend, Predicates.<String>alwaysTrue(), new CppcheckXmlParser.MessageHandler() {
+          @Override
+          public void onMessage(CppcheckXmlParser.Message message) {
+          }
+        });
+        fail(backend.name());
+      } catch (IllegalStateException e) {
+        assertThat(e.getMessage()).isEqualTo("Unexpected cppcheck file format, unexpected xml element: error");
+      }
+    }
+  }
+
+  /**
+   * All the fields of the messages, with file names written once per distinct instance so that interning is compared too.
+   */
+  private static List<String> describe(File report, CppcheckXmlParser.Backend backend) {
+    final List<String> lines = Lists.newArrayList();
+    final Map<String, String> filenames = new IdentityHashMap<>();
+    CppcheckXmlParser.parse(report, backend, Predicates.<String>alwaysTrue(), new CppcheckXmlParser.MessageHandler() {
+      @Override
+      public void onMessage(CppcheckXmlParser.Message message) {
+        StringBuilder line = new StringBuilder()
+          .append(message.getReplacement()).append('|')
+          .append(message.getId()).append('|')
+          .append(message.getSeverity()).append('|')
+          .append(message.getMsg()).append('|')
+          .append(message.getVerbose()).append('|')
+          .append(filename(message.getFilename())).append('|')
+          .append(message.getLine());
+        CppcheckXmlParser.Locations locations = message.getSecondaryLocations();
+        for (int i = 0; locations != null && i < locations.size(); i++) {
+          line.append('|').append(filename(locations.getFilename(i))).append(':').append(locations.getLine(i));
+        }
+        lines.add(line.toString());
+      }
+
+      private String filename(@Nullable String filename) {
+        if (filename == null || filenames.containsKey(filename)) {
+          return filename;
+        }
+        filenames.put(filename, filename);
+        return "new " + filename;
+      }
+    });
+    return lines;
+  }
+
   @Test
   public void should_throw_exception() throws Exception {
     thrown.expect(SonarException.class);
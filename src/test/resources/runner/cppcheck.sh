@@ -0,0 +1,28 @@
+#!/bin/sh
+# Stub of Cppcheck: writes a canned XML result for the file given as last argument to the error output, and
+# appends the file to the log given by the --log option. Files whose name contains "fail" fail.
+log=
+for file; do
+  case "$file" in
+    --log=*) log="${file#--log=}" ;;
+  esac
+done
+if [ -n "$log" ]; then
+  echo "$file" >> "$log"
+fi
+case "$file" in
+  *fail*) echo "cppcheck: internal error" >&2; exit 2 ;;
+esac
+echo "Checking $file ..."
+cat >&2 <<XML
+<?xml version="1.0" encoding="UTF-8"?>
+<results version="2">
+  <cppcheck version="1.71"/>
+  <errors>
+    <error id="memleak" severity="error" msg="Memory leak: p" verbose="Memory leak: p">
+      <location file="$file" line="3"/>
+    </error>
+    <error id="missingInclude" severity="information" msg="Cppcheck cannot find all the include files" verbose="Cppcheck cannot find all the include files"/>
+  </errors>
+</results>
+XML